@@ -254,6 +254,11 @@ public class BAccessorEntry {
 		
 		if (data==null)
 			return false;
+		if (data instanceof BValueFile){//values are checked when the file is loaded
+			if (((BValueFile) data).getPath()==null)
+				return false;
+			return dataType_==DGMAttribute.DT_STRING || dataType_==DGMAttribute.DT_LONG;
+		}
 		if (data instanceof Set || data instanceof List){//only handles Set or List
 			if (((Collection<?>)data).isEmpty())
 				return false;
@@ -17,6 +17,7 @@
 package bzh.plealog.bioinfo.api.filter;
 
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
 
@@ -29,6 +30,11 @@ import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
 public interface BFilter extends Cloneable {
   public static final String FILTER_NAME_NONE = "none";
 
+  /** Execution engine relying on a hyper-graph and the HGE query system*/
+  public static final int ENGINE_HGE = 0;
+  /** Execution engine walking directly the SROutput objects tree*/
+  public static final int ENGINE_DIRECT = 1;
+
   /**
    * Compiles the set of BRules contained in this filter to create a ready
    * to execute filter.
@@ -42,6 +48,42 @@ public interface BFilter extends Cloneable {
    */
   public SROutput execute(SROutput bo) throws BFilterException;
 
+  /**
+   * Executes this filter on a SROutput. Contrary to execute(SROutput), the
+   * objects satisfying the filter are not copied: the result is a view
+   * over the source SROutput.
+   * 
+   * @return a view over the objects satisfying the filter or null if not
+   * result found.
+   */
+  public BFilterResultView executeView(SROutput bo) throws BFilterException;
+
+  /**
+   * Executes this filter on a SROutput. Iterations are filtered in parallel
+   * using a pool of threads, then they are merged back in their original order. 
+   * 
+   * @param bo the data to filter
+   * @param pool the pool used to filter iterations. If null, this method
+   * is the same as execute(SROutput).
+   * 
+   * @return a filtered SROutput or null if not result found.
+   */
+  public SROutput execute(SROutput bo, ForkJoinPool pool) throws BFilterException;
+
+  /**
+   * Executes this filter on a stream of iterations. Each iteration read from
+   * the source is filtered, then passed to the sink if some of its hits 
+   * satisfy this filter. So, memory usage depends on the size of a single
+   * iteration, not on the size of the whole search result. 
+   * 
+   * @param source the data to filter. It is not closed by this method.
+   * @param sink the consumer of filtered iterations. It is ended even if an
+   * error occurs.
+   * 
+   * @return the number of iterations passed to the sink
+   */
+  public int execute(BIterationSource source, BIterationSink sink) throws BFilterException;
+
   /**
    * Adds a rule to this filter.
    */
@@ -95,6 +137,47 @@ public interface BFilter extends Cloneable {
    */
   public void setExclusive(boolean val);
 
+  /**
+   * Returns the engine used to execute this filter. One of ENGINE_XXX constants.
+   */
+  public int getEngineType();
+
+  /**
+   * Sets the engine used to execute this filter. One of ENGINE_XXX constants.
+   * Default is ENGINE_HGE.
+   */
+  public void setEngineType(int engineType);
+
+  /**
+   * Figures out whether the hyper-graphs used by the HGE engine are taken from
+   * a cache shared by all filters.
+   */
+  public boolean getGraphCache();
+
+  /**
+   * Sets whether the hyper-graphs used by the HGE engine are taken from a cache
+   * shared by all filters. Filters executed one after the other on the same 
+   * SROutput then share a single hyper-graph. A cached hyper-graph keeps its
+   * SROutput in memory until it is discarded from the cache. Default is false.
+   */
+  public void setGraphCache(boolean val);
+
+  /**
+   * Figures out whether an exclusive filter refilters its last result when
+   * rules have been added since its last execution.
+   */
+  public boolean getIncrementalRefiltering();
+
+  /**
+   * Sets whether an exclusive filter refilters its last result when rules have
+   * been added since its last execution on the same SROutput, instead of 
+   * executing all its rules again. The last result, along with its SROutput, is
+   * then kept by the filter. The structure of the SROutput is checked before
+   * refiltering, but changes of attribute values are not detected. Default is
+   * false.
+   */
+  public void setIncrementalRefiltering(boolean val);
+
   /**
    * Returns a HTML representation of the filter. This is mainly used for display
    * purpose in a user interface.
@@ -0,0 +1,89 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.api.filter;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+
+/**
+ * This interface defines a filter result as a view over a source SROutput.
+ * Iterations, hits and HSPs satisfying a filter are not copied: this view
+ * only records which of them passed the filter. 
+ * <br><br>
+ * Objects returned by this view belong to the source SROutput, so they must
+ * not be modified. In particular, a hit may contain HSPs that do not satisfy
+ * the filter: use countHsp(int, int) and getHsp(int, int, int) to access the
+ * ones that passed.
+ * 
+ * @author Patrick G. Durand
+ */
+public interface BFilterResultView {
+  /**
+   * Returns the SROutput this view relies on.
+   */
+  public SROutput getSource();
+
+  /**
+   * Returns the number of iterations having hits satisfying the filter.
+   */
+  public int countIteration();
+
+  /**
+   * Returns an iteration having hits satisfying the filter.
+   */
+  public SRIteration getIteration(int iterIdx);
+
+  /**
+   * Returns the number of hits of an iteration satisfying the filter.
+   */
+  public int countHit(int iterIdx);
+
+  /**
+   * Returns a hit satisfying the filter.
+   */
+  public SRHit getHit(int iterIdx, int hitIdx);
+
+  /**
+   * Returns the number of HSPs of a hit satisfying the filter.
+   */
+  public int countHsp(int iterIdx, int hitIdx);
+
+  /**
+   * Returns an HSP satisfying the filter.
+   */
+  public SRHsp getHsp(int iterIdx, int hitIdx, int hspIdx);
+
+  /**
+   * Returns the total number of hits satisfying the filter.
+   */
+  public int getTotalHits();
+
+  /**
+   * Returns the total number of HSPs satisfying the filter.
+   */
+  public int getTotalHsps();
+
+  /**
+   * Creates a SROutput containing copies of the objects of this view. This
+   * SROutput is the same as the one returned by BFilter.execute(SROutput).
+   * 
+   * @return a new SROutput or null if this view is empty.
+   */
+  public SROutput materialize();
+}
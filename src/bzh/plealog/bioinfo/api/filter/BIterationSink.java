@@ -0,0 +1,47 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.api.filter;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+
+/**
+ * This interface defines a consumer of filtered SRIterations. It is used to
+ * produce a filtered search result one iteration at a time.
+ * 
+ * @author Patrick G. Durand
+ */
+public interface BIterationSink {
+  /**
+   * Starts a new search result.
+   * 
+   * @param header a SROutput containing the header data of the search result.
+   * It does not contain any iteration.
+   */
+  public void start(SROutput header) throws BFilterException;
+
+  /**
+   * Consumes a filtered iteration.
+   */
+  public void accept(SRIteration iteration) throws BFilterException;
+
+  /**
+   * Ends the search result. This method is also called when filtering fails,
+   * so that resources used by this sink can be released.
+   */
+  public void end() throws BFilterException;
+}
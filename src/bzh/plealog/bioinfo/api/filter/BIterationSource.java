@@ -0,0 +1,45 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.api.filter;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+
+/**
+ * This interface defines a source of SRIterations. It is used to filter a
+ * search result one iteration at a time, without loading it entirely in memory.
+ * 
+ * @author Patrick G. Durand
+ */
+public interface BIterationSource {
+  /**
+   * Returns a SROutput containing the header data of the search result: blast
+   * type, parameters and request information. The returned object does not
+   * contain any iteration.
+   */
+  public SROutput getHeader() throws BFilterException;
+
+  /**
+   * Returns the next iteration or null if no more iteration is available.
+   */
+  public SRIteration next() throws BFilterException;
+
+  /**
+   * Releases the resources used by this source.
+   */
+  public void close();
+}
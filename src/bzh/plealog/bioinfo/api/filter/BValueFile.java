@@ -0,0 +1,92 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.api.filter;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * This class defines a rule value referring to a file listing values, one per
+ * line. It can be used with the strInSet, strNotInSet, longInSet and 
+ * longNotInSet operators instead of a Set of values: huge lists of accessions
+ * are then neither embedded in the filter nor serialized with it.
+ * <br><br>
+ * Empty lines and lines starting with # are ignored. The file is loaded when
+ * a filter is compiled; it is loaded again when it has been modified.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BValueFile implements Serializable {
+  private static final long serialVersionUID = -2586409412236381075L;
+  private String path;
+
+  //only used when a filter is loaded; path is then set by the serializer
+  private BValueFile(){}
+
+  /**
+   * Constructor.
+   * 
+   * @param path path to the file listing values
+   */
+  public BValueFile(String path){
+    if (path==null)
+      throw new IllegalArgumentException("path is null");
+    this.path = path;
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param file the file listing values
+   */
+  public BValueFile(File file){
+    this(file.getAbsolutePath());
+  }
+
+  /**
+   * Returns the path to the file listing values. May be null if a filter
+   * loaded from a file does not provide it.
+   */
+  public String getPath(){
+    return path;
+  }
+
+  /**
+   * Returns the file listing values or null if no path is available.
+   */
+  public File getFile(){
+    return path!=null ? new File(path) : null;
+  }
+
+  @Override
+  public boolean equals(Object obj){
+    if (!(obj instanceof BValueFile))
+      return false;
+    return Objects.equals(path, ((BValueFile) obj).path);
+  }
+
+  @Override
+  public int hashCode(){
+    return Objects.hashCode(path);
+  }
+
+  @Override
+  public String toString(){
+    return "file("+path+")";
+  }
+}
@@ -19,30 +19,47 @@ package bzh.plealog.bioinfo.filter.implem;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
 import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
 import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
 import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
-import bzh.plealog.bioinfo.api.data.searchresult.utils.SRFactory;
 import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
 import bzh.plealog.bioinfo.api.filter.BFilter;
 import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BFilterResultView;
+import bzh.plealog.bioinfo.api.filter.BIterationSink;
+import bzh.plealog.bioinfo.api.filter.BIterationSource;
 import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
 import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.api.filter.BValueFile;
 import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGCompactGraph;
 import bzh.plealog.bioinfo.filter.implem.datagraph.BGraph;
 import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+import bzh.plealog.bioinfo.filter.implem.engine.BDirectEngine;
+import bzh.plealog.bioinfo.filter.implem.engine.BFilterResultViewImplem;
+import bzh.plealog.bioinfo.filter.implem.engine.BLongHashSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultCollector;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultBuilder;
+import bzh.plealog.bioinfo.filter.implem.engine.BRulePlanner;
+import bzh.plealog.bioinfo.filter.implem.engine.BSelectivityEstimator;
+import bzh.plealog.bioinfo.filter.implem.engine.BStringHashSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BValueSetRegistry;
 import bzh.plealog.bioinfo.io.filter.BFilterIO;
 import bzh.plealog.bioinfo.io.filter.BRuleIO;
 import bzh.plealog.hge.api.datamodel.DGMAttribute;
 import bzh.plealog.hge.api.hypergraph.HDGVertex;
+import bzh.plealog.hge.api.hypergraph.HDataGraph;
 import bzh.plealog.hge.api.query.HGEManager;
 import bzh.plealog.hge.api.query.HGEQuery;
 import bzh.plealog.hge.api.query.HGEResult;
@@ -62,9 +79,19 @@ public class BFilterImplem implements BFilter {
   private ArrayList<BRule> rules_;
   private HGEQuery         query_;
   private BGDataModel      bGraphModel_;
-  private BIterationSorter iterComparator;
-  private BHitSorter       hitComparator;
-  private BHspSorter       hspComparator;
+  private BDirectEngine    directEngine_;
+  private BPlanCache.BPlan plan_;
+  private SROutput         lastSource_;
+  private BFilterResultView lastResult_;
+  private int              lastRuleCount_ = -1;
+  private long             lastStamp_;
+  private int              engineType_ = ENGINE_HGE;
+  private boolean          graphCache_;
+  private boolean          incremental_;
+  private BSelectivityEstimator estimator_;
+  private boolean          compactGraph_;
+  //compiled sets of values used by the rules; immutable once published
+  private volatile Map<BRule, Object> valueSets_;
   private BOperatorAccessors filterModel_;
   private boolean verbose_;
   private Hashtable<String, String> mapper_;
@@ -82,6 +109,10 @@ public class BFilterImplem implements BFilter {
   protected static final String QL_VAR = "v6";
   protected static final String IN_VAR = " in \"";
 
+  static {
+    BSetFunctions.register();
+  }
+
   public BFilterImplem(BOperatorAccessors fModel){
     this(fModel, new BGDataModel());
   }
@@ -89,12 +120,9 @@ public class BFilterImplem implements BFilter {
   public BFilterImplem(BOperatorAccessors fModel, BGDataModel graphDataModel){
     filterModel_ = fModel;
     rules_ = new ArrayList<BRule>();
+    valueSets_ = Collections.emptyMap();
     bGraphModel_ = graphDataModel;
     description_="no description";
-    iterComparator = new BIterationSorter();
-    hitComparator = new BHitSorter();
-    hspComparator = new BHspSorter();
-    
   }
   public BFilterImplem(BOperatorAccessors fModel, BFilterIO filter){
     this(fModel, new BGDataModel(), filter);
@@ -140,6 +168,13 @@ public class BFilterImplem implements BFilter {
     this.setName(src.getName());
     this.setDescription(src.getDescription());
     this.setExclusive(src.getExclusive());
+    this.setEngineType(src.getEngineType());
+    this.setGraphCache(src.getGraphCache());
+    this.setIncrementalRefiltering(src.getIncrementalRefiltering());
+    if (src instanceof BFilterImplem){
+      this.setSelectivityEstimator(((BFilterImplem) src).getSelectivityEstimator());
+      this.setCompactGraph(((BFilterImplem) src).getCompactGraph());
+    }
     iter = src.getRules();
     while(iter.hasNext()){
       this.add((BRule) iter.next().clone());
@@ -270,15 +305,13 @@ public class BFilterImplem implements BFilter {
     appendAtomicValue(szBuf, ((List<?>)rule.getValue()).get(1), entry.getDataType());
     szBuf.append(")");
   }
-  private void formatStrInSetRule(StringBuffer szBuf, BRule rule) throws BFilterException{
+  private void formatStrInSetRule(StringBuffer szBuf, BRule rule, Map<BRule, Object> sets) throws BFilterException{
     BAccessorEntry entry;
-    String         name;
-    Set<?>         values;
-    Iterator<?>    iter;
-    Object         data;
-    int            dType;
+    Object         set;
+    String         name, ope, id;
 
-    szBuf.append(rule.getOperator());
+    ope = rule.getOperator();
+    szBuf.append(BSetFunctions.getFunctionName(ope));
     szBuf.append("(");
     name = rule.getAccessor();
     entry = filterModel_.getAccessorEntry(name);
@@ -288,24 +321,57 @@ public class BFilterImplem implements BFilter {
     else{
       formatStdAccessor(szBuf, rule);
     }
+    //values are not formatted: the query refers to a compiled set which 
+    //is kept alive by this filter
+    set = getValueSet(rule, sets);
+    if (set instanceof BLongHashSet)
+      id = ((BLongHashSet) set).getId();
+    else
+      id = ((BStringHashSet) set).getId();
+    szBuf.append(", \"");
+    szBuf.append(id);
+    szBuf.append("\")");
+  }
+  /**
+   * Returns the compiled set of values of a rule. It is taken from a set of 
+   * sets resolved beforehand, otherwise from the BValueSetRegistry.
+   */
+  private static Object getValueSet(BRule rule, Map<BRule, Object> sets) throws BFilterException{
+    Object set;
+    String ope;
 
-    try {
-      values = (Set<?>) rule.getValue();
-    } catch (ClassCastException e) {
-      throw new BFilterException(rule.getOperator()+": wrong values: expected a Set. Found: "+
-          rule.getValue().getClass().getName());
-    }
-    szBuf.append(", {");
-    dType = entry.getDataType();
-    iter = values.iterator();
-    while(iter.hasNext()){
-      data = iter.next();
-      appendAtomicValue(szBuf, data, dType);
-      if (iter.hasNext()){
-        szBuf.append(",");
-      }
+    set = sets.get(rule);
+    if (set!=null)
+      return set;
+    ope = rule.getOperator();
+    if (ope.equals(BOperatorAccessors.OPE_FUNC_LongInSet)||ope.equals(BOperatorAccessors.OPE_FUNC_LongNotInSet))
+      return BValueSetRegistry.getLongSet(ope, rule.getValue());
+    else
+      return BValueSetRegistry.getStringSet(ope, rule.getValue());
+  }
+
+  /**
+   * Resolves the compiled sets of values used by the rules of this filter.
+   * 
+   * @return an immutable map of rules to compiled sets
+   */
+  private Map<BRule, Object> resolveValueSets() throws BFilterException{
+    IdentityHashMap<BRule, Object> sets;
+
+    sets = new IdentityHashMap<BRule, Object>();
+    for(BRule rule : rules_){
+      if (isSetOperator(rule.getOperator()))
+        sets.put(rule, getValueSet(rule, sets));
     }
-    szBuf.append("})");
+    return Collections.unmodifiableMap(sets);
+  }
+
+  /**
+   * Figures out whether an operator applies on a set of values.
+   */
+  private static boolean isSetOperator(String ope){
+    return ope.equals(BOperatorAccessors.OPE_FUNC_StrInSet)||ope.equals(BOperatorAccessors.OPE_FUNC_StrNotInSet)||
+        ope.equals(BOperatorAccessors.OPE_FUNC_LongInSet)||ope.equals(BOperatorAccessors.OPE_FUNC_LongNotInSet);
   }
   /**
    * Format a rule as a HQL declaration.
@@ -315,14 +381,25 @@ public class BFilterImplem implements BFilter {
    * @return an well-formed Hyper-Graph Query language constraint declaration.
    */
   protected String formatRule(BRule rule) throws BFilterException{
+    return formatRule(rule, valueSets_);
+  }
+
+  /**
+   * Format a rule as a HQL declaration.
+   * 
+   * @param rule the rule to format
+   * @param sets the compiled sets of values resolved beforehand
+   * 
+   * @return an well-formed Hyper-Graph Query language constraint declaration.
+   */
+  private String formatRule(BRule rule, Map<BRule, Object> sets) throws BFilterException{
     StringBuffer   szBuf;
     String         ope;
 
     szBuf = new StringBuffer();
     ope = rule.getOperator();
-    if (ope.equals(BOperatorAccessors.OPE_FUNC_StrInSet)||ope.equals(BOperatorAccessors.OPE_FUNC_StrNotInSet)||
-        ope.equals(BOperatorAccessors.OPE_FUNC_LongInSet)||ope.equals(BOperatorAccessors.OPE_FUNC_LongNotInSet)){
-      formatStrInSetRule(szBuf, rule);
+    if (isSetOperator(ope)){
+      formatStrInSetRule(szBuf, rule, sets);
     }
     else if (ope.equals(BOperatorAccessors.OPE_InRangeExclusive)||ope.equals(BOperatorAccessors.OPE_InRangeInclusive)){
       formatRangeRule(szBuf, rule);
@@ -371,17 +448,104 @@ public class BFilterImplem implements BFilter {
     }
     return false;	
   }
+  /**
+   * Returns the names of the vertex types explored by the HGE query of this
+   * filter. It is used to avoid building parts of the hyper-graph that 
+   * are not needed.
+   */
+  protected Set<String> getVertexTypes(){
+    HashSet<String> types;
+    boolean         filterFeat, filterQual;
+
+    filterFeat = hasToFilterFeatures();
+    filterQual = hasToFilterQualifiers();
+    types = new HashSet<String>();
+    types.add(BGDataModel.SROUTPUT_VERTEX_TYPE);
+    types.add(BGDataModel.SRITERATION_VERTEX_TYPE);
+    types.add(BGDataModel.SRHIT_VERTEX_TYPE);
+    types.add(BGDataModel.SRHSP_VERTEX_TYPE);
+    if (filterFeat || filterQual)
+      types.add(BGDataModel.FEAT_VERTEX_TYPE);
+    if (filterQual)
+      types.add(BGDataModel.QUALIFIER_VERTEX_TYPE);
+    return types;
+  }
+
   /**
    * Implementation of BFilter interface.
    */
   public void compile() throws BFilterException{
+    BPlanCache.BPlan   plan;
+    Map<BRule, Object> sets;
+
+    if (rules_.isEmpty())
+      return;
+    //sets are resolved once: queries created afterwards, e.g. by threads
+    //filtering iterations in parallel, only read this snapshot
+    sets = resolveValueSets();
+    plan = BPlanCache.getInstance().getPlan(filterModel_, bGraphModel_, getSignature(sets));
+    valueSets_ = sets;
+    if (engineType_==ENGINE_DIRECT){
+      //rules ordered given some data are not shared with other filters
+      if (estimator_!=null){
+        directEngine_ = new BDirectEngine(filterModel_, rules_.iterator(), exclusive_, getPlanner());
+        return;
+      }
+      if (plan.getDirectEngine()==null)
+        plan.setDirectEngine(new BDirectEngine(filterModel_, rules_.iterator(), exclusive_));
+      directEngine_ = plan.getDirectEngine();
+      return;
+    }
+    if (plan.getQuery()==null)
+      plan.setQuery(createQuery(sets), sets.values());
+    setQuery(plan.getQuery());
+    plan_ = plan;
+  }
+
+  /**
+   * Returns a canonical form of this filter used to share compiled plans. Since
+   * rules are evaluated without any short-circuit, their order does not matter.
+   */
+  protected String getSignature() throws BFilterException{
+    return getSignature(resolveValueSets());
+  }
+
+  private String getSignature(Map<BRule, Object> sets) throws BFilterException{
+    ArrayList<String> constraints;
+    StringBuffer      buf;
+    int               i, size;
+
+    constraints = new ArrayList<String>();
+    for(BRule rule : rules_){
+      constraints.add(formatRule(rule, sets));
+    }
+    Collections.sort(constraints);
+    buf = new StringBuffer(getClass().getName());
+    buf.append(exclusive_?":and:":":or:");
+    size = constraints.size();
+    for(i=0;i<size;i++){
+      buf.append(constraints.get(i));
+      if ((i+1)<size){
+        buf.append(exclusive_?" and ":" or ");
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Creates a new HGE query from the rules of this filter. Compiled sets of
+   * values are the ones resolved by the last call to compile().
+   */
+  protected HGEQuery createQuery() throws BFilterException{
+    return createQuery(valueSets_);
+  }
+
+  private HGEQuery createQuery(Map<BRule, Object> sets) throws BFilterException{
     StringBuffer buf;
     HGEQuery     query;
     int          i, size;
     boolean      filterFeat, filterQual;
 
-    if (rules_.isEmpty())
-      return;
     filterFeat = hasToFilterFeatures();
     filterQual = hasToFilterQualifiers();
     query = HGEManager.newHQuery();
@@ -405,7 +569,7 @@ public class BFilterImplem implements BFilter {
     buf = new StringBuffer();
     size = rules_.size();
     for(i=0;i<size;i++){
-      buf.append(formatRule((BRule) rules_.get(i)));
+      buf.append(formatRule((BRule) rules_.get(i), sets));
       if ((i+1)<size){
         buf.append(exclusive_?" and ":" or ");
       }
@@ -413,30 +577,7 @@ public class BFilterImplem implements BFilter {
     query.addConstraint(buf.toString());
     query.setReturnDistinct(false);
     query.setReturnVariables(BO_VAR+","+BI_VAR+","+BH_VAR+","+BS_VAR);
-    setQuery(query);
-  }
-
-  private SROutput getBOutput(SRFactory bf, SROutput src){
-    SROutput dest;
-
-    dest = bf.createBOutput();
-    dest.setBlastType(src.getBlastType());
-    dest.setBlastOutputParam(src.getBlastOutputParam());
-    dest.setRequestInfo(src.getRequestInfo());
-
-    return dest;
-  }
-
-  private SRIteration getBIteration(SRFactory bf, SRIteration src){
-    SRIteration bi;
-
-    bi = bf.createBIteration();
-    bi.setIterationMessage(src.getIterationMessage());
-    bi.setIterationStat(src.getIterationStat());
-    bi.setIterationQueryDesc(src.getIterationQueryDesc());
-    bi.setIterationQueryID(src.getIterationQueryID());
-    bi.setIterationQueryLength(src.getIterationQueryLength());
-    return bi;
+    return query;
   }
 
   /**
@@ -444,92 +585,32 @@ public class BFilterImplem implements BFilter {
    * or empty, this method returns null.
    */
   protected SROutput prepareResult(Set<HGEResult> rSet){
-    Hashtable<Object, Object>    ht;
-    Iterator<HGEResult>          iter;
-    HGEResult    result;
-    SROutput      boSrc, boDest;
-    SRIteration   biSrc, biDest, bi;
-    SRHit         bhSrc, bhDest, bh;
-    SRHsp         bsSrc, bsDest;
-    SRFactory     bf;
-    int          i, j, size, size2;
+    BResultBuilder builder;
 
     if (rSet==null || rSet.isEmpty())
       return null;
-    bf = FilterSystemConfigurator.getSRFactory();
-    boDest=null;
-    ht = new Hashtable<Object, Object>();
-    iter = rSet.iterator();
-    while(iter.hasNext()){
-      result = iter.next();
-      //get SROutput
-      boSrc = (SROutput) ((HDGVertex)result.getValue(BO_VAR)).getData();
-      boDest = (SROutput) ht.get(boSrc);
-      if (boDest==null){
-        boDest = getBOutput(bf, boSrc);
-        ht.put(boSrc, boDest);
-      }
-      //get SRIteration
-      biSrc = (SRIteration) ((HDGVertex)result.getValue(BI_VAR)).getData();
-      biDest = (SRIteration) ht.get(biSrc);
-      if (biDest==null){
-        biDest = getBIteration(bf, biSrc);
-        biDest.setIterationIterNum(biSrc.getIterationIterNum());
-        boDest.addIteration(biDest);
-        ht.put(biSrc, biDest);
-      }
-      //get SRHit
-      bhSrc = (SRHit) ((HDGVertex)result.getValue(BH_VAR)).getData();
-      bhDest = (SRHit) ht.get(bhSrc);
-      if (bhDest==null){
-        bhDest = (SRHit) bhSrc.clone(true);
-        bhDest.setHitNum(bhSrc.getHitNum());
-        bhDest.setSequenceInfo(bhSrc.getSequenceInfo());
-        biDest.addHit(bhDest);
-        ht.put(bhSrc, bhDest);
-      }
-      //get SRHsp
-      bsSrc = (SRHsp) ((HDGVertex)result.getValue(BS_VAR)).getData();
-      bsDest = (SRHsp) ht.get(bsSrc);
-      if (bsDest==null){
-        bsDest = (SRHsp) bsSrc.clone(false);
-        bhDest.addHsp(bsDest);
-        ht.put(bsSrc, bsDest);
-      }
-    }
-    //sort data
-    if (boDest!=null && !boDest.isEmpty()){
-      Collections.sort(boDest.getIterations(), iterComparator);
-      size = boDest.countIteration();
-      for(i=0;i<size;i++){
-        bi = boDest.getIteration(i);
-        Collections.sort(bi.getHits(), hitComparator);
-        size2 = bi.countHit();
-        for(j=0;j<size2;j++){
-          bh = bi.getHit(j);
-          Collections.sort(bh.getHsps(), hspComparator);
-        }
-      }
-    }
-
-    return boDest;
+    builder = new BResultBuilder();
+    collectResult(rSet, builder);
+    return builder.getResult();
   }
 
-  private class BIterationSorter implements Comparator<SRIteration>{
-    public int compare(SRIteration o1,SRIteration o2){
-      return (o1.getIterationIterNum()-o2.getIterationIterNum());
-    }
-  }
-
-  private class BHitSorter implements Comparator<SRHit>{
-    public int compare(SRHit o1,SRHit o2){
-      return (o1.getHitNum()-o2.getHitNum());
-    }
-  }
+  /**
+   * Passes the objects contained in an HGE result object to a collector. 
+   */
+  protected void collectResult(Set<HGEResult> rSet, BResultCollector collector){
+    Iterator<HGEResult> iter;
+    HGEResult           result;
 
-  private class BHspSorter implements Comparator<SRHsp>{
-    public int compare(SRHsp o1,SRHsp o2){
-      return (o1.getHspNum()-o2.getHspNum());
+    if (rSet==null)
+      return;
+    iter = rSet.iterator();
+    while(iter.hasNext()){
+      result = iter.next();
+      collector.add(
+          (SROutput) ((HDGVertex)result.getValue(BO_VAR)).getData(), 
+          (SRIteration) ((HDGVertex)result.getValue(BI_VAR)).getData(), 
+          (SRHit) ((HDGVertex)result.getValue(BH_VAR)).getData(), 
+          (SRHsp) ((HDGVertex)result.getValue(BS_VAR)).getData());
     }
   }
 
@@ -544,6 +625,7 @@ public class BFilterImplem implements BFilter {
    */
   protected void setQuery(HGEQuery query){
     query_ = query;
+    plan_ = null;
   }
 
   /**
@@ -553,45 +635,400 @@ public class BFilterImplem implements BFilter {
     return bGraphModel_;
   }
 
+  /**
+   * Executes this filter by walking directly the SROutput objects tree.
+   */
+  private SROutput executeDirect(SROutput bo) throws BFilterException{
+    SROutput result;
+    long     tim;
+
+    tim = System.currentTimeMillis();
+    if (directEngine_==null)
+      compile();
+    if (verbose_){
+      System.out.println(String.format("Compile time : %d ms", (System.currentTimeMillis()-tim)));
+    }
+    try{
+      tim = System.currentTimeMillis();
+      result = directEngine_.execute(bo);
+      if (verbose_){
+        System.out.println(String.format("Execute time : %d ms", (System.currentTimeMillis()-tim)));
+      }
+    }
+    catch(Exception ex){
+      throw new BFilterException("Unable to filter data: "+ex.getMessage());
+    }
+    return result;
+  }
+
   /**
    * Implementation of BFilter interface.
    */
   public SROutput execute(SROutput bo) throws BFilterException{
-    BGraph         graph;
-    SROutput        result = null;
-    Set<HGEResult> rSet;
-    
+    return executeFilter(bo, graphCache_);
+  }
+
+  /**
+   * Executes this filter on a SROutput.
+   * 
+   * @param bo the data to filter
+   * @param cached true if hyper-graphs can be taken from or put in the BGraphCache. 
+   * Use false for temporary SROutputs.
+   */
+  private SROutput executeFilter(SROutput bo, boolean cached) throws BFilterException{
+    BFilterResultView view;
+    Set<HGEResult>    rSet;
+
     if (bo==null)
       return null;
     if (rules_.isEmpty())
       return null;
+    checkValueFiles();
+    //survivors of an exclusive filter are kept for incremental refiltering
+    if (exclusive_ && incremental_){
+      view = executeFilterView(bo, cached);
+      return view==null ? null : view.materialize();
+    }
+    if (engineType_==ENGINE_DIRECT)
+      return executeDirect(bo);
+    rSet = executeCompiledQuery(bo, cached);
+    long tim = System.currentTimeMillis();
+    SROutput result = prepareResult(rSet);
+    if (verbose_){
+      System.out.println(String.format("Prepare result time : %d ms", (System.currentTimeMillis()-tim)));
+    }
+    return result;
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public BFilterResultView executeView(SROutput bo) throws BFilterException{
+    return executeFilterView(bo, graphCache_);
+  }
+
+  /**
+   * Executes this filter on a SROutput and returns a view of the result.
+   * 
+   * @param bo the data to filter
+   * @param cached true if hyper-graphs can be taken from or put in the BGraphCache
+   */
+  private BFilterResultView executeFilterView(SROutput bo, boolean cached) throws BFilterException{
+    BFilterResultView view;
+    long              stamp;
+
+    if (bo==null)
+      return null;
+    if (rules_.isEmpty())
+      return null;
+    checkValueFiles();
+    if (!exclusive_ || !incremental_)
+      return executeFullView(bo, cached);
+    stamp = BGraph.getStamp(bo);
+    if (canRefilter(bo, stamp))
+      view = refilter(bo, cached);
+    else
+      view = executeFullView(bo, cached);
+    lastSource_ = bo;
+    lastResult_ = view;
+    lastRuleCount_ = rules_.size();
+    lastStamp_ = stamp;
+    return view;
+  }
+
+  /**
+   * Figures out whether the last result of this filter can be refiltered
+   * instead of executing the filter from scratch. This is the case when rules
+   * have only been added to an exclusive filter since its last execution on
+   * the same SROutput, and when no objects have been added to, removed from or
+   * replaced in that SROutput: a new rule can only shrink a previous result. 
+   * 
+   * @param bo the data to filter
+   * @param stamp the structure of bo, as computed by BGraph.getStamp()
+   */
+  private boolean canRefilter(SROutput bo, long stamp){
+    if (lastRuleCount_==-1 || lastSource_!=bo || rules_.size()<=lastRuleCount_)
+      return false;
+    if (lastStamp_!=stamp)
+      return false;
+    //an HSP passes as soon as one of its features satisfies all the feature
+    //rules: a survivor cannot be checked against new feature rules when 
+    //previous rules also target features
+    return !(targetsFeatures(rules_.subList(0, lastRuleCount_)) 
+        && targetsFeatures(rules_.subList(lastRuleCount_, rules_.size())));
+  }
+
+  /**
+   * Checks the HSPs of the last result against the rules added since the last
+   * execution.
+   */
+  private BFilterResultView refilter(SROutput bo, boolean cached) throws BFilterException{
+    BFilterResultViewImplem view;
+    BDirectEngine           engine;
+    int                     i, j, k;
+
+    if (lastResult_==null)
+      return null;
+    try{
+      engine = new BDirectEngine(filterModel_, 
+          rules_.subList(lastRuleCount_, rules_.size()).iterator(), true, getPlanner());
+    }
+    catch(BFilterException ex){
+      return executeFullView(bo, cached);
+    }
+    view = new BFilterResultViewImplem(bo);
+    for(i=0;i<lastResult_.countIteration();i++){
+      for(j=0;j<lastResult_.countHit(i);j++){
+        for(k=0;k<lastResult_.countHsp(i, j);k++){
+          if (engine.accept(lastResult_.getHit(i, j), lastResult_.getHsp(i, j, k)))
+            view.add(bo, lastResult_.getIteration(i), lastResult_.getHit(i, j), lastResult_.getHsp(i, j, k));
+        }
+      }
+    }
+    view.sort();
+    return view.isEmpty() ? null : view;
+  }
+
+  /**
+   * Figures out whether some rules target features or qualifiers.
+   */
+  private boolean targetsFeatures(List<BRule> rules){
+    String objType;
+
+    for(BRule rule : rules){
+      objType = filterModel_.getAccessorEntry(rule.getAccessor()).getObjectType();
+      if (objType.equals(BGDataModel.FEAT_VERTEX_TYPE) || 
+          objType.equals(BGDataModel.QUALIFIER_VERTEX_TYPE))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Executes this filter on a SROutput from scratch.
+   */
+  private BFilterResultView executeFullView(SROutput bo, boolean cached) throws BFilterException{
+    BFilterResultViewImplem view;
+
+    view = new BFilterResultViewImplem(bo);
+    if (engineType_==ENGINE_DIRECT){
+      if (directEngine_==null)
+        compile();
+      try{
+        directEngine_.execute(bo, view);
+      }
+      catch(Exception ex){
+        throw new BFilterException("Unable to filter data: "+ex.getMessage());
+      }
+    }
+    else{
+      collectResult(executeCompiledQuery(bo, cached), view);
+    }
+    view.sort();
+    return view.isEmpty() ? null : view;
+  }
+
+  /**
+   * Executes the compiled HGE query of this filter on a SROutput.
+   */
+  private Set<HGEResult> executeCompiledQuery(SROutput bo, boolean cached) throws BFilterException{
     long tim = System.currentTimeMillis();
     if (query_==null)
       compile();
     if (verbose_){
       System.out.println(String.format("Compile time : %d ms", (System.currentTimeMillis()-tim)));
     }
+    //a shared query cannot be executed by several threads at a time
+    if (plan_==null)
+      return runQuery(query_, bo, cached);
+    if (!plan_.tryAcquireQuery())
+      return runQuery(createQuery(), bo, cached);
+    try{
+      return runQuery(query_, bo, cached);
+    }
+    finally{
+      plan_.releaseQuery();
+    }
+  }
+
+  /**
+   * Executes an HGE query on a SROutput.
+   */
+  private SROutput executeQuery(HGEQuery query, SROutput bo) throws BFilterException{
+    return prepareResult(runQuery(query, bo, false));
+  }
+
+  /**
+   * Executes an HGE query on a SROutput. Returns the raw HGE results.
+   * 
+   * @param cached true if the hyper-graph can be taken from or put in the BGraphCache
+   */
+  private Set<HGEResult> runQuery(HGEQuery query, SROutput bo, boolean cached) throws BFilterException{
+    HDataGraph     graph;
+    BGraph         cachedGraph = null;
+    Set<HGEResult> rSet;
+    String         id;
+    long           tim;
+
     try{
       tim = System.currentTimeMillis();
-      graph = new BGraph(bo, bGraphModel_);
+      if (cached)
+        graph = cachedGraph = BGraphCache.getInstance().getGraph(bo, bGraphModel_, getVertexTypes());
+      else if (compactGraph_)
+        graph = new BGCompactGraph(bo, bGraphModel_, getVertexTypes());
+      else
+        graph = new BGraph(bo, bGraphModel_, getVertexTypes());
       if (verbose_){
         System.out.println(String.format("Graph build time : %d ms", (System.currentTimeMillis()-tim)));
       }
       tim = System.currentTimeMillis();
-      rSet=query_.execute(bGraphModel_, graph);
-      if (verbose_){
-        System.out.println(String.format("Execute time : %d ms", (System.currentTimeMillis()-tim)));
+      BSetFunctions.takeUnknownSet();
+      //a cached graph may be updated in place by another thread
+      if (cachedGraph!=null)
+        cachedGraph.getLock().readLock().lock();
+      try{
+        rSet=query.execute(bGraphModel_, graph);
+      }
+      finally{
+        if (cachedGraph!=null)
+          cachedGraph.getLock().readLock().unlock();
       }
-      tim = System.currentTimeMillis();
-      result = prepareResult(rSet);
       if (verbose_){
-        System.out.println(String.format("Prepare result time : %d ms", (System.currentTimeMillis()-tim)));
+        System.out.println(String.format("Execute time : %d ms", (System.currentTimeMillis()-tim)));
       }
     }
     catch(Exception ex){
       throw new BFilterException("Unable to filter data: "+ex.getMessage());
     }
-    return result;
+    //HGE does not report the errors raised by functions
+    id = BSetFunctions.takeUnknownSet();
+    if (id!=null)
+      throw new BFilterException("Unable to filter data: unknown set of values: "+id);
+    return rSet;
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public SROutput execute(SROutput bo, ForkJoinPool pool) throws BFilterException{
+    SROutput[] results;
+
+    if (bo==null)
+      return null;
+    if (rules_.isEmpty())
+      return null;
+    if (pool==null || bo.countIteration()<2)
+      return execute(bo);
+    checkValueFiles();
+    //compile once before forking: the direct engine can be shared among
+    //threads and HGE queries are created from the resolved sets of values
+    if (engineType_==ENGINE_DIRECT ? directEngine_==null : query_==null)
+      compile();
+    results = new SROutput[bo.countIteration()];
+    pool.invoke(new BIterationTask(bo, 0, results.length, 
+        Math.max(1, results.length/(4*pool.getParallelism())), results));
+    return BResultBuilder.merge(bo, results);
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public int execute(BIterationSource source, BIterationSink sink) throws BFilterException{
+    SROutput    header, single, result;
+    SRIteration bi;
+    Throwable   failure;
+    int         i, size, count = 0;
+
+    header = source.getHeader();
+    sink.start(header);
+    failure = null;
+    try{
+      while((bi=source.next())!=null){
+        single = BResultBuilder.createOutput(header);
+        single.addIteration(bi);
+        result = executeFilter(single, false);
+        if (result==null)
+          continue;
+        size = result.countIteration();
+        for(i=0;i<size;i++){
+          sink.accept(result.getIteration(i));
+          count++;
+        }
+      }
+    }
+    catch(RuntimeException | Error ex){
+      failure = ex;
+      throw ex;
+    }
+    finally{
+      //the sink is ended anyway, so that it can release its resources. The
+      //reported error is the original one, not the one of a failing sink.
+      try{
+        sink.end();
+      }
+      catch(RuntimeException ex){
+        if (failure==null)
+          throw ex;
+        failure.addSuppressed(ex);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Filters a range of iterations of a SROutput. 
+   */
+  private SROutput[] executeIterations(SROutput bo, int from, int to, SROutput[] results) throws BFilterException{
+    SROutput single;
+    HGEQuery query = null;
+    int      i;
+
+    //an HGE query cannot be used by several threads
+    if (engineType_!=ENGINE_DIRECT)
+      query = createQuery();
+    for(i=from;i<to;i++){
+      single = BResultBuilder.createOutput(bo);
+      single.addIteration(bo.getIteration(i));
+      if (query==null)
+        results[i] = directEngine_.execute(single);
+      else
+        results[i] = executeQuery(query, single);
+    }
+    return results;
+  }
+
+  /**
+   * Task used to filter the iterations of a SROutput in parallel. 
+   */
+  @SuppressWarnings("serial")
+  private class BIterationTask extends RecursiveAction {
+    private SROutput   bo_;
+    private int        from_;
+    private int        to_;
+    private int        threshold_;
+    private SROutput[] results_;
+
+    public BIterationTask(SROutput bo, int from, int to, int threshold, SROutput[] results){
+      bo_ = bo;
+      from_ = from;
+      to_ = to;
+      threshold_ = threshold;
+      results_ = results;
+    }
+
+    @Override
+    protected void compute(){
+      int mid;
+
+      if (to_-from_<=threshold_){
+        executeIterations(bo_, from_, to_, results_);
+      }
+      else{
+        mid = (from_+to_)>>>1;
+        invokeAll(new BIterationTask(bo_, from_, mid, threshold_, results_),
+            new BIterationTask(bo_, mid, to_, threshold_, results_));
+      }
+    }
   }
 
   /**
@@ -650,6 +1087,8 @@ public class BFilterImplem implements BFilter {
     if (entry.isValidValue(rule.getValue()) == false)
       throw new BFilterException("rule contains an invalid value type. Expected: "+
           DGMAttribute.DT_REPR[entry.getDataType()]);
+    if (rule.getValue() instanceof BValueFile && !isSetOperator(ope))
+      throw new BFilterException("rule defines an invalid operator for a file of values. Seen: "+ope);
   }
 
   /**
@@ -658,7 +1097,7 @@ public class BFilterImplem implements BFilter {
   public void add(BRule rule) throws BFilterException{
     evaluateRule(rule);
     rules_.add(rule);
-    query_=null;
+    resetEngines();
   }
 
   /**
@@ -666,7 +1105,8 @@ public class BFilterImplem implements BFilter {
    */
   public void remove(BRule rule){
     rules_.remove(rule);
-    query_=null;
+    resetEngines();
+    resetLastResult();
   }
 
   /**
@@ -723,6 +1163,126 @@ public class BFilterImplem implements BFilter {
    */
   public void setExclusive(boolean val){
     exclusive_ = val;
+    resetEngines();
+    resetLastResult();
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public int getEngineType(){
+    return engineType_;
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public void setEngineType(int engineType){
+    engineType_ = engineType;
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public boolean getIncrementalRefiltering(){
+    return incremental_;
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public void setIncrementalRefiltering(boolean val){
+    incremental_ = val;
+    resetLastResult();
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public boolean getGraphCache(){
+    return graphCache_;
+  }
+
+  /**
+   * Implementation of BFilter interface.
+   */
+  public void setGraphCache(boolean val){
+    graphCache_ = val;
+  }
+
+  /**
+   * Sets the estimator used to order the rules of an exclusive filter given
+   * actual data, e.g. a BDataStatistics collected on the SROutputs to filter.
+   * It is only used by ENGINE_DIRECT. Default is null: rules are ordered using
+   * the a priori selectivity of their operators.
+   */
+  public void setSelectivityEstimator(BSelectivityEstimator estimator){
+    estimator_ = estimator;
+    resetEngines();
+  }
+
+  /**
+   * Returns the estimator used to order the rules of an exclusive filter. 
+   */
+  public BSelectivityEstimator getSelectivityEstimator(){
+    return estimator_;
+  }
+
+  /**
+   * Sets whether the HGE engine explores an array-based hyper-graph, i.e. a 
+   * BGCompactGraph, which requires less memory and is faster to create than a
+   * BGraph. It is not used for hyper-graphs taken from the BGraphCache. Default
+   * is false.
+   */
+  public void setCompactGraph(boolean val){
+    compactGraph_ = val;
+  }
+
+  /**
+   * Figures out whether the HGE engine explores an array-based hyper-graph.
+   */
+  public boolean getCompactGraph(){
+    return compactGraph_;
+  }
+
+  /**
+   * Returns the planner used to order the rules evaluated by ENGINE_DIRECT.
+   */
+  private BRulePlanner getPlanner(){
+    return estimator_==null ? BRulePlanner.DEFAULT : new BRulePlanner(estimator_);
+  }
+
+  /**
+   * Discards compiled forms of this filter. They will be recreated on the
+   * next call to execute.
+   */
+  private void resetEngines(){
+    query_=null;
+    directEngine_=null;
+    plan_=null;
+  }
+
+  /**
+   * Discards compiled forms of this filter and its last result when a file of 
+   * values used by its rules has been modified.
+   */
+  private void checkValueFiles(){
+    for(Object set : valueSets_.values()){
+      if (BValueSetRegistry.isOutdated(set)){
+        resetEngines();
+        resetLastResult();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Discards the last result kept for incremental refiltering.
+   */
+  private void resetLastResult(){
+    lastSource_=null;
+    lastResult_=null;
+    lastRuleCount_=-1;
   }
 
   /**
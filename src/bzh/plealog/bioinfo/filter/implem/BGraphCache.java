@@ -0,0 +1,342 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGraph;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+
+/**
+ * This class is a cache of hyper-graphs. Filters executed one after the other
+ * on the same SROutput share a single BGraph instead of building it again.
+ * <br><br>
+ * Graphs are identified by the identity of their SROutput. Since a graph 
+ * references the objects of its SROutput, a cached graph keeps its SROutput in
+ * memory: the SROutput can only go away once the graph has been discarded. So,
+ * the cache is bounded by a number of graphs and by a total number of vertices
+ * and hyper-edges; least recently used graphs are discarded first. Graphs are 
+ * also softly referenced, so that they are discarded when memory is needed, 
+ * and a SROutput no longer used can be released at once with invalidate().
+ * <br><br>
+ * A graph does not follow the changes made to its SROutput: it is rebuilt when
+ * objects have been added to, removed from or replaced in its SROutput (see
+ * BGraph.isUpToDate()), unless it has been updated in place using the 
+ * incremental methods of BGraph (see getCachedGraphs()). Changes of attribute
+ * values do not require a new graph. Filters only use this cache when asked
+ * to (see BFilter.setGraphCache()). This cache is thread-safe.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BGraphCache {
+  private LinkedHashMap<BGraphKey, BGraphEntry> graphs_;
+  private ReferenceQueue<SROutput>              queue_;
+  private int                                   maxSize_;
+  private int                                   maxNodes_;
+
+  public static final int DEFAULT_SIZE = 16;
+  public static final int DEFAULT_NODES = 4000000;
+
+  private static final BGraphCache INSTANCE = new BGraphCache(DEFAULT_SIZE);
+
+  /**
+   * Constructor.
+   * 
+   * @param maxSize maximum number of graphs kept in this cache
+   */
+  public BGraphCache(int maxSize){
+    this(maxSize, DEFAULT_NODES);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param maxSize maximum number of graphs kept in this cache
+   * @param maxNodes maximum number of vertices and hyper-edges of the graphs
+   * kept in this cache
+   */
+  public BGraphCache(int maxSize, int maxNodes){
+    maxSize_ = maxSize;
+    maxNodes_ = maxNodes;
+    queue_ = new ReferenceQueue<SROutput>();
+    graphs_ = new LinkedHashMap<BGraphKey, BGraphEntry>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the cache shared by all filters.
+   */
+  public static BGraphCache getInstance(){
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the maximum number of graphs kept in this cache. 
+   */
+  public synchronized void setMaxSize(int maxSize){
+    maxSize_ = maxSize;
+    trim();
+  }
+
+  /**
+   * Returns the maximum number of graphs kept in this cache. 
+   */
+  public synchronized int getMaxSize(){
+    return maxSize_;
+  }
+
+  /**
+   * Sets the maximum number of vertices and hyper-edges of the graphs kept in
+   * this cache. A graph larger than this limit is not cached.
+   */
+  public synchronized void setMaxNodes(int maxNodes){
+    maxNodes_ = maxNodes;
+    trim();
+  }
+
+  /**
+   * Returns the maximum number of vertices and hyper-edges of the graphs kept
+   * in this cache. 
+   */
+  public synchronized int getMaxNodes(){
+    return maxNodes_;
+  }
+
+  /**
+   * Returns the number of graphs contained in this cache. 
+   */
+  public synchronized int size(){
+    purge();
+    return graphs_.size();
+  }
+
+  /**
+   * Discards all graphs contained in this cache. 
+   */
+  public synchronized void clear(){
+    graphs_.clear();
+    purge();
+  }
+
+  /**
+   * Discards the graphs of a SROutput. This method can be called when a
+   * SROutput is modified or no longer used, to release its graphs at once.
+   */
+  public synchronized void invalidate(SROutput bo){
+    Iterator<BGraphKey> keys;
+
+    keys = graphs_.keySet().iterator();
+    while(keys.hasNext()){
+      if (keys.next().get()==bo)
+        keys.remove();
+    }
+    purge();
+  }
+
+  /**
+   * Returns the graph of a SROutput. A new graph is created if needed. 
+   * 
+   * @param bo a Rich Search Result
+   * @param gModel the data model used to create the graph
+   * @param vertexTypes the names of the vertex types the graph has to contain.
+   * Null means all types. See BGraph for more information.
+   */
+  public BGraph getGraph(SROutput bo, BGDataModel gModel, Set<String> vertexTypes){
+    BGraphEntry entry;
+    BGraph      graph;
+    Set<String> types;
+
+    synchronized(this){
+      purge();
+      entry = graphs_.get(new BGraphKey(bo, gModel, null));
+      graph = entry==null ? null : entry.graph_.get();
+    }
+    //the SROutput is walked outside of the lock
+    if (graph!=null && !graph.isUpToDate(bo)){
+      entry = null;
+      graph = null;
+    }
+    else if (graph!=null && entry.contains(vertexTypes)){
+      return graph;
+    }
+    synchronized(this){
+      types = vertexTypes;
+      if (entry!=null){
+        //the new graph also contains the types of the previous one
+        if (entry.types_==null || vertexTypes==null){
+          types = null;
+        }
+        else{
+          types = new HashSet<String>(vertexTypes);
+          types.addAll(entry.types_);
+        }
+      }
+    }
+    //several threads may build the same graph: only the last one is kept
+    graph = new BGraph(bo, gModel, types);
+    synchronized(this){
+      graphs_.put(new BGraphKey(bo, gModel, queue_), new BGraphEntry(graph, types));
+      trim();
+    }
+    return graph;
+  }
+
+  /**
+   * Returns the graphs of a SROutput currently contained in this cache, whatever
+   * their data model is. It is intended to update these graphs in place when 
+   * objects are added to the SROutput. Such updates can be done while filters
+   * use the graphs: they are synchronized through the lock of each graph (see
+   * BGraph.getLock()).
+   */
+  public synchronized List<BGraph> getCachedGraphs(SROutput bo){
+    ArrayList<BGraph> graphs;
+    BGraph            graph;
+
+    purge();
+    graphs = new ArrayList<BGraph>();
+    for(Map.Entry<BGraphKey, BGraphEntry> entry : graphs_.entrySet()){
+      if (entry.getKey().get()!=bo)
+        continue;
+      graph = entry.getValue().graph_.get();
+      if (graph!=null)
+        graphs.add(graph);
+    }
+    return graphs;
+  }
+
+  /**
+   * Removes the graphs whose SROutput has been garbage collected.
+   */
+  private void purge(){
+    Reference<? extends SROutput> ref;
+
+    while((ref=queue_.poll())!=null){
+      graphs_.remove(ref);
+    }
+  }
+
+  /**
+   * Discards the least recently used graphs until this cache fits its limits.
+   * Graphs cleared by the garbage collector are discarded first. Graphs are
+   * measured now since they may have grown in place.
+   */
+  private void trim(){
+    Iterator<BGraphEntry> entries;
+    BGraphEntry           entry;
+    BGraph                graph;
+    long                  nodes = 0;
+
+    entries = graphs_.values().iterator();
+    while(entries.hasNext()){
+      entry = entries.next();
+      graph = entry.graph_.get();
+      if (graph==null){
+        entries.remove();
+      }
+      else{
+        entry.nodes_ = countNodes(graph);
+        nodes += entry.nodes_;
+      }
+    }
+    entries = graphs_.values().iterator();
+    while(entries.hasNext() && (graphs_.size()>maxSize_ || nodes>maxNodes_)){
+      nodes -= entries.next().nodes_;
+      entries.remove();
+    }
+  }
+
+  /**
+   * Returns the number of vertices and hyper-edges of a graph.
+   */
+  private static int countNodes(BGraph graph){
+    graph.getLock().readLock().lock();
+    try{
+      return graph.vertexSet().size();
+    }
+    finally{
+      graph.getLock().readLock().unlock();
+    }
+  }
+
+  /**
+   * A cached graph along with the vertex types it contains and its number of
+   * vertices and hyper-edges when this cache was last trimmed.
+   */
+  private static class BGraphEntry {
+    private SoftReference<BGraph> graph_;
+    private Set<String>           types_;
+    private int                   nodes_;
+
+    public BGraphEntry(BGraph graph, Set<String> types){
+      graph_ = new SoftReference<BGraph>(graph);
+      types_ = types==null ? null : new HashSet<String>(types);
+    }
+
+    /**
+     * Figures out whether the graph contains some vertex types.
+     */
+    public boolean contains(Set<String> types){
+      if (types_==null)
+        return true;
+      return types!=null && types_.containsAll(types);
+    }
+  }
+
+  /**
+   * Identifies a graph. SROutputs are compared using their identity. Graph data 
+   * models are compared using their class, as BPlanCache does.
+   */
+  private static class BGraphKey extends WeakReference<SROutput> {
+    private Class<?> gModel_;
+    private int      hash_;
+
+    public BGraphKey(SROutput bo, BGDataModel gModel, ReferenceQueue<SROutput> queue){
+      super(bo, queue);
+      gModel_ = gModel.getClass();
+      hash_ = System.identityHashCode(bo)^gModel_.hashCode();
+    }
+
+    @Override
+    public int hashCode(){
+      return hash_;
+    }
+
+    @Override
+    public boolean equals(Object obj){
+      BGraphKey key;
+      SROutput  bo;
+
+      if (this==obj)
+        return true;
+      if (!(obj instanceof BGraphKey))
+        return false;
+      key = (BGraphKey) obj;
+      bo = get();
+      return bo!=null && bo==key.get() && gModel_==key.gModel_;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+import bzh.plealog.bioinfo.filter.implem.engine.BDirectEngine;
+import bzh.plealog.hge.api.query.HGEQuery;
+
+/**
+ * This class is a cache of compiled filters. Filters having the same rules,
+ * the same type (exclusive or not) and relying on the same data models share
+ * a single compiled plan. So, clones of a filter, filters loaded several
+ * times or identical filters created by different users are only compiled
+ * once. 
+ * <br><br>
+ * The cache has a limited size: least recently used plans are discarded 
+ * first. It is thread-safe.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BPlanCache {
+  private LinkedHashMap<BPlanKey, BPlan> plans_;
+  private int                            maxSize_;
+
+  public static final int DEFAULT_SIZE = 128;
+
+  private static final BPlanCache INSTANCE = new BPlanCache(DEFAULT_SIZE);
+
+  /**
+   * Constructor.
+   * 
+   * @param maxSize maximum number of plans kept in this cache
+   */
+  public BPlanCache(int maxSize){
+    maxSize_ = maxSize;
+    plans_ = new LinkedHashMap<BPlanKey, BPlan>(16, 0.75f, true){
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<BPlanKey, BPlan> eldest){
+        return size()>maxSize_;
+      }
+    };
+  }
+
+  /**
+   * Returns the cache shared by all filters.
+   */
+  public static BPlanCache getInstance(){
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the maximum number of plans kept in this cache. 
+   */
+  public synchronized void setMaxSize(int maxSize){
+    BPlanKey key;
+
+    maxSize_ = maxSize;
+    while(plans_.size()>maxSize_){
+      key = plans_.keySet().iterator().next();
+      plans_.remove(key);
+    }
+  }
+
+  /**
+   * Returns the maximum number of plans kept in this cache. 
+   */
+  public synchronized int getMaxSize(){
+    return maxSize_;
+  }
+
+  /**
+   * Returns the number of plans contained in this cache. 
+   */
+  public synchronized int size(){
+    return plans_.size();
+  }
+
+  /**
+   * Discards all plans contained in this cache. 
+   */
+  public synchronized void clear(){
+    plans_.clear();
+  }
+
+  /**
+   * Returns the plan of a filter. A new empty plan is created if needed. 
+   * 
+   * @param fModel the data model used to figure out data accessors
+   * @param gModel the data model used to create data graphs
+   * @param signature canonical form of the rules of a filter
+   */
+  synchronized BPlan getPlan(BOperatorAccessors fModel, BGDataModel gModel, String signature){
+    BPlanKey key;
+    BPlan    plan;
+
+    key = new BPlanKey(fModel, gModel, signature);
+    plan = plans_.get(key);
+    if (plan==null){
+      plan = new BPlan();
+      plans_.put(key, plan);
+    }
+    return plan;
+  }
+
+  /**
+   * A compiled filter. It contains either an HGE query, a direct engine or
+   * both, depending on the engines used to execute the filter. 
+   */
+  static class BPlan {
+    private HGEQuery      query_;
+    //sets of values the query refers to by identifier; the BValueSetRegistry
+    //only references them weakly
+    private List<Object>  valueSets_;
+    private BDirectEngine directEngine_;
+    private ReentrantLock lock_ = new ReentrantLock();
+
+    public synchronized HGEQuery getQuery(){
+      return query_;
+    }
+
+    /**
+     * Sets the HGE query of this plan unless it already has one.
+     * 
+     * @param query the HGE query
+     * @param valueSets the compiled sets of values used by the query. They 
+     * are kept as long as this plan.
+     */
+    public synchronized void setQuery(HGEQuery query, Collection<Object> valueSets){
+      if (query_!=null)
+        return;
+      query_ = query;
+      valueSets_ = new ArrayList<Object>(valueSets);
+    }
+
+    public synchronized BDirectEngine getDirectEngine(){
+      return directEngine_;
+    }
+
+    /**
+     * Sets the direct engine of this plan unless it already has one.
+     */
+    public synchronized void setDirectEngine(BDirectEngine engine){
+      if (directEngine_==null)
+        directEngine_ = engine;
+    }
+
+    /**
+     * Acquires the HGE query of this plan. Since an HGE query cannot be 
+     * executed by several threads at a time, this method has to be called
+     * before using the query, then it has to be released.
+     * 
+     * @return false if the query is used by another thread
+     */
+    public boolean tryAcquireQuery(){
+      return lock_.tryLock();
+    }
+
+    public void releaseQuery(){
+      lock_.unlock();
+    }
+  }
+
+  /**
+   * Identifies a plan. Accessor models are compared using their identity. Since 
+   * each filter has its own instance of graph data model, the latter are 
+   * compared using their class: an HGE query is bound to a data model when
+   * it is executed.
+   */
+  private static class BPlanKey {
+    private BOperatorAccessors fModel_;
+    private Class<?>           gModel_;
+    private String             signature_;
+
+    public BPlanKey(BOperatorAccessors fModel, BGDataModel gModel, String signature){
+      fModel_ = fModel;
+      gModel_ = gModel.getClass();
+      signature_ = signature;
+    }
+
+    @Override
+    public int hashCode(){
+      return signature_.hashCode()^System.identityHashCode(fModel_)^gModel_.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj){
+      BPlanKey key;
+
+      if (!(obj instanceof BPlanKey))
+        return false;
+      key = (BPlanKey) obj;
+      return fModel_==key.fModel_ && gModel_==key.gModel_ && signature_.equals(key.signature_);
+    }
+  }
+}
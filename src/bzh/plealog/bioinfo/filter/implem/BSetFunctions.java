@@ -0,0 +1,243 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem;
+
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.filter.implem.engine.BLongHashSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BStringHashSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BValueSetRegistry;
+import bzh.plealog.hge.api.datamodel.DGMAttribute;
+import bzh.plealog.hge.api.function.AbstractFunction;
+import bzh.plealog.hge.api.function.FunctionException;
+import bzh.plealog.hge.api.function.FunctionSystem;
+import bzh.plealog.hge.engine.HGEArgumentValue;
+import bzh.plealog.hge.engine.HGEExecutionContext;
+import bzh.plealog.hge.engine.HGEReusableArgumentValue;
+
+/**
+ * This class contains the HGE functions used to evaluate strInSet and 
+ * longInSet rules. Instead of a literal set of values, these functions 
+ * take the identifier of a set registered in the BValueSetRegistry: huge
+ * sets are neither formatted into query strings nor parsed by HGE.
+ * <br><br>
+ * Since HGE discards the errors raised by functions, an identifier which 
+ * cannot be resolved is also recorded for the current thread: it has to be
+ * checked with takeUnknownSet() once a query has been executed.
+ *
+ * @author Patrick G. Durand
+ */
+public class BSetFunctions {
+  public static final String FUNC_StrInSet     = "strInHashSet";
+  public static final String FUNC_StrNotInSet  = "strNotInHashSet";
+  public static final String FUNC_LongInSet    = "longInHashSet";
+  public static final String FUNC_LongNotInSet = "longNotInHashSet";
+
+  private static final int[] STR_ARG_DATA_TYPES = 
+      new int[]{DGMAttribute.DT_STRING, DGMAttribute.DT_STRING};
+  private static final int[] LONG_ARG_DATA_TYPES = 
+      new int[]{DGMAttribute.DT_LONG, DGMAttribute.DT_STRING};
+  private static final int[] ARG_CONTAINER_TYPES = 
+      new int[]{DGMAttribute.CT_ATOMIC, DGMAttribute.CT_ATOMIC};
+
+  //identifier of a set which could not be resolved by the current thread
+  private static final ThreadLocal<String> UNKNOWN_SET = new ThreadLocal<String>();
+
+  private static boolean registered_;
+
+  private BSetFunctions(){}
+
+  /**
+   * Adds the functions of this class to the HGE function system. Calling 
+   * this method several times has no effect.
+   */
+  public static synchronized void register() throws BFilterException{
+    if (registered_)
+      return;
+    try {
+      FunctionSystem.addFunction(new StrInSet());
+      FunctionSystem.addFunction(new StrNotInSet());
+      FunctionSystem.addFunction(new LongInSet());
+      FunctionSystem.addFunction(new LongNotInSet());
+    } catch (FunctionException e) {
+      throw new BFilterException("unable to register set functions: "+e.getMessage());
+    }
+    registered_ = true;
+  }
+
+  /**
+   * Returns the identifier of a set which could not be resolved by the current
+   * thread since the last call to this method. Returns null if all sets have 
+   * been resolved.
+   */
+  public static String takeUnknownSet(){
+    String id;
+
+    id = UNKNOWN_SET.get();
+    if (id!=null)
+      UNKNOWN_SET.remove();
+    return id;
+  }
+
+  /**
+   * Records an identifier which cannot be resolved and returns the error to
+   * raise.
+   */
+  private static BFilterException unknownSet(String function, String id){
+    UNKNOWN_SET.set(id);
+    return new BFilterException(function+": unknown set: "+id);
+  }
+
+  /**
+   * Returns the name of the function to use for a set operator.
+   */
+  public static String getFunctionName(String operator){
+    switch(operator){
+      case BOperatorAccessors.OPE_FUNC_StrInSet:
+        return FUNC_StrInSet;
+      case BOperatorAccessors.OPE_FUNC_StrNotInSet:
+        return FUNC_StrNotInSet;
+      case BOperatorAccessors.OPE_FUNC_LongInSet:
+        return FUNC_LongInSet;
+      case BOperatorAccessors.OPE_FUNC_LongNotInSet:
+        return FUNC_LongNotInSet;
+    }
+    throw new BFilterException("unknown set operator: "+operator);
+  }
+
+  /**
+   * Base class of the functions looking for a string within a registered set.
+   * A function instance resolves the set once.
+   */
+  private abstract static class StrSetFunction extends AbstractFunction {
+    private BStringHashSet set_;
+
+    public int arguments(){
+      return 2;
+    }
+    public int[] getArgDataTypes(){
+      return STR_ARG_DATA_TYPES;
+    }
+    public int[] getArgContainerTypes(){
+      return ARG_CONTAINER_TYPES;
+    }
+    public int getReturnDataType(){
+      return DGMAttribute.DT_BOOLEAN;
+    }
+    public int getReturnContainerType(){
+      return DGMAttribute.CT_ATOMIC;
+    }
+    protected abstract boolean isNegated();
+
+    public HGEArgumentValue compute(HGEArgumentValue[] args, HGEExecutionContext context){
+      HGEReusableArgumentValue result;
+      BStringHashSet           set;
+      String                   id;
+
+      id = args[1].stringValue();
+      set = set_;
+      if (set==null || !set.getId().equals(id)){
+        set = BValueSetRegistry.findStringSet(id);
+        if (set==null)
+          throw unknownSet(getName(), id);
+        set_ = set;
+      }
+      result = context.getReusableArg();
+      result.setBooleanValue(set.contains(args[0].stringValue()) != isNegated());
+      return result;
+    }
+  }
+
+  /**
+   * Base class of the functions looking for an integer within a registered set.
+   * A function instance resolves the set once.
+   */
+  private abstract static class LongSetFunction extends AbstractFunction {
+    private BLongHashSet set_;
+
+    public int arguments(){
+      return 2;
+    }
+    public int[] getArgDataTypes(){
+      return LONG_ARG_DATA_TYPES;
+    }
+    public int[] getArgContainerTypes(){
+      return ARG_CONTAINER_TYPES;
+    }
+    public int getReturnDataType(){
+      return DGMAttribute.DT_BOOLEAN;
+    }
+    public int getReturnContainerType(){
+      return DGMAttribute.CT_ATOMIC;
+    }
+    protected abstract boolean isNegated();
+
+    public HGEArgumentValue compute(HGEArgumentValue[] args, HGEExecutionContext context){
+      HGEReusableArgumentValue result;
+      BLongHashSet             set;
+      String                   id;
+
+      id = args[1].stringValue();
+      set = set_;
+      if (set==null || !set.getId().equals(id)){
+        set = BValueSetRegistry.findLongSet(id);
+        if (set==null)
+          throw unknownSet(getName(), id);
+        set_ = set;
+      }
+      result = context.getReusableArg();
+      result.setBooleanValue(set.contains(args[0].longValue()) != isNegated());
+      return result;
+    }
+  }
+
+  public static class StrInSet extends StrSetFunction {
+    public String getName(){
+      return FUNC_StrInSet;
+    }
+    protected boolean isNegated(){
+      return false;
+    }
+  }
+
+  public static class StrNotInSet extends StrSetFunction {
+    public String getName(){
+      return FUNC_StrNotInSet;
+    }
+    protected boolean isNegated(){
+      return true;
+    }
+  }
+
+  public static class LongInSet extends LongSetFunction {
+    public String getName(){
+      return FUNC_LongInSet;
+    }
+    protected boolean isNegated(){
+      return false;
+    }
+  }
+
+  public static class LongNotInSet extends LongSetFunction {
+    public String getName(){
+      return FUNC_LongNotInSet;
+    }
+    protected boolean isNegated(){
+      return true;
+    }
+  }
+}
@@ -24,6 +24,7 @@ import java.util.Iterator;
 import bzh.plealog.bioinfo.api.filter.BFilter;
 import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
 import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.api.filter.BValueFile;
 import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
 import bzh.plealog.bioinfo.io.filter.BFilterIO;
 import bzh.plealog.bioinfo.io.filter.BRuleIO;
@@ -46,6 +47,7 @@ public class FilterSerializerImplem implements FilterSerializer{
 		streamer = new XStream(new DomDriver("ISO-8859-1"));
 		streamer.alias("BFilter", BFilterIO.class); 
 		streamer.alias("BRule", BRuleIO.class); 
+		streamer.alias("BValueFile", BValueFile.class); 
 	}
 	
 	/**
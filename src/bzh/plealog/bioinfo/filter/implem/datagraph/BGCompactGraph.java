@@ -0,0 +1,378 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.datagraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
+import bzh.plealog.bioinfo.api.data.feature.Qualifier;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+import bzh.plealog.hge.api.datamodel.DGMType;
+import bzh.plealog.hge.api.datamodel.DataGraphModel;
+import bzh.plealog.hge.api.hypergraph.HDBConnector;
+import bzh.plealog.hge.api.hypergraph.HDGHyperEdge;
+import bzh.plealog.hge.api.hypergraph.HDGLink;
+import bzh.plealog.hge.api.hypergraph.HDGVertex;
+import bzh.plealog.hge.api.hypergraph.HDataGraph;
+
+/**
+ * This class implements HDataGraph using int-indexed arrays. It models a Rich 
+ * Search Result object (SROutput) as the same hyper-graph as BGraph does, but
+ * without relying on JGraphT: vertices and hyper-edges are stored in arrays,
+ * each hyper-edge references its two vertices (the container and the contained
+ * object) by index and the hyper-edges of the vertices are stored as compressed
+ * adjacency lists (CSR). A containment link therefore costs one BGHyperEdge and
+ * three array slots instead of an additional JGraphT vertex, two JGraphT edges 
+ * and their hash map entries.
+ * <br><br>
+ * A BGCompactGraph cannot be modified once it has been created. Filters use
+ * it when asked to (see BFilterImplem.setCompactGraph()).
+ * 
+ * @author Patrick G. Durand
+ */
+public class BGCompactGraph implements HDataGraph{
+  private BGVertex[]    vertices_;
+  private BGHyperEdge[] edges_;
+  //vertices of hyper-edge i: edgeVertices_[2i] (container), edgeVertices_[2i+1]
+  private int[]         edgeVertices_;
+  //hyper-edges of vertex i: vertexEdges_[vertexOffsets_[i]..vertexOffsets_[i+1][
+  private int[]         vertexOffsets_;
+  private int[]         vertexEdges_;
+  private int           nVertices_;
+  private int           nEdges_;
+
+  private static final int INITIAL_SIZE = 64;
+
+  /**
+   * Constructor of a BGCompactGraph.
+   * 
+   * @param bo a Rich Search Result from which to create the graph
+   * @param dgm the data model describing the Rich Search Result as a graph
+   */
+  public BGCompactGraph(SROutput bo, DataGraphModel dgm){
+    this(bo, dgm, null);
+  }
+
+  /**
+   * Constructor of a BGCompactGraph. Only creates the levels of the containment
+   * hierarchy needed to explore some vertex types, as BGraph does.
+   * 
+   * @param bo a Rich Search Result from which to create the graph
+   * @param dgm the data model describing the Rich Search Result as a graph
+   * @param vertexTypes the names of the vertex types to create. Null means all types.
+   */
+  public BGCompactGraph(SROutput bo, DataGraphModel dgm, Set<String> vertexTypes){
+    DGMType      vtIter, vtHit, vtHsp, vtFeat, vtQual, etIter, etHit, etHsp, etFeat, etQual;
+    SRIteration  bi;
+    SRHit        hit;
+    SRHsp        hsp;
+    FeatureTable fTable;
+    Feature      feat;
+    Qualifier    qualifier;
+    Enumeration<Feature>   feats;
+    Enumeration<Qualifier> qualifiers;
+    int          i, j, k, size, size2, size3, vBO, vIter, vHit, vHsp, vFeat, depth;
+
+    vertices_ = new BGVertex[INITIAL_SIZE];
+    edges_ = new BGHyperEdge[INITIAL_SIZE];
+    edgeVertices_ = new int[2*INITIAL_SIZE];
+    depth = BGraph.getDepth(vertexTypes);
+    if (!bo.isEmpty()){
+      vtIter = dgm.getVertexType(BGDataModel.SRITERATION_VERTEX_TYPE);
+      vtHit = dgm.getVertexType(BGDataModel.SRHIT_VERTEX_TYPE);
+      vtHsp = dgm.getVertexType(BGDataModel.SRHSP_VERTEX_TYPE);
+      vtFeat = dgm.getVertexType(BGDataModel.FEAT_VERTEX_TYPE);
+      vtQual = dgm.getVertexType(BGDataModel.QUALIFIER_VERTEX_TYPE);
+      etIter = dgm.getHyperEdgeType(BGDataModel.CONTAINS_ITERATION_EDGE_TYPE);
+      etHit = dgm.getHyperEdgeType(BGDataModel.CONTAINS_HIT_EDGE_TYPE);
+      etHsp = dgm.getHyperEdgeType(BGDataModel.CONTAINS_HSP_EDGE_TYPE);
+      etFeat = dgm.getHyperEdgeType(BGDataModel.CONTAINS_FEAT_EDGE_TYPE);
+      etQual = dgm.getHyperEdgeType(BGDataModel.CONTAINS_QUALIFIER_EDGE_TYPE);
+      vBO = addVertex(bo, dgm.getVertexType(BGDataModel.SROUTPUT_VERTEX_TYPE));
+      size = depth<1 ? 0 : bo.countIteration();
+      for(i=0;i<size;i++){
+        bi = bo.getIteration(i);
+        vIter = addVertex(bi, vtIter);
+        addEdge(etIter, vBO, vIter);
+        size2 = depth<2 ? 0 : bi.countHit();
+        for(j=0;j<size2;j++){
+          hit = bi.getHit(j);
+          vHit = addVertex(hit, vtHit);
+          addEdge(etHit, vIter, vHit);
+          size3 = depth<3 ? 0 : hit.countHsp();
+          for(k=0;k<size3;k++){
+            hsp = hit.getHsp(k);
+            vHsp = addVertex(hsp, vtHsp);
+            addEdge(etHsp, vHit, vHsp);
+            fTable = depth<4 ? null : hsp.getFeatures();
+            if (fTable==null)
+              continue;
+            feats = fTable.enumFeatures();
+            while(feats.hasMoreElements()){
+              feat = feats.nextElement();
+              vFeat = addVertex(feat, vtFeat);
+              addEdge(etFeat, vHsp, vFeat);
+              if (depth<5)
+                continue;
+              qualifiers = feat.enumQualifiers();
+              while(qualifiers.hasMoreElements()){
+                qualifier = qualifiers.nextElement();
+                addEdge(etQual, vFeat, addVertex(qualifier, vtQual));
+              }
+            }
+          }
+        }
+      }
+    }
+    buildAdjacency();
+  }
+
+  private int addVertex(Object data, DGMType type){
+    BGVertex vertex;
+
+    if (nVertices_==vertices_.length){
+      vertices_ = Arrays.copyOf(vertices_, 2*nVertices_);
+    }
+    vertex = new BGVertex();
+    vertex.setData(data);
+    vertex.setType(type);
+    vertex._index = nVertices_;
+    vertices_[nVertices_] = vertex;
+    return nVertices_++;
+  }
+
+  private void addEdge(DGMType type, int v1, int v2){
+    BGHyperEdge edge;
+
+    if (nEdges_==edges_.length){
+      edges_ = Arrays.copyOf(edges_, 2*nEdges_);
+      edgeVertices_ = Arrays.copyOf(edgeVertices_, 4*nEdges_);
+    }
+    edge = new BGHyperEdge();
+    edge.setType(type);
+    edge._index = nEdges_;
+    edges_[nEdges_] = edge;
+    edgeVertices_[2*nEdges_] = v1;
+    edgeVertices_[2*nEdges_+1] = v2;
+    nEdges_++;
+  }
+
+  /**
+   * Trims the arrays and creates the adjacency lists of the vertices.
+   */
+  private void buildAdjacency(){
+    int[] pos;
+    int   i, v;
+
+    vertices_ = Arrays.copyOf(vertices_, nVertices_);
+    edges_ = Arrays.copyOf(edges_, nEdges_);
+    edgeVertices_ = Arrays.copyOf(edgeVertices_, 2*nEdges_);
+    vertexOffsets_ = new int[nVertices_+1];
+    for(i=0;i<edgeVertices_.length;i++){
+      vertexOffsets_[edgeVertices_[i]+1]++;
+    }
+    for(i=0;i<nVertices_;i++){
+      vertexOffsets_[i+1] += vertexOffsets_[i];
+    }
+    vertexEdges_ = new int[edgeVertices_.length];
+    pos = Arrays.copyOf(vertexOffsets_, nVertices_);
+    for(i=0;i<edgeVertices_.length;i++){
+      v = edgeVertices_[i];
+      vertexEdges_[pos[v]++] = i>>1;
+    }
+  }
+
+  /**
+   * Returns the number of vertices of this graph.
+   */
+  public int countVertices(){
+    return nVertices_;
+  }
+
+  /**
+   * Returns the number of hyper-edges of this graph.
+   */
+  public int countEdges(){
+    return nEdges_;
+  }
+
+  private int getIndex(HDGVertex vertex){
+    int idx;
+
+    if (!(vertex instanceof BGVertex))
+      return -1;
+    idx = ((BGVertex) vertex)._index;
+    return (idx>=0 && idx<nVertices_ && vertices_[idx]==vertex) ? idx : -1;
+  }
+
+  private int getIndex(HDGHyperEdge edge){
+    int idx;
+
+    if (!(edge instanceof BGHyperEdge))
+      return -1;
+    idx = ((BGHyperEdge) edge)._index;
+    return (idx>=0 && idx<nEdges_ && edges_[idx]==edge) ? idx : -1;
+  }
+
+  public void create(HDBConnector conn, DataGraphModel dgm){
+  }
+
+  public boolean containsEdge(HDGHyperEdge edge){
+    return getIndex(edge)!=-1;
+  }
+
+  public boolean containsVertex(HDGVertex vertex){
+    return getIndex(vertex)!=-1;
+  }
+
+  public Enumeration<HDGHyperEdge> edges(){
+    return new BGArrayEnumeration<HDGHyperEdge>(edges_, null, 0, nEdges_);
+  }
+
+  public Enumeration<HDGVertex> vertices(){
+    return new BGArrayEnumeration<HDGVertex>(vertices_, null, 0, nVertices_);
+  }
+
+  public Enumeration<HDGHyperEdge> edges(HDGVertex vertex){
+    int idx;
+
+    idx = getIndex(vertex);
+    if (idx==-1)
+      return new BGArrayEnumeration<HDGHyperEdge>(edges_, null, 0, 0);
+    return new BGArrayEnumeration<HDGHyperEdge>(edges_, vertexEdges_, 
+        vertexOffsets_[idx], vertexOffsets_[idx+1]);
+  }
+
+  public int degree(HDGVertex vertex){
+    int idx;
+
+    idx = getIndex(vertex);
+    return idx==-1 ? 0 : vertexOffsets_[idx+1]-vertexOffsets_[idx];
+  }
+
+  public Enumeration<HDGVertex> vertices(HDGHyperEdge edge){
+    int idx;
+
+    idx = getIndex(edge);
+    if (idx==-1)
+      return new BGArrayEnumeration<HDGVertex>(vertices_, null, 0, 0);
+    return new BGArrayEnumeration<HDGVertex>(vertices_, edgeVertices_, 2*idx, 2*idx+2);
+  }
+
+  public Enumeration<HDGVertex> oppositeVertices(HDGHyperEdge edge, HDGVertex vertex, boolean obeyOri){
+    int idx;
+
+    idx = getIndex(edge);
+    if (idx==-1)
+      return new BGArrayEnumeration<HDGVertex>(vertices_, null, 0, 0);
+    //as BGraph does, only the first vertex equal to the given one is discarded
+    if (vertex.equals(vertices_[edgeVertices_[2*idx]]))
+      return new BGArrayEnumeration<HDGVertex>(vertices_, edgeVertices_, 2*idx+1, 2*idx+2);
+    if (vertex.equals(vertices_[edgeVertices_[2*idx+1]]))
+      return new BGArrayEnumeration<HDGVertex>(vertices_, edgeVertices_, 2*idx, 2*idx+1);
+    return new BGArrayEnumeration<HDGVertex>(vertices_, edgeVertices_, 2*idx, 2*idx+2);
+  }
+
+  /**
+   * Implementation of HDataGraph interface. Returns a shortest path as BGraph 
+   * does, i.e. a list of vertex/hyper-edge links, or null if there is no path.
+   */
+  public List<HDGLink> findPath(HDGVertex from, HDGVertex to){
+    ArrayList<HDGLink> path;
+    int[]              prevEdges, queue;
+    int                start, end, head, tail, v, w, e, i;
+
+    start = getIndex(from);
+    end = getIndex(to);
+    if (start==-1 || end==-1 || start==end)
+      return null;
+    //breadth-first search: each hyper-edge links two vertices
+    prevEdges = new int[nVertices_];
+    Arrays.fill(prevEdges, -1);
+    queue = new int[nVertices_];
+    head = tail = 0;
+    queue[tail++] = start;
+    while(head<tail && prevEdges[end]==-1){
+      v = queue[head++];
+      for(i=vertexOffsets_[v];i<vertexOffsets_[v+1];i++){
+        e = vertexEdges_[i];
+        w = edgeVertices_[2*e]==v ? edgeVertices_[2*e+1] : edgeVertices_[2*e];
+        if (w!=start && prevEdges[w]==-1){
+          prevEdges[w] = e;
+          queue[tail++] = w;
+        }
+      }
+    }
+    if (prevEdges[end]==-1)
+      return null;
+    path = new ArrayList<HDGLink>();
+    w = end;
+    while(w!=start){
+      e = prevEdges[w];
+      v = edgeVertices_[2*e]==w ? edgeVertices_[2*e+1] : edgeVertices_[2*e];
+      path.add(new BGLink(vertices_[w], edges_[e]));
+      path.add(new BGLink(vertices_[v], edges_[e]));
+      w = v;
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  public Enumeration<HDGLink> links(HDGHyperEdge edge){
+    return new BGArrayEnumeration<HDGLink>(new Object[0], null, 0, 0);
+  }
+
+  /**
+   * Enumeration over a range of an array, either directly or through an array
+   * of indexes.
+   */
+  private static class BGArrayEnumeration<T> implements Enumeration<T>{
+    private Object[] array_;
+    private int[]    indexes_;
+    private int      pos_;
+    private int      end_;
+
+    public BGArrayEnumeration(Object[] array, int[] indexes, int from, int to){
+      array_ = array;
+      indexes_ = indexes;
+      pos_ = from;
+      end_ = to;
+    }
+
+    public boolean hasMoreElements(){
+      return pos_<end_;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T nextElement(){
+      if (pos_>=end_)
+        throw new NoSuchElementException();
+      return (T) array_[indexes_==null ? pos_++ : indexes_[pos_++]];
+    }
+  }
+}
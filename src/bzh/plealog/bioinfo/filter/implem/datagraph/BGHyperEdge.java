@@ -30,6 +30,8 @@ public class BGHyperEdge implements HDGHyperEdge{
 
     private Object  _data;
     private DGMType _type;
+    //position of this hyper-edge within a BGCompactGraph
+    int             _index;
 
 	/**
 	 * Implementation of HDGHyperEdge interface.
@@ -16,32 +16,50 @@
  */
 package bzh.plealog.bioinfo.filter.implem.datagraph;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
-
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
  * This is a utility class aimed at accessing Rich Search Result objects data
  * using Java Reflection.
+ * <br><br>
+ * A data accessor path (e.g. "getScores.getEvalue") is resolved once for 
+ * each data class into a chain of MethodHandles. Resolved chains are cached,
+ * so that reading a value does not involve any lock. Numerical values can
+ * also be read as primitives using getLong() and getDouble(): they do not
+ * box any value.
  * 
  * @author Patrick G. Durand
  */
 public class BGUtils {
 
-  private static Hashtable<String, String> _attrAccessors;
+  private static ConcurrentHashMap<String, String> _attrAccessors;
+  private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, BGAccessor>> _resolvedAccessors =
+      new ConcurrentHashMap<>();
   private static final Logger _logger = Logger.getLogger(BGUtils.class.getName());
 
-  private static final Class<?>[] EMPLY_CLASS_ARG = new Class[0];
-  private static final Object[] EMPLY_OBJ_ARG = new Object[0];
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType LONG_GETTER_TYPE = MethodType.methodType(long.class, Object.class);
+  private static final MethodType DOUBLE_GETTER_TYPE = MethodType.methodType(double.class, Object.class);
+
+  /** value returned by getLong() when a value is missing. Since it is also a
+   * valid value, use hasLong() to figure out whether it is actually missing. */
+  public static final long   MISSING_LONG = Long.MIN_VALUE;
+  /** value returned by getDouble() when a value is missing. Since it is also a
+   * valid value, use hasDouble() to figure out whether it is actually missing. */
+  public static final double MISSING_DOUBLE = Double.NaN;
 
   static {
     //  *** IMPORTANT NOTICE ***
     //when modifying this Map, also modify 
     //com.plealog.bioinfo.filter.implem.datamodel.BGDataModel#initialize()
     //com.plealog.bioinfo.filter.api.BAccessors
-    _attrAccessors = new Hashtable<String, String>();
+    _attrAccessors = new ConcurrentHashMap<String, String>();
     //accessors for BHit
     _attrAccessors.put("accession", "getHitAccession");
     _attrAccessors.put("countHsp", "countHsp");
@@ -96,56 +114,283 @@ public class BGUtils {
     _attrAccessors.put("siUDate", "getSequenceInfo.getUpdateDate");
   }
 
-  private static Object getValue(StringTokenizer attrPath, Object data) throws Exception{
-    Object ret = null;
-    String token;
-    Method method;
-
-    token = attrPath.nextToken();
-    method = data.getClass().getMethod(token, EMPLY_CLASS_ARG);
-    ret = method.invoke(data, EMPLY_OBJ_ARG);
-    if (ret==null)
-      return null;
-    if (attrPath.hasMoreTokens())
-      ret = getValue(attrPath, ret);
-    return ret;
-  }
-
-  public static synchronized Object getValue(Object data, String objectType, String attrName){
+  /**
+   * Resolves a data accessor path for a particular class of data objects.
+   * Each method is looked up using the declared return type of the previous 
+   * one, so that the chain is valid for any implementation of the data model.
+   */
+  private static BGAccessor resolve(Class<?> dataClass, String objectType, String attrName){
     StringTokenizer tokenizer;
-    Object          ret = null;
+    MethodHandle[]  steps;
+    MethodHandle    handle, longStep = null, doubleStep = null;
     String          methodName;
+    Method          method;
+    Class<?>        cls;
+    int             i;
 
-    if (data==null || objectType==null || attrName==null)
-      return null;
-    methodName = (String) _attrAccessors.get(attrName);
+    methodName = _attrAccessors.get(attrName);
     if (methodName==null){
-      _logger.warning("Unable to find method "+methodName+
-          " for "+objectType+": not found in attribute accessors map.");
-      return null;
+      _logger.warning("Unable to find method for "+attrName+" of "+objectType+
+          ": not found in attribute accessors map.");
+      return BGAccessor.UNKNOWN;
     }
-
     try {
       tokenizer = new StringTokenizer(methodName,".");
-      ret = getValue(tokenizer, data);
-      if (ret!=null){
-        if (ret instanceof Integer || ret instanceof Byte || ret instanceof Short){
-          ret = new Long(((Number)ret).intValue());
-        }
-        else if (ret instanceof Float){
-          ret = new Double(((Number)ret).doubleValue());
-        }
+      steps = new MethodHandle[tokenizer.countTokens()];
+      cls = dataClass;
+      i = 0;
+      handle = null;
+      while(tokenizer.hasMoreTokens()){
+        method = cls.getMethod(tokenizer.nextToken());
+        handle = MethodHandles.publicLookup().unreflect(method);
+        steps[i++] = handle.asType(GETTER_TYPE);
+        cls = method.getReturnType();
+      }
+      //primitive views of the last step of the chain
+      if (cls==long.class || cls==int.class || cls==short.class || cls==byte.class){
+        longStep = handle.asType(LONG_GETTER_TYPE);
+        doubleStep = handle.asType(DOUBLE_GETTER_TYPE);
+      }
+      else if (cls==double.class || cls==float.class){
+        doubleStep = handle.asType(DOUBLE_GETTER_TYPE);
       }
     } catch (Exception e) {
-      _logger.warning("Unable to invoke method "+methodName+" for "+objectType+":"+e);
+      _logger.warning("Unable to find method "+methodName+" for "+objectType+":"+e);
+      return BGAccessor.UNKNOWN;
+    }
+    return new BGAccessor(methodName, objectType, steps, longStep, doubleStep);
+  }
+
+  private static BGAccessor getAccessor(Class<?> dataClass, String objectType, String attrName){
+    ConcurrentHashMap<String, BGAccessor> accessors, prevAccessors;
+    BGAccessor                            accessor, prev;
+
+    accessors = _resolvedAccessors.get(dataClass);
+    if (accessors==null){
+      accessors = new ConcurrentHashMap<>();
+      prevAccessors = _resolvedAccessors.putIfAbsent(dataClass, accessors);
+      if (prevAccessors!=null)
+        accessors = prevAccessors;
+    }
+    accessor = accessors.get(attrName);
+    if (accessor==null){
+      accessor = resolve(dataClass, objectType, attrName);
+      prev = accessors.putIfAbsent(attrName, accessor);
+      if (prev!=null)
+        accessor = prev;
+    }
+    return accessor;
+  }
+
+  public static Object getValue(Object data, String objectType, String attrName){
+    Object ret;
+
+    if (data==null || objectType==null || attrName==null)
+      return null;
+    ret = getAccessor(data.getClass(), objectType, attrName).get(data);
+    if (ret!=null){
+      if (ret instanceof Integer || ret instanceof Byte || ret instanceof Short){
+        ret = new Long(((Number)ret).intValue());
+      }
+      else if (ret instanceof Float){
+        ret = new Double(((Number)ret).doubleValue());
+      }
     }
     return ret;
   }
   
+  /**
+   * Returns a value as a long. Integer values are read without any boxing.
+   * 
+   * @return the value or MISSING_LONG if the value is not available or if
+   * it is not an integer
+   */
+  public static long getLong(Object data, String objectType, String attrName){
+    if (data==null || objectType==null || attrName==null)
+      return MISSING_LONG;
+    return getAccessor(data.getClass(), objectType, attrName).getLong(data);
+  }
+
+  /**
+   * Returns a value as a double. Numerical values are read without any boxing.
+   * 
+   * @return the value or MISSING_DOUBLE if the value is not available or if 
+   * it is not a number
+   */
+  public static double getDouble(Object data, String objectType, String attrName){
+    if (data==null || objectType==null || attrName==null)
+      return MISSING_DOUBLE;
+    return getAccessor(data.getClass(), objectType, attrName).getDouble(data);
+  }
+
+  /**
+   * Figures out whether a value can be read using getLong(). It is only 
+   * needed when getLong() returns MISSING_LONG.
+   */
+  public static boolean hasLong(Object data, String objectType, String attrName){
+    if (data==null || objectType==null || attrName==null)
+      return false;
+    return getAccessor(data.getClass(), objectType, attrName).hasLong(data);
+  }
+
+  /**
+   * Figures out whether a value can be read using getDouble(). It is only 
+   * needed when getDouble() returns MISSING_DOUBLE, e.g. to tell a missing
+   * value from an actual NaN.
+   */
+  public static boolean hasDouble(Object data, String objectType, String attrName){
+    if (data==null || objectType==null || attrName==null)
+      return false;
+    return getAccessor(data.getClass(), objectType, attrName).hasDouble(data);
+  }
+
+  /**
+   * Returns a value as a string.
+   * 
+   * @return the value or null if the value is not available
+   */
+  public static String getString(Object data, String objectType, String attrName){
+    Object ret;
+
+    if (data==null || objectType==null || attrName==null)
+      return null;
+    ret = getAccessor(data.getClass(), objectType, attrName).get(data);
+    return ret!=null ? ret.toString() : null;
+  }
+
   public static void addAccessor(String accessorName, String accessor){
-    if (_attrAccessors.containsKey(accessorName)){
-      _attrAccessors.remove(accessorName);
-    }
     _attrAccessors.put(accessorName, accessor);
+    //discard chains resolved with a previous definition of the accessor
+    _resolvedAccessors.clear();
+  }
+
+  /**
+   * A resolved data accessor path.
+   */
+  private static class BGAccessor {
+    private static final BGAccessor UNKNOWN = new BGAccessor(null, null, null, null, null);
+
+    private String         methodName_;
+    private String         objectType_;
+    private MethodHandle[] steps_;
+    private MethodHandle   longStep_;
+    private MethodHandle   doubleStep_;
+
+    public BGAccessor(String methodName, String objectType, MethodHandle[] steps, 
+        MethodHandle longStep, MethodHandle doubleStep){
+      methodName_ = methodName;
+      objectType_ = objectType;
+      steps_ = steps;
+      longStep_ = longStep;
+      doubleStep_ = doubleStep;
+    }
+
+    /**
+     * Walks the chain except its last step. Returns null if a value is missing.
+     */
+    private Object getParent(Object data) throws Throwable{
+      int i, n;
+
+      n = steps_.length-1;
+      for(i=0;i<n;i++){
+        data = (Object) steps_[i].invokeExact(data);
+        if (data==null)
+          return null;
+      }
+      return data;
+    }
+
+    public Object get(Object data){
+      int i;
+
+      if (steps_==null)
+        return null;
+      try {
+        for(i=0;i<steps_.length;i++){
+          data = (Object) steps_[i].invokeExact(data);
+          if (data==null)
+            return null;
+        }
+      } catch (Throwable e) {
+        _logger.warning("Unable to invoke method "+methodName_+" for "+objectType_+":"+e);
+        return null;
+      }
+      return data;
+    }
+
+    public long getLong(Object data){
+      Object ret;
+
+      if (longStep_==null){
+        ret = get(data);
+        if (ret instanceof Long || ret instanceof Integer || ret instanceof Short || ret instanceof Byte)
+          return ((Number) ret).longValue();
+        return MISSING_LONG;
+      }
+      try {
+        data = getParent(data);
+        if (data==null)
+          return MISSING_LONG;
+        return (long) longStep_.invokeExact(data);
+      } catch (Throwable e) {
+        _logger.warning("Unable to invoke method "+methodName_+" for "+objectType_+":"+e);
+        return MISSING_LONG;
+      }
+    }
+
+    public double getDouble(Object data){
+      Object ret;
+
+      if (doubleStep_==null){
+        ret = get(data);
+        if (ret instanceof Number)
+          return ((Number) ret).doubleValue();
+        return MISSING_DOUBLE;
+      }
+      try {
+        data = getParent(data);
+        if (data==null)
+          return MISSING_DOUBLE;
+        return (double) doubleStep_.invokeExact(data);
+      } catch (Throwable e) {
+        _logger.warning("Unable to invoke method "+methodName_+" for "+objectType_+":"+e);
+        return MISSING_DOUBLE;
+      }
+    }
+
+    public boolean hasLong(Object data){
+      Object ret;
+      long   v;
+
+      if (longStep_==null){
+        ret = get(data);
+        return ret instanceof Long || ret instanceof Integer || ret instanceof Short || ret instanceof Byte;
+      }
+      try {
+        data = getParent(data);
+        if (data==null)
+          return false;
+        v = (long) longStep_.invokeExact(data);
+        return true;
+      } catch (Throwable e) {
+        return false;
+      }
+    }
+
+    public boolean hasDouble(Object data){
+      double v;
+
+      if (doubleStep_==null)
+        return get(data) instanceof Number;
+      try {
+        data = getParent(data);
+        if (data==null)
+          return false;
+        v = (double) doubleStep_.invokeExact(data);
+        return true;
+      } catch (Throwable e) {
+        return false;
+      }
+    }
   }
 }
@@ -30,6 +30,8 @@ public class BGVertex implements HDGVertex{
 
   private Object  _data;
   private DGMType _type;
+  //position of this vertex within a BGCompactGraph
+  int             _index;
 
   public BGVertex (){
   }
@@ -75,6 +77,33 @@ public class BGVertex implements HDGVertex{
     return (BGUtils.getValue(_data, _type.getName(), attribute));
   }
 
+  /**
+   * Returns an integer value without boxing it. 
+   * 
+   * @return a value or BGUtils.MISSING_LONG
+   */ 
+  public long getLong(String attribute){
+    return (BGUtils.getLong(_data, _type.getName(), attribute));
+  }
+
+  /**
+   * Returns a numerical value without boxing it. 
+   * 
+   * @return a value or BGUtils.MISSING_DOUBLE
+   */ 
+  public double getDouble(String attribute){
+    return (BGUtils.getDouble(_data, _type.getName(), attribute));
+  }
+
+  /**
+   * Returns a value as a string. 
+   * 
+   * @return a value or null
+   */ 
+  public String getString(String attribute){
+    return (BGUtils.getString(_data, _type.getName(), attribute));
+  }
+
   public int hashCode(){
     if (_data!=null)
       return _data.hashCode();
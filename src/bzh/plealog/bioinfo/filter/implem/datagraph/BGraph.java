@@ -17,11 +17,16 @@
 package bzh.plealog.bioinfo.filter.implem.datagraph;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org._3pq.jgrapht.Edge;
 import org._3pq.jgrapht.alg.DijkstraShortestPath;
@@ -37,6 +42,7 @@ import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
 import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
 import bzh.plealog.hge.api.datamodel.DataGraphModel;
 import bzh.plealog.hge.api.hypergraph.HDBConnector;
+import bzh.plealog.hge.api.hypergraph.HDGDataObject;
 import bzh.plealog.hge.api.hypergraph.HDGHyperEdge;
 import bzh.plealog.hge.api.hypergraph.HDGLink;
 import bzh.plealog.hge.api.hypergraph.HDGVertex;
@@ -45,6 +51,13 @@ import bzh.plealog.hge.api.hypergraph.HDataGraph;
 /**
  * This class implements HDataGraph. It is used to model a Rich Search Result object
  * (SROutput) as an hyper-graph.
+ * <br><br>
+ * A graph can be read by several threads at a time, e.g. when it is shared by
+ * filters through the BGraphCache. The methods updating a graph after objects
+ * have been added to its SROutput (addIteration(), addHit(), addHsp() and
+ * addFeatureTable()) hold the write lock of the graph; readers that may run 
+ * concurrently with such updates have to hold its read lock (see getLock()).
+ * Other methods modifying a graph require an exclusive access to it.
  * 
  * @author Patrick G. Durand
  */
@@ -52,8 +65,30 @@ public class BGraph extends Pseudograph implements HDataGraph{
 
   private static final long serialVersionUID = 1721078034851267531L;
 
+  //containment hierarchy of the SROutput vertex types
+  private static final String[] LEVELS = {BGDataModel.SROUTPUT_VERTEX_TYPE, 
+    BGDataModel.SRITERATION_VERTEX_TYPE, BGDataModel.SRHIT_VERTEX_TYPE, 
+    BGDataModel.SRHSP_VERTEX_TYPE, BGDataModel.FEAT_VERTEX_TYPE, 
+    BGDataModel.QUALIFIER_VERTEX_TYPE};
+
+  //vertices and hyper-edges indexed by type name
+  private HashMap<String, ArrayList<HDGVertex>>    typedVertices_ = new HashMap<String, ArrayList<HDGVertex>>();
+  private HashMap<String, ArrayList<HDGHyperEdge>> typedEdges_ = new HashMap<String, ArrayList<HDGHyperEdge>>();
+  //hyper-edges of each vertex and vertices of each hyper-edge; null when it
+  //has to be recomputed
+  private transient volatile BGAdjacency           adjacency_ = new BGAdjacency();
+  //data model and deepest level of the containment hierarchy; used to update
+  //the graph
+  private transient DataGraphModel                 dgm_;
+  private int                                      depth_ = LEVELS.length-1;
+  //structure of the objects wrapped by this graph; see isUpToDate()
+  private long                                     stamp_;
+  //guards incremental updates against concurrent readers
+  private final ReentrantReadWriteLock             lock_ = new ReentrantReadWriteLock();
+
   public BGraph(){
     super();
+    dgm_ = new BGDataModel();
   }
 
   /**
@@ -66,6 +101,7 @@ public class BGraph extends Pseudograph implements HDataGraph{
     BGHyperEdge  edge;
     BGVertex     vertex, vFT, vFeat, vQual;
     
+    dgm_ = dgm;
     if (ft.features()==0)
       return;
 
@@ -116,118 +152,388 @@ public class BGraph extends Pseudograph implements HDataGraph{
    * @param dgm the data model describing the Rich Search Result as a graph
    */
   public BGraph(SROutput bo, DataGraphModel dgm){
+    this(bo, dgm, null);
+  }
+
+  /**
+   * Constructor of a BGraph. Only creates the vertices needed to explore some
+   * vertex types. Since vertex types are organized as a containment hierarchy
+   * (SROutput, SRIteration, SRHit, SRHSP, Feature and Qualifier), the graph 
+   * contains the levels of that hierarchy down to the deepest requested type.
+   * For instance, Feature and Qualifier vertices are not created when only
+   * SRHSP ones are requested.
+   * 
+   * @param bo a Rich Search Result from which to create the graph
+   * @param dgm the data model describing the Rich Search Result as a graph
+   * @param vertexTypes the names of the vertex types to create. Null means all types.
+   */
+  public BGraph(SROutput bo, DataGraphModel dgm, Set<String> vertexTypes){
     super();
-    BGVertex     vertex, vBO, vIter, vHit, vHsp, vFeat, vQual;
-    BGHyperEdge  edge;
-    SRIteration   bi;
-    SRHit         hit;
-    SRHsp         hsp;
-    FeatureTable fTable;
-    Feature      feat;
-    Qualifier    qualifier;
-    Enumeration<Feature>   feats;
-    Enumeration<Qualifier> qualifiers;
-    int          i, j, k, size, size2, size3;
+    BGVertex vertex;
+    int      i, size;
 
+    dgm_ = dgm;
+    depth_ = getDepth(vertexTypes);
     if (bo.isEmpty())
       return;
 
     vertex = new BGVertex();
     vertex.setData(bo);
     vertex.setType(dgm.getVertexType(BGDataModel.SROUTPUT_VERTEX_TYPE));
-    vBO = vertex;
     this.addVertex(vertex);
 
+    size = depth_<1 ? 0 : bo.countIteration();
+    for(i=0;i<size;i++){
+      addIteration(vertex, bo.getIteration(i));
+    }
+  }
+
+  /**
+   * Creates a vertex for an object and links it to its container through an
+   * hyper-edge.
+   * 
+   * @return the new vertex
+   */
+  private BGVertex addChild(HDGVertex parent, Object data, String vertexType, String edgeType){
+    BGVertex    vertex;
+    BGHyperEdge edge;
+
+    vertex = new BGVertex();
+    vertex.setData(data);
+    vertex.setType(dgm_.getVertexType(vertexType));
+    this.addVertex(vertex);
+    //creates HyperEdge for relation
+    edge = new BGHyperEdge();
+    edge.setType(dgm_.getHyperEdgeType(edgeType));
+    this.addVertex(edge);
+    //link container/contained vertices through hyper edge
+    this.addEdge(parent, edge);
+    this.addEdge(vertex, edge);
+    stamp_ += getLinkStamp(parent.getData(), data);
+    return vertex;
+  }
+
+  private void addIteration(HDGVertex vBO, SRIteration bi){
+    BGVertex vIter;
+    int      j, size;
+
+    vIter = addChild(vBO, bi, BGDataModel.SRITERATION_VERTEX_TYPE, 
+        BGDataModel.CONTAINS_ITERATION_EDGE_TYPE);
+    size = depth_<2 ? 0 : bi.countHit();
+    for(j=0;j<size;j++){
+      addHit(vIter, bi.getHit(j));
+    }
+  }
+
+  private void addHit(HDGVertex vIter, SRHit hit){
+    BGVertex vHit;
+    int      k, size;
+
+    vHit = addChild(vIter, hit, BGDataModel.SRHIT_VERTEX_TYPE, 
+        BGDataModel.CONTAINS_HIT_EDGE_TYPE);
+    size = depth_<3 ? 0 : hit.countHsp();
+    for(k=0;k<size;k++){
+      addHsp(vHit, hit.getHsp(k));
+    }
+  }
+
+  private void addHsp(HDGVertex vHit, SRHsp hsp){
+    BGVertex vHsp;
+
+    vHsp = addChild(vHit, hsp, BGDataModel.SRHSP_VERTEX_TYPE, 
+        BGDataModel.CONTAINS_HSP_EDGE_TYPE);
+    if (depth_>=4 && hsp.getFeatures()!=null)
+      addFeatureTable(vHsp, hsp.getFeatures());
+  }
+
+  private void addFeatureTable(HDGVertex vHsp, FeatureTable fTable){
+    Enumeration<Feature>   feats;
+    Enumeration<Qualifier> qualifiers;
+    BGVertex               vFeat;
+
+    feats = fTable.enumFeatures();
+    while(feats.hasMoreElements()){
+      vFeat = addChild(vHsp, feats.nextElement(), BGDataModel.FEAT_VERTEX_TYPE, 
+          BGDataModel.CONTAINS_FEAT_EDGE_TYPE);
+      //qualifiers ?
+      if (depth_<5)
+        continue;
+      qualifiers = ((Feature) vFeat.getData()).enumQualifiers();
+      while(qualifiers.hasMoreElements()){
+        addChild(vFeat, qualifiers.nextElement(), BGDataModel.QUALIFIER_VERTEX_TYPE, 
+            BGDataModel.CONTAINS_QUALIFIER_EDGE_TYPE);
+      }
+    }
+  }
+
+  /**
+   * Updates this graph after an iteration has been added to its SROutput.
+   * 
+   * @param bo the SROutput used to create this graph
+   * @param bi the new iteration
+   * 
+   * @throws RuntimeException if bo is not part of this graph
+   */
+  public void addIteration(SROutput bo, SRIteration bi){
+    HDGVertex vBO;
+
+    if (depth_<1)
+      return;
+    lock_.writeLock().lock();
+    try{
+      vBO = getVertex(bo);
+      if (vBO==null){
+        //graph of an empty SROutput
+        if (!typedVertices_.isEmpty())
+          throw new RuntimeException("SROutput not found in graph");
+        vBO = new BGVertex(bo);
+        ((BGVertex) vBO).setType(dgm_.getVertexType(BGDataModel.SROUTPUT_VERTEX_TYPE));
+        this.addVertex(vBO);
+      }
+      addIteration(vBO, bi);
+    }
+    finally{
+      lock_.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Updates this graph after a hit has been added to an iteration. Only the
+   * new objects are added to the graph, so the time needed is proportional
+   * to the size of the hit.
+   * 
+   * @param bi an iteration which is part of this graph
+   * @param hit the new hit, along with its HSPs and their features
+   * 
+   * @throws RuntimeException if bi is not part of this graph
+   */
+  public void addHit(SRIteration bi, SRHit hit){
+    if (depth_<2)
+      return;
+    lock_.writeLock().lock();
+    try{
+      addHit(getParent(bi), hit);
+    }
+    finally{
+      lock_.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Updates this graph after an HSP has been added to a hit.
+   * 
+   * @param hit a hit which is part of this graph
+   * @param hsp the new HSP, along with its features
+   * 
+   * @throws RuntimeException if hit is not part of this graph
+   */
+  public void addHsp(SRHit hit, SRHsp hsp){
+    if (depth_<3)
+      return;
+    lock_.writeLock().lock();
+    try{
+      addHsp(getParent(hit), hsp);
+    }
+    finally{
+      lock_.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Updates this graph after a FeatureTable has been set on an HSP. 
+   * 
+   * @param hsp an HSP which is part of this graph and which had no features
+   * @param fTable the new features
+   * 
+   * @throws RuntimeException if hsp is not part of this graph
+   */
+  public void addFeatureTable(SRHsp hsp, FeatureTable fTable){
+    if (depth_<4 || fTable==null)
+      return;
+    lock_.writeLock().lock();
+    try{
+      addFeatureTable(getParent(hsp), fTable);
+    }
+    finally{
+      lock_.writeLock().unlock();
+    }
+  }
+
+  private HDGVertex getParent(Object data){
+    HDGVertex vertex;
+
+    vertex = getVertex(data);
+    if (vertex==null)
+      throw new RuntimeException(data.getClass().getSimpleName()+" not found in graph");
+    return vertex;
+  }
+
+  /**
+   * Returns the vertex of an object. Returns null if no such vertex exists.
+   */
+  private HDGVertex getVertex(Object data){
+    ArrayList<HDGHyperEdge> edges;
+    BGVertex                probe;
+
+    probe = new BGVertex(data);
+    //vertices are equal when they wrap the same object: a vertex is retrieved
+    //through its first hyper-edge
+    edges = getAdjacency().vertexEdges_.get(probe);
+    if (edges!=null){
+      for(HDGVertex vertex : getAdjacency().edgeVertices_.get(edges.get(0))){
+        if (probe.equals(vertex))
+          return vertex;
+      }
+    }
+    //vertex without any hyper-edge
+    for(ArrayList<HDGVertex> vertices : typedVertices_.values()){
+      for(HDGVertex vertex : vertices){
+        if (probe.equals(vertex))
+          return vertex;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Figures out whether this graph still matches the structure of a SROutput. 
+   * This is not the case when objects have been added to, removed from or 
+   * replaced in the SROutput since this graph has been created, unless the
+   * graph has been updated accordingly. Only the levels of the containment 
+   * hierarchy contained in this graph are checked: for instance, a new 
+   * FeatureTable does not make out of date a graph without Feature vertices.
+   * Changes of attribute values are not detected.
+   * 
+   * @param bo the SROutput used to create this graph
+   */
+  public boolean isUpToDate(SROutput bo){
+    lock_.readLock().lock();
+    try{
+      return stamp_==getStamp(bo, depth_);
+    }
+    finally{
+      lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the lock of this graph. Its write lock is held while the graph is
+   * updated by addIteration(), addHit(), addHsp() and addFeatureTable().
+   */
+  public ReadWriteLock getLock(){
+    return lock_;
+  }
+
+  /**
+   * Returns a value summarizing the structure of a SROutput: two values differ
+   * when objects have been added, removed or replaced in between, up to hash
+   * collisions. It is computed by walking the entire SROutput, down to the
+   * qualifiers of its features.
+   */
+  public static long getStamp(SROutput bo){
+    return getStamp(bo, LEVELS.length-1);
+  }
+
+  /**
+   * Returns a value summarizing the structure of a SROutput down to a level of
+   * its containment hierarchy. It is computed like the one maintained by
+   * addChild().
+   */
+  private static long getStamp(SROutput bo, int depth){
+    Enumeration<Feature>   feats;
+    Enumeration<Qualifier> qualifiers;
+    SRIteration            bi;
+    SRHit                  hit;
+    SRHsp                  hsp;
+    Feature                feat;
+    long                   stamp = 0;
+    int                    i, j, k, size, size2, size3;
+
+    if (bo.isEmpty() || depth<1)
+      return stamp;
     size = bo.countIteration();
     for(i=0;i<size;i++){
       bi = bo.getIteration(i);
-      //creates vertex for BIteration
-      vertex = new BGVertex();
-          vertex.setData(bi);
-          vertex.setType(dgm.getVertexType(BGDataModel.SRITERATION_VERTEX_TYPE));
-          vIter = vertex;
-          this.addVertex(vertex);
-          //creates HyperEdge for relation
-          edge = new BGHyperEdge();
-          edge.setType(dgm.getHyperEdgeType(BGDataModel.CONTAINS_ITERATION_EDGE_TYPE));
-          this.addVertex(edge);
-          //link BOutput/BIteration vertices through hyper edge
-          this.addEdge(vBO, edge);
-          this.addEdge(vIter, edge);
-          size2 = bi.countHit();
-          for(j=0;j<size2;j++){
-            hit = bi.getHit(j);
-            //creates vertex for BHit
-            vertex = new BGVertex();
-            vertex.setData(hit);
-            vertex.setType(dgm.getVertexType(BGDataModel.SRHIT_VERTEX_TYPE));
-            vHit = vertex;
-            this.addVertex(vertex);
-            //creates HyperEdge for relation
-            edge = new BGHyperEdge();
-            edge.setType(dgm.getHyperEdgeType(BGDataModel.CONTAINS_HIT_EDGE_TYPE));
-            this.addVertex(edge);
-            //link BIteration/BHit vertices through hyper edge
-            this.addEdge(vIter, edge);
-            this.addEdge(vHit, edge);
-            size3 = hit.countHsp();
-            for(k=0;k<size3;k++){
-              hsp = hit.getHsp(k);
-              //creates vertex for BHsp
-              vertex = new BGVertex();
-              vertex.setData(hsp);
-              vertex.setType(dgm.getVertexType(BGDataModel.SRHSP_VERTEX_TYPE));
-              vHsp = vertex;
-              this.addVertex(vertex);
-              //creates HyperEdge for relation
-              edge = new BGHyperEdge();
-              edge.setType(dgm.getHyperEdgeType(BGDataModel.CONTAINS_HSP_EDGE_TYPE));
-              this.addVertex(edge);
-              //link BHit/BHsp vertices through hyper edge
-              this.addEdge(vHit, edge);
-              this.addEdge(vHsp, edge);
-              fTable = hsp.getFeatures();
-              if (fTable==null)
-                continue;
-              feats = fTable.enumFeatures();
-              while(feats.hasMoreElements()){
-                feat = (Feature) feats.nextElement();
-                //creates vertex for Feature
-                vertex = new BGVertex();
-                vertex.setData(feat);
-                vertex.setType(dgm.getVertexType(BGDataModel.FEAT_VERTEX_TYPE));
-                vFeat = vertex;
-                this.addVertex(vertex);
-                //creates HyperEdge for relation
-                edge = new BGHyperEdge();
-                edge.setType(dgm.getHyperEdgeType(BGDataModel.CONTAINS_FEAT_EDGE_TYPE));
-                this.addVertex(edge);
-                //link BHsp/Feature vertices through hyper edge
-                this.addEdge(vHsp, edge);
-                this.addEdge(vFeat, edge);
-                //qualifiers ?
-                qualifiers = feat.enumQualifiers();
-                while(qualifiers.hasMoreElements()){
-                  qualifier = (Qualifier) qualifiers.nextElement();
-                  //creates vertex for Qualifier
-                  vertex = new BGVertex();
-                  vertex.setData(qualifier);
-                  vertex.setType(dgm.getVertexType(BGDataModel.QUALIFIER_VERTEX_TYPE));
-                  vQual = vertex;
-                  this.addVertex(vertex);
-                  //creates HyperEdge for relation
-                  edge = new BGHyperEdge();
-                  edge.setType(dgm.getHyperEdgeType(BGDataModel.CONTAINS_QUALIFIER_EDGE_TYPE));
-                  this.addVertex(edge);
-                  //link Feature/Qualifier vertices through hyper edge
-                  this.addEdge(vFeat, edge);
-                  this.addEdge(vQual, edge);
-                }
-              }
+      stamp += getLinkStamp(bo, bi);
+      size2 = depth<2 ? 0 : bi.countHit();
+      for(j=0;j<size2;j++){
+        hit = bi.getHit(j);
+        stamp += getLinkStamp(bi, hit);
+        size3 = depth<3 ? 0 : hit.countHsp();
+        for(k=0;k<size3;k++){
+          hsp = hit.getHsp(k);
+          stamp += getLinkStamp(hit, hsp);
+          if (depth<4 || hsp.getFeatures()==null)
+            continue;
+          feats = hsp.getFeatures().enumFeatures();
+          while(feats.hasMoreElements()){
+            feat = feats.nextElement();
+            stamp += getLinkStamp(hsp, feat);
+            if (depth<5)
+              continue;
+            qualifiers = feat.enumQualifiers();
+            while(qualifiers.hasMoreElements()){
+              stamp += getLinkStamp(feat, qualifiers.nextElement());
             }
           }
+        }
+      }
+    }
+    return stamp;
+  }
+
+  /**
+   * Returns a hash of the identities of a container and of one of its objects.
+   * Link hashes are summed up, so that a stamp does not depend on the order 
+   * in which objects are added to a graph.
+   */
+  private static long getLinkStamp(Object container, Object data){
+    long h;
+
+    h = ((long) System.identityHashCode(container) << 32) ^ 
+        (System.identityHashCode(data) & 0xffffffffL);
+    //64-bit finalizer of MurmurHash3
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb53e185a2f63L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Figures out whether this graph contains the vertices of a particular type.
+   * A graph created for some vertex types only does not contain the deepest
+   * levels of the containment hierarchy of a SROutput.
+   * 
+   * @param type a vertex type name
+   */
+  public boolean hasVertexType(String type){
+    int i;
+
+    for(i=0;i<=depth_;i++){
+      if (LEVELS[i].equals(type))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the level of the deepest vertex type within the containment 
+   * hierarchy of a SROutput: 0 for SROutput down to 5 for Qualifier.
+   */
+  static int getDepth(Set<String> vertexTypes){
+    int i;
+
+    if (vertexTypes==null)
+      return LEVELS.length-1;
+    for(i=LEVELS.length-1;i>0;i--){
+      if (vertexTypes.contains(LEVELS[i]))
+        break;
     }
+    return i;
   }
+
   public void create(HDBConnector conn, DataGraphModel dgm){
 
   }
@@ -240,181 +546,226 @@ public class BGraph extends Pseudograph implements HDataGraph{
     return (super.containsVertex(vertex));
   }
 
-  public Enumeration<HDGHyperEdge> edges(){
-    return new Enumeration<HDGHyperEdge>() {
-      Iterator<?>  iter;
-      boolean      bFirst = true;
-      Object       edge = null;
-
-      private void initialize(){
-        iter = BGraph.this.vertexSet().iterator();
-        bFirst = false;
-      }
+  /**
+   * Adds a vertex or an hyper-edge to this graph. The type of the object must 
+   * be set: it is used to index vertices and hyper-edges by type.
+   */
+  @Override
+  public boolean addVertex(Object v){
+    if (!super.addVertex(v))
+      return false;
+    if (v instanceof HDGHyperEdge){
+      getList(typedEdges_, getTypeName((HDGHyperEdge) v)).add((HDGHyperEdge) v);
+    }
+    else if (v instanceof HDGVertex){
+      getList(typedVertices_, getTypeName((HDGVertex) v)).add((HDGVertex) v);
+    }
+    return true;
+  }
 
-      public synchronized boolean hasMoreElements() {
-        if (bFirst)
-          initialize();
-        if (edge!=null)
-          return true;
-        while(iter.hasNext()){
-          edge = iter.next();
-          if (edge instanceof HDGHyperEdge)
-            return true;
-        }
-        edge = null;
-        return (false);
-      }
+  /**
+   * Removes a vertex or an hyper-edge from this graph.
+   */
+  @Override
+  public boolean removeVertex(Object v){
+    ArrayList<?> list = null;
 
-      public synchronized HDGHyperEdge nextElement() {
-        HDGHyperEdge o = (HDGHyperEdge) edge;
-        edge = null;
-        return o;
-      }
-    };
+    if (!super.removeVertex(v))
+      return false;
+    adjacency_ = null;
+    if (v instanceof HDGHyperEdge){
+      list = typedEdges_.get(getTypeName((HDGHyperEdge) v));
+    }
+    else if (v instanceof HDGVertex){
+      list = typedVertices_.get(getTypeName((HDGVertex) v));
+    }
+    if (list!=null)
+      list.remove(v);
+    return true;
+  }
+
+  private static String getTypeName(HDGDataObject obj){
+    return obj.getType()==null ? null : obj.getType().getName();
+  }
+
+  private static <T> ArrayList<T> getList(HashMap<String, ArrayList<T>> map, String type){
+    ArrayList<T> list;
+
+    list = map.get(type);
+    if (list==null){
+      list = new ArrayList<T>();
+      map.put(type, list);
+    }
+    return list;
+  }
+
+  public Enumeration<HDGHyperEdge> edges(){
+    return new BGListsEnumeration<HDGHyperEdge>(typedEdges_.values());
   }
 
   public Enumeration<HDGVertex> vertices(){
-    return new Enumeration<HDGVertex>() {
-      Iterator<?>  iter;
-      boolean   bFirst = true;
-      Object    vertex = null;
-
-      private void initialize(){
-        iter = BGraph.this.vertexSet().iterator();
-        bFirst = false;
-      }
+    return new BGListsEnumeration<HDGVertex>(typedVertices_.values());
+  }
 
-      public synchronized boolean hasMoreElements() {
-        if (bFirst)
-          initialize();
-        if (vertex!=null)
-          return true;
-        while(iter.hasNext()){
-          vertex = iter.next();
-          if (vertex instanceof HDGVertex)
-            return true;
-        }
-        vertex = null;
-        return (false);
-      }
+  /**
+   * Returns the vertices of a particular type. Unlike vertices(), this method
+   * does not scan the entire graph.
+   * 
+   * @param type a vertex type name, e.g. one of the BGDataModel.XXX_VERTEX_TYPE
+   * values
+   */
+  public Enumeration<HDGVertex> vertices(String type){
+    return new BGListsEnumeration<HDGVertex>(getLists(typedVertices_, type));
+  }
 
-      public synchronized HDGVertex nextElement() {
-        HDGVertex o = (HDGVertex) vertex;
-        vertex = null;
-        return o;
-      }
-    };
+  /**
+   * Returns the hyper-edges of a particular type. Unlike edges(), this method
+   * does not scan the entire graph.
+   * 
+   * @param type an hyper-edge type name, e.g. one of the BGDataModel.XXX_EDGE_TYPE
+   * values
+   */
+  public Enumeration<HDGHyperEdge> edges(String type){
+    return new BGListsEnumeration<HDGHyperEdge>(getLists(typedEdges_, type));
   }
 
-  public Enumeration<HDGHyperEdge> edges(final HDGVertex vertex){
-    return new Enumeration<HDGHyperEdge>() {
-      Iterator<?>             iter;
-      boolean                 bFirst = true;
-      HashSet<HDGHyperEdge>   set;
-
-      private void initialize(){
-        iter = BGraph.this.edgesOf(vertex).iterator();
-        //the following code handles the case where a vertex is
-        //involved several times in a single edge (some kind of loop) 
-        //ex: if vertex 'a' is involved twice in an edge ('a,a,c' for
-            //example), this code returns that edge only one times.
-            set = new HashSet<HDGHyperEdge>();
-            while(iter.hasNext()){
-              set.add((HDGHyperEdge) ((Edge)iter.next()).getTarget());
-            }
-            iter = set.iterator();
-            bFirst = false;
-      }
+  /**
+   * Returns the number of vertices of a particular type.
+   * 
+   * @param type a vertex type name
+   */
+  public int countVertices(String type){
+    ArrayList<HDGVertex> list;
 
-      public synchronized boolean hasMoreElements() {
-        if (bFirst)
-          initialize();
-        return (iter.hasNext());
-      }
+    list = typedVertices_.get(type);
+    return list==null ? 0 : list.size();
+  }
 
-      public synchronized HDGHyperEdge nextElement() {
-        if (bFirst)
-          initialize();
-        return ((HDGHyperEdge) iter.next());
-      }
-    };
+  /**
+   * Returns the number of hyper-edges of a particular type.
+   * 
+   * @param type an hyper-edge type name
+   */
+  public int countEdges(String type){
+    ArrayList<HDGHyperEdge> list;
+
+    list = typedEdges_.get(type);
+    return list==null ? 0 : list.size();
   }
 
-  public int degree(HDGVertex vertex){
-    Iterator<?>      iter;
-    HashSet<Object>  set;
+  private static <T> List<ArrayList<T>> getLists(HashMap<String, ArrayList<T>> map, String type){
+    ArrayList<T> list;
 
-    iter = BGraph.this.edgesOf(vertex).iterator();
-    //the following code handles the case where a vertex is
-    //involved several times in a single edge (some kind of loop) 
-    //ex: if vertex 'a' is involved twice in an edge ('a,a,c' for
-    //example), this code returns 1.
-    set = new HashSet<>();
-    while(iter.hasNext()){
-      set.add(iter.next());
-    }
-    return (set.size());
+    list = map.get(type);
+    if (list==null)
+      return Collections.emptyList();
+    return Collections.singletonList(list);
   }
 
-  public Enumeration<HDGVertex> vertices(final HDGHyperEdge edge){
-    return new Enumeration<HDGVertex>() {
-      Iterator<?>  iter;
-      boolean      bFirst = true;
+  /**
+   * Adds a link between a vertex and an hyper-edge. Both objects must have been
+   * added to this graph.
+   */
+  @Override
+  public Edge addEdge(Object source, Object target){
+    BGAdjacency adjacency;
+    Edge        edge;
 
-      private void initialize(){
-        iter = BGraph.this.edgesOf(edge).iterator();
-        bFirst = false;
-      }
+    edge = super.addEdge(source, target);
+    adjacency = adjacency_;
+    if (edge!=null && adjacency!=null)
+      adjacency.link(source, target);
+    return edge;
+  }
 
-      public synchronized boolean hasMoreElements() {
-        if (bFirst)
-          initialize();
-        return (iter.hasNext());
-      }
+  @Override
+  public boolean addEdge(Edge e){
+    BGAdjacency adjacency;
 
-      public synchronized HDGVertex nextElement() {
-        if (bFirst)
-          initialize();
-        return (HDGVertex) (((Edge)iter.next()).getSource());
-      }
-    };
+    if (!super.addEdge(e))
+      return false;
+    adjacency = adjacency_;
+    if (adjacency!=null)
+      adjacency.link(e.getSource(), e.getTarget());
+    return true;
   }
 
-  public Enumeration<HDGVertex> oppositeVertices(final HDGHyperEdge edge, final HDGVertex vertex, boolean obeyOri){
-    return new Enumeration<HDGVertex>() {
-      Iterator<?>          iter;
-      boolean              bFirst = true;
-      ArrayList<HDGVertex> al;
-
-      private void initialize(){
-        iter = BGraph.this.edgesOf(edge).iterator();
-        //the following code handles the case where an edge connects
-        //more than once a single node (some kind of loop) 
-        //ex: if edge connects 'a,a,c' and if vertex is 'a', this
-        //code will get 'a,c' as opposite vertices of 'a'
-        al = new ArrayList<HDGVertex>();
-        Object obj;
-        while(iter.hasNext()){
-          obj = ((Edge)iter.next()).getSource();
-          al.add((HDGVertex) obj);
-        }
-        al.remove(vertex);
-        iter = al.iterator();
-        bFirst = false;
-      }
+  @Override
+  public boolean removeEdge(Edge e){
+    if (!super.removeEdge(e))
+      return false;
+    adjacency_ = null;
+    return true;
+  }
 
-      public synchronized boolean hasMoreElements() {
-        if (bFirst)
-          initialize();
-        return (iter.hasNext());
-      }
+  @Override
+  public Edge removeEdge(Object source, Object target){
+    Edge edge;
+
+    edge = super.removeEdge(source, target);
+    if (edge!=null)
+      adjacency_ = null;
+    return edge;
+  }
+
+  /**
+   * Returns the adjacency lists of this graph. They are maintained while links
+   * are added and recomputed from the JGraphT edges after a removal.
+   */
+  private BGAdjacency getAdjacency(){
+    Enumeration<HDGHyperEdge> edges;
+    BGAdjacency               adjacency;
+    Iterator<?>               iter;
+    Edge                      edge;
 
-      public synchronized HDGVertex nextElement() {
-        if (bFirst)
-          initialize();
-        return ((HDGVertex) iter.next());
+    adjacency = adjacency_;
+    if (adjacency!=null)
+      return adjacency;
+    adjacency = new BGAdjacency();
+    edges = edges();
+    while(edges.hasMoreElements()){
+      iter = edgesOf(edges.nextElement()).iterator();
+      while(iter.hasNext()){
+        edge = (Edge) iter.next();
+        adjacency.link(edge.getSource(), edge.getTarget());
       }
-    };
+    }
+    adjacency_ = adjacency;
+    return adjacency;
+  }
+
+  public Enumeration<HDGHyperEdge> edges(HDGVertex vertex){
+    return new BGCursor<HDGHyperEdge>(getAdjacency().vertexEdges_.get(vertex), -1);
+  }
+
+  public int degree(HDGVertex vertex){
+    ArrayList<HDGHyperEdge> edges;
+
+    edges = getAdjacency().vertexEdges_.get(vertex);
+    return edges==null ? 0 : edges.size();
+  }
+
+  public Enumeration<HDGVertex> vertices(HDGHyperEdge edge){
+    return new BGCursor<HDGVertex>(getAdjacency().edgeVertices_.get(edge), -1);
+  }
+
+  public Enumeration<HDGVertex> oppositeVertices(HDGHyperEdge edge, HDGVertex vertex, boolean obeyOri){
+    ArrayList<HDGVertex> vertices;
+    int                  i, size;
+
+    vertices = getAdjacency().edgeVertices_.get(edge);
+    if (vertices==null)
+      return new BGCursor<HDGVertex>(null, -1);
+    //the following code handles the case where an edge connects
+    //more than once a single node (some kind of loop) 
+    //ex: if edge connects 'a,a,c' and if vertex is 'a', this
+    //code will get 'a,c' as opposite vertices of 'a'
+    size = vertices.size();
+    for(i=0;i<size;i++){
+      if (vertex.equals(vertices.get(i)))
+        break;
+    }
+    return new BGCursor<HDGVertex>(vertices, i);
   }
 
   /**Returns an Enumeration of Lists*/
@@ -622,5 +973,108 @@ public class BGraph extends Pseudograph implements HDataGraph{
     };
   }
 
-}
+  /**
+   * Adjacency lists of the vertices and the hyper-edges of a BGraph.
+   */
+  private static class BGAdjacency{
+    private HashMap<HDGVertex, ArrayList<HDGHyperEdge>> vertexEdges_ = new HashMap<HDGVertex, ArrayList<HDGHyperEdge>>();
+    private HashMap<HDGHyperEdge, ArrayList<HDGVertex>> edgeVertices_ = new HashMap<HDGHyperEdge, ArrayList<HDGVertex>>();
 
+    private void link(Object source, Object target){
+      ArrayList<HDGHyperEdge> edges;
+      ArrayList<HDGVertex>    vertices;
+      HDGVertex               vertex;
+      HDGHyperEdge            edge;
+      boolean                 loop = false;
+
+      if (source instanceof HDGVertex && target instanceof HDGHyperEdge){
+        vertex = (HDGVertex) source;
+        edge = (HDGHyperEdge) target;
+      }
+      else if (target instanceof HDGVertex && source instanceof HDGHyperEdge){
+        vertex = (HDGVertex) target;
+        edge = (HDGHyperEdge) source;
+      }
+      else{
+        return;
+      }
+      vertices = edgeVertices_.get(edge);
+      if (vertices==null){
+        vertices = new ArrayList<HDGVertex>(2);
+        edgeVertices_.put(edge, vertices);
+      }
+      else{
+        //a vertex involved several times in a single edge only
+        //references that edge once
+        loop = vertices.contains(vertex);
+      }
+      vertices.add(vertex);
+      if (loop)
+        return;
+      edges = vertexEdges_.get(vertex);
+      if (edges==null){
+        edges = new ArrayList<HDGHyperEdge>(2);
+        vertexEdges_.put(vertex, edges);
+      }
+      edges.add(edge);
+    }
+  }
+
+  /**
+   * Enumeration over the elements of a list, possibly skipping one of them.
+   * Such an enumeration is intended to be used by a single thread.
+   */
+  private static class BGCursor<T> implements Enumeration<T>{
+    private List<?> list_;
+    private int     pos_;
+    private int     skip_;
+
+    public BGCursor(List<?> list, int skip){
+      list_ = list;
+      skip_ = skip;
+    }
+
+    public boolean hasMoreElements(){
+      if (pos_==skip_)
+        pos_++;
+      return list_!=null && pos_<list_.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    public T nextElement(){
+      if (!hasMoreElements())
+        throw new NoSuchElementException();
+      return (T) list_.get(pos_++);
+    }
+  }
+
+  /**
+   * Enumeration over the elements of several lists.
+   */
+  private static class BGListsEnumeration<T> implements Enumeration<T>{
+    private Iterator<? extends List<?>> lists_;
+    private List<?>                     list_;
+    private int                         pos_;
+
+    public BGListsEnumeration(Collection<? extends List<?>> lists){
+      lists_ = lists.iterator();
+    }
+
+    public boolean hasMoreElements(){
+      while(list_==null || pos_>=list_.size()){
+        if (!lists_.hasNext())
+          return false;
+        list_ = lists_.next();
+        pos_ = 0;
+      }
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T nextElement(){
+      if (!hasMoreElements())
+        throw new NoSuchElementException();
+      return (T) list_.get(pos_++);
+    }
+  }
+}
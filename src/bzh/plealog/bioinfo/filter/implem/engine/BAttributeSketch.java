@@ -0,0 +1,233 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class summarizes the values of an attribute over a set of objects.
+ * It contains a fixed size uniform sample of values (reservoir sampling), 
+ * the minimum and maximum of numerical values and the frequencies of the 
+ * terms found in string values. The sample is used to estimate the fraction
+ * of objects satisfying any predicate.
+ *
+ * @author Patrick G. Durand
+ */
+public class BAttributeSketch {
+  private String                   objType_;
+  private String                   accessorName_;
+  private Object[]                 sample_;
+  private int                      sampleCount_;
+  private int                      count_;
+  private int                      missing_;
+  private double                   min_ = Double.NaN;
+  private double                   max_ = Double.NaN;
+  private HashMap<String, Integer> terms_;
+  private Random                   rnd_;
+
+  /** maximum number of distinct terms counted for string values*/
+  public static final int MAX_TERMS = 4096;
+
+  /**
+   * Constructor.
+   *
+   * @param objType one of BGDataModel XXX_VERTEX_TYPE constants
+   * @param accessorName the name of the data accessor
+   * @param sampleSize maximum number of values kept in the sample
+   */
+  public BAttributeSketch(String objType, String accessorName, int sampleSize){
+    objType_ = objType;
+    accessorName_ = accessorName;
+    sample_ = new Object[sampleSize];
+    terms_ = new HashMap<String, Integer>();
+    rnd_ = new Random(accessorName.hashCode());
+  }
+
+  /**
+   * Adds a value.
+   *
+   * @param value the value of the attribute for an object. Null means a 
+   * missing value.
+   */
+  public void add(Object value){
+    double d;
+    int    idx;
+
+    count_++;
+    if (sampleCount_<sample_.length){
+      sample_[sampleCount_++] = value;
+    }
+    else{
+      idx = rnd_.nextInt(count_);
+      if (idx<sample_.length)
+        sample_[idx] = value;
+    }
+    if (value==null){
+      missing_++;
+    }
+    else if (value instanceof Number){
+      d = ((Number) value).doubleValue();
+      if (Double.isNaN(min_) || d<min_)
+        min_ = d;
+      if (Double.isNaN(max_) || d>max_)
+        max_ = d;
+    }
+    else{
+      addTerms(value.toString());
+    }
+  }
+
+  private void addTerms(String str){
+    Integer count;
+
+    for(String term : str.toLowerCase().split("[^a-z0-9]+")){
+      if (term.isEmpty())
+        continue;
+      count = terms_.get(term);
+      if (count!=null)
+        terms_.put(term, count+1);
+      else if (terms_.size()<MAX_TERMS)
+        terms_.put(term, 1);
+    }
+  }
+
+  public String getObjectType(){
+    return objType_;
+  }
+
+  public String getAccessorName(){
+    return accessorName_;
+  }
+
+  /**
+   * Returns the number of values added to this sketch.
+   */
+  public int getCount(){
+    return count_;
+  }
+
+  /**
+   * Returns the number of missing values.
+   */
+  public int getMissingCount(){
+    return missing_;
+  }
+
+  /**
+   * Returns the minimum numerical value or NaN if not available.
+   */
+  public double getMin(){
+    return min_;
+  }
+
+  /**
+   * Returns the maximum numerical value or NaN if not available.
+   */
+  public double getMax(){
+    return max_;
+  }
+
+  /**
+   * Returns a histogram of the numerical values of the sample. Bins divide
+   * equally the range [min, max].
+   *
+   * @return the number of sampled values in each bin
+   */
+  public int[] getHistogram(int nBins){
+    int[]  bins;
+    double d, width;
+    int    i, idx;
+
+    bins = new int[nBins];
+    if (Double.isNaN(min_))
+      return bins;
+    width = (max_-min_)/nBins;
+    for(i=0;i<sampleCount_;i++){
+      if (!(sample_[i] instanceof Number))
+        continue;
+      d = ((Number) sample_[i]).doubleValue();
+      idx = width==0 ? 0 : (int) ((d-min_)/width);
+      bins[Math.min(idx, nBins-1)]++;
+    }
+    return bins;
+  }
+
+  /**
+   * Returns the number of times a term occurs in the string values. Terms
+   * are lower case words made of letters and digits.
+   */
+  public int getTermFrequency(String term){
+    Integer count;
+
+    count = terms_.get(term.toLowerCase());
+    return count==null ? 0 : count;
+  }
+
+  /**
+   * Returns the most frequent terms found in string values.
+   *
+   * @param n maximum number of terms to return
+   */
+  public List<String> getTopTerms(int n){
+    ArrayList<Map.Entry<String, Integer>> entries;
+    ArrayList<String>                     terms;
+
+    entries = new ArrayList<Map.Entry<String, Integer>>(terms_.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>(){
+      public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2){
+        return o2.getValue().compareTo(o1.getValue());
+      }
+    });
+    terms = new ArrayList<String>();
+    for(Map.Entry<String, Integer> entry : entries.subList(0, Math.min(n, entries.size()))){
+      terms.add(entry.getKey());
+    }
+    return terms;
+  }
+
+  /**
+   * Returns a copy of the sampled values.
+   */
+  public Object[] getSample(){
+    return Arrays.copyOf(sample_, sampleCount_);
+  }
+
+  /**
+   * Estimates the fraction of objects satisfying a predicate by evaluating
+   * it on the sample. 
+   *
+   * @return a value from 0 to 1 or -1 if the sample is empty
+   */
+  public double getFraction(BPredicate predicate){
+    int i, n = 0;
+
+    if (sampleCount_==0)
+      return -1d;
+    for(i=0;i<sampleCount_;i++){
+      if (predicate.test(sample_[i])==BPredicate.MATCH)
+        n++;
+    }
+    return (double) n / (double) sampleCount_;
+  }
+}
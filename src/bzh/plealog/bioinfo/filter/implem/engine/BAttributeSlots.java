@@ -0,0 +1,73 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class assigns a slot to each distinct attribute referenced by a set
+ * of predicates. It is used to retrieve the value of an attribute only once
+ * per object, whatever the number of predicates using it (see 
+ * BAttributeValues). For internal use only.
+ *
+ * @author Patrick G. Durand
+ */
+class BAttributeSlots {
+  private HashMap<String, ArrayList<String>> accessors_;
+
+  private static final String[] EMPTY_NAMES = new String[0];
+
+  public BAttributeSlots(){
+    accessors_ = new HashMap<String, ArrayList<String>>();
+  }
+
+  /**
+   * Returns the slot of the attribute used by a predicate. The attribute
+   * is registered if needed.
+   */
+  public int getSlot(BPredicate predicate){
+    ArrayList<String> names;
+    int               slot;
+
+    names = accessors_.get(predicate.getObjectType());
+    if (names==null){
+      names = new ArrayList<String>();
+      accessors_.put(predicate.getObjectType(), names);
+    }
+    slot = names.indexOf(predicate.getAccessorName());
+    if (slot==-1){
+      names.add(predicate.getAccessorName());
+      slot = names.size()-1;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the names of the attributes registered for a type of object.
+   *
+   * @param objType one of BGDataModel XXX_VERTEX_TYPE constants
+   */
+  public String[] getAccessors(String objType){
+    ArrayList<String> names;
+
+    names = accessors_.get(objType);
+    if (names==null)
+      return EMPTY_NAMES;
+    return names.toArray(EMPTY_NAMES);
+  }
+}
@@ -0,0 +1,122 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.Arrays;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class holds the attribute values of an object used by a set of
+ * predicates. Each value is retrieved the first time a predicate needs it,
+ * then it is reused by the other predicates. Numerical values are retrieved
+ * without any boxing. An instance is reused for all the objects of a same
+ * type. For internal use only.
+ *
+ * @author Patrick G. Durand
+ */
+class BAttributeValues {
+  private String   objType_;
+  private String[] accessors_;
+  private Object   data_;
+  private Object[] values_;
+  private long[]   longs_;
+  private double[] doubles_;
+  private byte[]   loaded_;
+
+  //kinds of values already retrieved for a slot
+  private static final byte OBJECT = 1;
+  private static final byte LONG   = 2;
+  private static final byte DOUBLE = 4;
+
+  /**
+   * Constructor.
+   *
+   * @param objType the type of objects. One of BGDataModel XXX_VERTEX_TYPE constants
+   * @param accessors the names of attributes as returned by BAttributeSlots.getAccessors()
+   */
+  public BAttributeValues(String objType, String[] accessors){
+    objType_ = objType;
+    accessors_ = accessors;
+    values_ = new Object[accessors.length];
+    longs_ = new long[accessors.length];
+    doubles_ = new double[accessors.length];
+    loaded_ = new byte[accessors.length];
+  }
+
+  /**
+   * Sets the object whose values are retrieved. Values of the previous object
+   * are discarded.
+   *
+   * @param data one of SRHit, SRHsp, Feature or Qualifier
+   */
+  public void setData(Object data){
+    data_ = data;
+    Arrays.fill(loaded_, (byte) 0);
+  }
+
+  /**
+   * Returns the value of an attribute. Missing values are reported as null.
+   */
+  public Object getValue(int slot){
+    if ((loaded_[slot] & OBJECT)==0){
+      values_[slot] = BGUtils.getValue(data_, objType_, accessors_[slot]);
+      loaded_[slot] |= OBJECT;
+    }
+    return values_[slot];
+  }
+
+  /**
+   * Returns the value of an integer attribute. Missing values are reported
+   * as BGUtils.MISSING_LONG: use hasLong() to tell them from actual values.
+   */
+  public long getLong(int slot){
+    if ((loaded_[slot] & LONG)==0){
+      longs_[slot] = BGUtils.getLong(data_, objType_, accessors_[slot]);
+      loaded_[slot] |= LONG;
+    }
+    return longs_[slot];
+  }
+
+  /**
+   * Returns the value of a numerical attribute. Missing values are reported
+   * as BGUtils.MISSING_DOUBLE: use hasDouble() to tell them from actual values.
+   */
+  public double getDouble(int slot){
+    if ((loaded_[slot] & DOUBLE)==0){
+      doubles_[slot] = BGUtils.getDouble(data_, objType_, accessors_[slot]);
+      loaded_[slot] |= DOUBLE;
+    }
+    return doubles_[slot];
+  }
+
+  /**
+   * Figures out whether an integer attribute has a value. Only needed when
+   * getLong() returns BGUtils.MISSING_LONG.
+   */
+  public boolean hasLong(int slot){
+    return BGUtils.hasLong(data_, objType_, accessors_[slot]);
+  }
+
+  /**
+   * Figures out whether a numerical attribute has a value. Only needed when
+   * getDouble() returns BGUtils.MISSING_DOUBLE.
+   */
+  public boolean hasDouble(int slot){
+    return BGUtils.hasDouble(data_, objType_, accessors_[slot]);
+  }
+}
@@ -0,0 +1,122 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+/**
+ * This class implements a Bloom filter. It is used in front of large sets
+ * of values to answer most negative lookups without reaching the set itself:
+ * a Bloom filter is much smaller than the set, so it stays in CPU caches.
+ * <br><br>
+ * Values are given as 64-bit hash codes; bit positions are computed using
+ * double hashing.
+ *
+ * @author Patrick G. Durand
+ */
+public class BBloomFilter {
+  private long[] bits_;
+  private int    mask_;
+  private int    nHashes_;
+
+  /** default rate of false positive answers */
+  public static final double DEFAULT_FPP = 0.01d;
+
+  /**
+   * Constructor.
+   *
+   * @param expected expected number of values
+   * @param fpp rate of false positive answers, e.g. 0.01 for 1%
+   */
+  public BBloomFilter(int expected, double fpp){
+    double nBits;
+    int    size;
+
+    expected = Math.max(1, expected);
+    nBits = -expected*Math.log(fpp)/(Math.log(2)*Math.log(2));
+    size = 64;
+    while(size<nBits && size<(1<<30)){
+      size <<= 1;
+    }
+    bits_ = new long[size>>>6];
+    mask_ = size-1;
+    nHashes_ = Math.max(1, (int) Math.round(size*Math.log(2)/expected));
+    nHashes_ = Math.min(nHashes_, 16);
+  }
+
+  /**
+   * Returns a 64-bit hash code of a string.
+   */
+  public static long hash(String value){
+    return hash((long) value.hashCode());
+  }
+
+  /**
+   * Returns a 64-bit hash code of an integer.
+   */
+  public static long hash(long value){
+    value ^= (value >>> 33);
+    value *= 0xff51afd7ed558ccdL;
+    value ^= (value >>> 33);
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= (value >>> 33);
+    return value;
+  }
+
+  /**
+   * Adds a value given its hash code.
+   */
+  public void add(long hash){
+    int h1, h2, i, idx;
+
+    h1 = (int) hash;
+    h2 = (int) (hash >>> 32);
+    for(i=0;i<nHashes_;i++){
+      idx = (h1+i*h2) & mask_;
+      bits_[idx>>>6] |= (1L << idx);
+    }
+  }
+
+  /**
+   * Figures out whether a value may have been added to this filter. When
+   * this method returns false, the value has not been added for sure.
+   */
+  public boolean mightContain(long hash){
+    int h1, h2, i, idx;
+
+    h1 = (int) hash;
+    h2 = (int) (hash >>> 32);
+    for(i=0;i<nHashes_;i++){
+      idx = (h1+i*h2) & mask_;
+      if ((bits_[idx>>>6] & (1L << idx))==0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the size of this filter in bits.
+   */
+  public int getSize(){
+    return mask_+1;
+  }
+
+  /**
+   * Returns the number of hash functions used by this filter.
+   */
+  public int getHashCount(){
+    return nHashes_;
+  }
+}
@@ -0,0 +1,280 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+/**
+ * This class evaluates numerical predicates over columns of primitives and
+ * produces selection bit masks, 64 values at a time. Every operator is first
+ * turned into a single closed range [lo, hi], possibly negated, so that
+ * columns are scanned by one branch-free loop per data type: each value sets
+ * its bit in a word of the match mask. Missing values are given as a mask
+ * since sentinels such as NaN or Long.MIN_VALUE are also actual values: they
+ * are copied to the error mask. Actual NaN values are compared as HGE does.
+ * <br><br>
+ * Masks are arrays of long words: value i is stored in bit (i % 64) of word
+ * (i / 64), as java.util.BitSet does. Matches never contain errors.
+ *
+ * @author Patrick G. Durand
+ */
+public class BColumnSelector {
+  private static final long EMPTY_LO = 1;
+  private static final long EMPTY_HI = 0;
+
+  private BColumnSelector(){}
+
+  /**
+   * Returns the number of words of a mask handling a given number of values.
+   */
+  public static int getWords(int size){
+    return (size+63)>>>6;
+  }
+
+  /**
+   * Returns the bits of the last word of a mask that are actually used.
+   */
+  public static long getLastWordMask(int size){
+    return (size & 63)==0 ? -1L : (1L<<(size & 63))-1;
+  }
+
+  /**
+   * Evaluates an integer predicate over a column of integer values.
+   *
+   * @param predicate the predicate
+   * @param values the column
+   * @param missing the mask of missing values. May be null if no value is missing.
+   * @param matches the mask receiving the values satisfying the predicate
+   * @param errors the mask receiving the missing values
+   */
+  public static void select(BLongPredicate predicate, long[] values, long[] missing, 
+      long[] matches, long[] errors){
+    long lo, hi, b, b2;
+
+    b = predicate.getBound();
+    b2 = predicate.getBound2();
+    lo = Long.MIN_VALUE;
+    hi = Long.MAX_VALUE;
+    switch(predicate.getOperator()){
+      case BPredicate.OP_EQ:
+      case BPredicate.OP_NE:
+        lo = hi = b;
+        break;
+      case BPredicate.OP_LT:
+        if (b==Long.MIN_VALUE){
+          lo = EMPTY_LO; hi = EMPTY_HI;
+        }
+        else{
+          hi = b-1;
+        }
+        break;
+      case BPredicate.OP_GT:
+        if (b==Long.MAX_VALUE){
+          lo = EMPTY_LO; hi = EMPTY_HI;
+        }
+        else{
+          lo = b+1;
+        }
+        break;
+      case BPredicate.OP_LE:
+        hi = b;
+        break;
+      case BPredicate.OP_GE:
+        lo = b;
+        break;
+      case BPredicate.OP_IN_RANGE_INCL:
+        lo = b;
+        hi = b2;
+        break;
+      case BPredicate.OP_IN_RANGE_EXCL:
+        if (b==Long.MAX_VALUE || b2==Long.MIN_VALUE){
+          lo = EMPTY_LO; hi = EMPTY_HI;
+        }
+        else{
+          lo = b+1;
+          hi = b2-1;
+        }
+        break;
+    }
+    selectRange(values, lo, hi, predicate.getOperator()==BPredicate.OP_NE, missing, matches, errors);
+  }
+
+  /**
+   * Evaluates a floating point predicate over a column of integer values. 
+   * Equality operators are not handled here since HGE does not check 
+   * equality between a long and a double: all values are then errors.
+   *
+   * @param predicate the predicate
+   * @param values the column
+   * @param missing the mask of missing values. May be null if no value is missing.
+   * @param matches the mask receiving the values satisfying the predicate
+   * @param errors the mask receiving the values that cannot be compared
+   */
+  public static void select(BDoublePredicate predicate, long[] values, long[] missing, 
+      long[] matches, long[] errors){
+    double[] range;
+    int      i, n;
+
+    n = getWords(values.length);
+    if (predicate.isEquality()){
+      for(i=0;i<n;i++){
+        matches[i] = 0;
+        errors[i] = -1L;
+      }
+      if (n!=0)
+        errors[n-1] &= getLastWordMask(values.length);
+      return;
+    }
+    range = getRange(predicate);
+    selectRange(values, range[0], range[1], missing, matches, errors);
+  }
+
+  /**
+   * Evaluates a floating point predicate over a column of floating point values.
+   *
+   * @param predicate the predicate
+   * @param values the column
+   * @param missing the mask of missing values. May be null if no value is missing.
+   * @param matches the mask receiving the values satisfying the predicate
+   * @param errors the mask receiving the missing values
+   */
+  public static void select(BDoublePredicate predicate, double[] values, long[] missing, 
+      long[] matches, long[] errors){
+    double[] range;
+
+    range = getRange(predicate);
+    selectRange(values, range[0], range[1], predicate.getOperator()==BPredicate.OP_NE, 
+        missing, matches, errors);
+  }
+
+  /**
+   * Turns a floating point operator into a closed range. An empty range has a NaN
+   * bound since no value compares with NaN.
+   */
+  private static double[] getRange(BDoublePredicate predicate){
+    double lo, hi, b, b2;
+
+    b = predicate.getBound();
+    b2 = predicate.getBound2();
+    lo = Double.NEGATIVE_INFINITY;
+    hi = Double.POSITIVE_INFINITY;
+    switch(predicate.getOperator()){
+      case BPredicate.OP_EQ:
+      case BPredicate.OP_NE:
+        lo = hi = b;
+        break;
+      case BPredicate.OP_LT:
+        hi = below(b);
+        break;
+      case BPredicate.OP_GT:
+        lo = above(b);
+        break;
+      case BPredicate.OP_LE:
+        hi = b;
+        break;
+      case BPredicate.OP_GE:
+        lo = b;
+        break;
+      case BPredicate.OP_IN_RANGE_INCL:
+        lo = b;
+        hi = b2;
+        break;
+      case BPredicate.OP_IN_RANGE_EXCL:
+        lo = above(b);
+        hi = below(b2);
+        break;
+    }
+    return new double[]{lo, hi};
+  }
+
+  //smallest value v such as v>b
+  private static double above(double b){
+    return b==Double.POSITIVE_INFINITY ? Double.NaN : Math.nextUp(b);
+  }
+
+  //greatest value v such as v<b
+  private static double below(double b){
+    return b==Double.NEGATIVE_INFINITY ? Double.NaN : Math.nextDown(b);
+  }
+
+  private static void selectRange(long[] values, long lo, long hi, boolean negate, 
+      long[] missing, long[] matches, long[] errors){
+    long v, bits, errs, flip;
+    int  i, j, w, n, from, to;
+
+    n = getWords(values.length);
+    flip = negate ? -1L : 0L;
+    for(w=0;w<n;w++){
+      from = w<<6;
+      to = Math.min(from+64, values.length);
+      bits = 0;
+      errs = missing!=null ? missing[w] : 0L;
+      for(i=from,j=0;i<to;i++,j++){
+        v = values[i];
+        bits |= ((v>=lo & v<=hi) ? 1L : 0L)<<j;
+      }
+      matches[w] = (bits ^ flip) & ~errs;
+      errors[w] = errs;
+    }
+    if (n!=0)
+      matches[n-1] &= getLastWordMask(values.length);
+  }
+
+  private static void selectRange(long[] values, double lo, double hi, 
+      long[] missing, long[] matches, long[] errors){
+    double d;
+    long   bits, errs;
+    int    i, j, w, n, from, to;
+
+    n = getWords(values.length);
+    for(w=0;w<n;w++){
+      from = w<<6;
+      to = Math.min(from+64, values.length);
+      bits = 0;
+      errs = missing!=null ? missing[w] : 0L;
+      for(i=from,j=0;i<to;i++,j++){
+        d = (double) values[i];
+        bits |= ((d>=lo & d<=hi) ? 1L : 0L)<<j;
+      }
+      matches[w] = bits & ~errs;
+      errors[w] = errs;
+    }
+  }
+
+  private static void selectRange(double[] values, double lo, double hi, boolean negate, 
+      long[] missing, long[] matches, long[] errors){
+    double v;
+    long   bits, errs, flip;
+    int    i, j, w, n, from, to;
+
+    n = getWords(values.length);
+    flip = negate ? -1L : 0L;
+    for(w=0;w<n;w++){
+      from = w<<6;
+      to = Math.min(from+64, values.length);
+      bits = 0;
+      errs = missing!=null ? missing[w] : 0L;
+      for(i=from,j=0;i<to;i++,j++){
+        v = values[i];
+        //a NaN is never in range: it only matches the != operator
+        bits |= ((v>=lo & v<=hi) ? 1L : 0L)<<j;
+      }
+      matches[w] = (bits ^ flip) & ~errs;
+      errors[w] = errs;
+    }
+    if (n!=0)
+      matches[n-1] &= getLastWordMask(values.length);
+  }
+}
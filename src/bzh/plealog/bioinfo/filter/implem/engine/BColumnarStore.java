@@ -0,0 +1,417 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+import bzh.plealog.hge.api.datamodel.DGMAttribute;
+
+/**
+ * This class stores the numerical attributes of the hits and HSPs of a 
+ * SROutput as columns of primitives: e-values, bit scores, identities, 
+ * coordinates, frames, etc. A column is read from the SROutput the first
+ * time a rule needs it; filters made of numerical rules can then be executed
+ * as loops over arrays, without walking the objects tree nor invoking any 
+ * accessor. Rules are evaluated by BColumnSelector which produces bit masks
+ * 64 values at a time. BFilterSet relies on this class to execute such 
+ * filters when it is asked to (see BFilterSet.setColumnar()).
+ * <br><br>
+ * Columns are indexed by the ordinals of a BResultOrdinals: hit columns by 
+ * hit ordinals, HSP columns by HSP ordinals. Missing values are stored as
+ * BGUtils.MISSING_LONG or BGUtils.MISSING_DOUBLE and are also recorded in a
+ * mask, so that they are not mistaken for actual values such as NaN e-values
+ * (see isMissing()). Results of filters are
+ * returned as BResultBitmap objects and are the same as the ones of the 
+ * other engines.
+ * <br><br>
+ * The SROutput must not be modified once the store has been created.
+ *
+ * @author Patrick G. Durand
+ */
+public class BColumnarStore {
+  private BOperatorAccessors      fModel_;
+  private BResultOrdinals         ordinals_;
+  private HashMap<String, BColumn> columns_;
+  //range of HSP ordinals of each hit: [hitHsps_[i], hitHsps_[i+1][
+  private int[]                   hitHsps_;
+  //iteration index of each hit
+  private int[]                   hitIterations_;
+
+  private static final String[] OBJ_TYPES = {BGDataModel.SRHIT_VERTEX_TYPE, 
+    BGDataModel.SRHSP_VERTEX_TYPE};
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param bo the data to store
+   */
+  public BColumnarStore(BOperatorAccessors fModel, SROutput bo){
+    this(fModel, new BResultOrdinals(bo));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param ordinals the ordinals of the data to store
+   */
+  public BColumnarStore(BOperatorAccessors fModel, BResultOrdinals ordinals){
+    int i, j, hitOrd, nHits, nHsps;
+
+    fModel_ = fModel;
+    ordinals_ = ordinals;
+    columns_ = new HashMap<String, BColumn>();
+    nHits = ordinals.countHits();
+    nHsps = ordinals.countHsps();
+    hitHsps_ = new int[nHits+1];
+    hitIterations_ = new int[nHits];
+    for(i=0;i<nHsps;i++){
+      hitHsps_[ordinals.getHitOrdinal(i)+1]++;
+    }
+    for(i=0;i<nHits;i++){
+      hitHsps_[i+1] += hitHsps_[i];
+    }
+    j = -1;
+    for(hitOrd=0;hitOrd<nHits;hitOrd++){
+      if (hitOrd==0 || ordinals.getIteration(hitOrd)!=ordinals.getIteration(hitOrd-1))
+        j++;
+      hitIterations_[hitOrd] = j;
+    }
+  }
+
+  private static String getKey(String objType, String accessorName){
+    return objType+"."+accessorName;
+  }
+
+  /**
+   * Figures out whether a data accessor has a column, i.e. whether it is a 
+   * numerical attribute of hits or HSPs.
+   */
+  private static boolean hasColumn(BAccessorEntry entry){
+    if (entry.getFunctionAccessor())
+      return false;
+    if (!entry.getObjectType().equals(OBJ_TYPES[0]) && !entry.getObjectType().equals(OBJ_TYPES[1]))
+      return false;
+    return entry.getDataType()==DGMAttribute.DT_LONG || entry.getDataType()==DGMAttribute.DT_DOUBLE;
+  }
+
+  /**
+   * Returns the column of a data accessor. It is created the first time it is
+   * needed. Returns null if the accessor has no column.
+   */
+  private synchronized BColumn getColumn(BAccessorEntry entry){
+    String   objType, key, accName;
+    boolean  hitLevel, missing;
+    long[]   lValues, mask;
+    double[] dValues;
+    BColumn  column;
+    Object   data;
+    int      i, size;
+
+    if (!hasColumn(entry))
+      return null;
+    objType = entry.getObjectType();
+    accName = entry.getAccessorName();
+    key = getKey(objType, accName);
+    column = columns_.get(key);
+    if (column!=null)
+      return column;
+    hitLevel = objType.equals(BGDataModel.SRHIT_VERTEX_TYPE);
+    size = hitLevel ? ordinals_.countHits() : ordinals_.countHsps();
+    mask = new long[BColumnSelector.getWords(size)];
+    missing = false;
+    if (entry.getDataType()==DGMAttribute.DT_LONG){
+      lValues = new long[size];
+      for(i=0;i<size;i++){
+        data = hitLevel ? ordinals_.getHit(i) : ordinals_.getHsp(i);
+        lValues[i] = BGUtils.getLong(data, objType, accName);
+        if (lValues[i]==BGUtils.MISSING_LONG && !BGUtils.hasLong(data, objType, accName)){
+          mask[i>>>6] |= 1L<<i;
+          missing = true;
+        }
+      }
+      column = new BColumn(lValues, missing ? mask : null);
+    }
+    else{
+      dValues = new double[size];
+      for(i=0;i<size;i++){
+        data = hitLevel ? ordinals_.getHit(i) : ordinals_.getHsp(i);
+        dValues[i] = BGUtils.getDouble(data, objType, accName);
+        if (Double.isNaN(dValues[i]) && !BGUtils.hasDouble(data, objType, accName)){
+          mask[i>>>6] |= 1L<<i;
+          missing = true;
+        }
+      }
+      column = new BColumn(dValues, missing ? mask : null);
+    }
+    columns_.put(key, column);
+    return column;
+  }
+
+  /**
+   * Returns the ordinals this store relies on.
+   */
+  public BResultOrdinals getOrdinals(){
+    return ordinals_;
+  }
+
+  /**
+   * Returns the index of the iteration containing a hit.
+   *
+   * @param hitOrdinal ordinal of a hit
+   */
+  public int getIterationIndex(int hitOrdinal){
+    return hitIterations_[hitOrdinal];
+  }
+
+  /**
+   * Returns the column of an integer data accessor, e.g. hit length or 
+   * alignment length. Returns null if no such column is available.
+   *
+   * @param accessorVisibleName a data accessor visible name
+   */
+  public long[] getLongColumn(String accessorVisibleName){
+    BColumn column;
+
+    column = getColumn(accessorVisibleName);
+    return (column!=null && column.values_ instanceof long[]) ? (long[]) column.values_ : null;
+  }
+
+  /**
+   * Returns the column of a floating point data accessor, e.g. e-value or
+   * bit score. Returns null if no such column is available.
+   *
+   * @param accessorVisibleName a data accessor visible name
+   */
+  public double[] getDoubleColumn(String accessorVisibleName){
+    BColumn column;
+
+    column = getColumn(accessorVisibleName);
+    return (column!=null && column.values_ instanceof double[]) ? (double[]) column.values_ : null;
+  }
+
+  /**
+   * Figures out whether a value of a column is missing. 
+   *
+   * @param accessorVisibleName a data accessor visible name
+   * @param ordinal the index of the value within the column
+   */
+  public boolean isMissing(String accessorVisibleName, int ordinal){
+    BColumn column;
+
+    column = getColumn(accessorVisibleName);
+    if (column==null)
+      return true;
+    return column.missing_!=null && (column.missing_[ordinal>>>6] & (1L<<ordinal))!=0;
+  }
+
+  private BColumn getColumn(String accessorVisibleName){
+    BAccessorEntry entry;
+
+    entry = fModel_.getAccessorEntry(accessorVisibleName);
+    if (entry==null)
+      return null;
+    return getColumn(entry);
+  }
+
+  /**
+   * Figures out whether a filter can be executed by this store, i.e. whether
+   * all its rules are numerical comparisons of hit or HSP attributes.
+   */
+  public boolean canExecute(BFilter filter){
+    return canExecute(fModel_, filter);
+  }
+
+  /**
+   * Figures out whether a filter can be executed by a columnar store, i.e. 
+   * whether all its rules are numerical comparisons of hit or HSP attributes.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param filter a filter
+   */
+  public static boolean canExecute(BOperatorAccessors fModel, BFilter filter){
+    try{
+      compile(fModel, filter);
+    }
+    catch(BFilterException ex){
+      return false;
+    }
+    return true;
+  }
+
+  private static BNumberPredicate[] compile(BOperatorAccessors fModel, BFilter filter) throws BFilterException{
+    ArrayList<BNumberPredicate> predicates;
+    Iterator<BRule>             rules;
+    BAccessorEntry              entry;
+    BPredicate                  predicate;
+    BRule                       rule;
+
+    predicates = new ArrayList<BNumberPredicate>();
+    rules = filter.getRules();
+    while(rules.hasNext()){
+      rule = rules.next();
+      entry = fModel.getAccessorEntry(rule.getAccessor());
+      if (entry==null)
+        throw new BFilterException("unknown accessor: "+rule.getAccessor());
+      predicate = BRuleCompiler.compile(entry, rule.getOperator(), rule.getValue());
+      if (!(predicate instanceof BNumberPredicate) || !hasColumn(entry))
+        throw new BFilterException("rule is not supported by columnar store: "+rule);
+      predicates.add((BNumberPredicate) predicate);
+    }
+    return predicates.toArray(new BNumberPredicate[0]);
+  }
+
+  /**
+   * Executes a filter.
+   *
+   * @param filter a filter made of numerical rules on hit or HSP attributes
+   *
+   * @return the HSPs satisfying the filter
+   *
+   * @throws BFilterException if the filter cannot be executed by this store
+   */
+  public BResultBitmap execute(BFilter filter) throws BFilterException{
+    BNumberPredicate[] predicates;
+    Iterator<BRule>    rules;
+    BColumn[]          columns;
+    long[]             result, matches, errors, allErrors;
+    int                i, j, nHsps, nWords;
+
+    predicates = compile(fModel_, filter);
+    //predicates follow the order of rules
+    columns = new BColumn[predicates.length];
+    rules = filter.getRules();
+    for(i=0;i<columns.length;i++){
+      columns[i] = getColumn(fModel_.getAccessorEntry(rules.next().getAccessor()));
+    }
+    nHsps = ordinals_.countHsps();
+    nWords = BColumnSelector.getWords(nHsps);
+    result = new long[nWords];
+    if (predicates.length==0 || nHsps==0)
+      return new BResultBitmap(ordinals_, new BCompressedBitSet(BitSet.valueOf(result)));
+    allErrors = new long[nWords];
+    matches = new long[nWords];
+    errors = new long[nWords];
+    if (filter.getExclusive()){
+      Arrays.fill(result, -1L);
+      result[nWords-1] &= BColumnSelector.getLastWordMask(nHsps);
+    }
+    for(i=0;i<predicates.length;i++){
+      select(predicates[i], columns[i], matches, errors);
+      //an error rejects an HSP whatever the logic is
+      if (filter.getExclusive()){
+        for(j=0;j<nWords;j++){
+          result[j] &= matches[j];
+        }
+      }
+      else{
+        for(j=0;j<nWords;j++){
+          result[j] |= matches[j];
+          allErrors[j] |= errors[j];
+        }
+      }
+    }
+    for(j=0;j<nWords;j++){
+      result[j] &= ~allErrors[j];
+    }
+    return new BResultBitmap(ordinals_, new BCompressedBitSet(BitSet.valueOf(result)));
+  }
+
+  /**
+   * Evaluates a predicate over a column. HSPs satisfying the predicate are
+   * set in matches, HSPs for which the predicate cannot be evaluated are set
+   * in errors. Both masks are indexed by HSP ordinals.
+   */
+  private void select(BNumberPredicate predicate, BColumn column, long[] matches, long[] errors){
+    long[]  hitMatches, hitErrors;
+    boolean hitLevel;
+    int     size;
+
+    hitLevel = predicate.getObjectType().equals(BGDataModel.SRHIT_VERTEX_TYPE);
+    if (hitLevel){
+      size = BColumnSelector.getWords(ordinals_.countHits());
+      hitMatches = new long[size];
+      hitErrors = new long[size];
+    }
+    else{
+      hitMatches = matches;
+      hitErrors = errors;
+    }
+    if (column.values_ instanceof long[]){
+      if (predicate instanceof BLongPredicate)
+        BColumnSelector.select((BLongPredicate) predicate, (long[]) column.values_, column.missing_, 
+            hitMatches, hitErrors);
+      else
+        BColumnSelector.select((BDoublePredicate) predicate, (long[]) column.values_, column.missing_, 
+            hitMatches, hitErrors);
+    }
+    else{
+      BColumnSelector.select((BDoublePredicate) predicate, (double[]) column.values_, column.missing_, 
+          hitMatches, hitErrors);
+    }
+    if (hitLevel){
+      broadcast(hitMatches, matches);
+      broadcast(hitErrors, errors);
+    }
+  }
+
+  /**
+   * Sets the HSPs of the hits set in a hit mask.
+   */
+  private void broadcast(long[] hitMask, long[] hspMask){
+    BitSet hits, hsps;
+    long[] words;
+    int    i;
+
+    hits = BitSet.valueOf(hitMask);
+    hsps = new BitSet(ordinals_.countHsps());
+    for(i=hits.nextSetBit(0);i>=0;i=hits.nextSetBit(i+1)){
+      hsps.set(hitHsps_[i], hitHsps_[i+1]);
+    }
+    words = hsps.toLongArray();
+    Arrays.fill(hspMask, 0L);
+    System.arraycopy(words, 0, hspMask, 0, words.length);
+  }
+
+  /**
+   * A column: an array of primitives and the mask of its missing values.
+   */
+  private static class BColumn {
+    private Object values_;
+    //null if no value is missing
+    private long[] missing_;
+
+    public BColumn(Object values, long[] missing){
+      values_ = values;
+      missing_ = missing;
+    }
+  }
+}
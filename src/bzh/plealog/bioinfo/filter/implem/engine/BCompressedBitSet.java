@@ -0,0 +1,260 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class is an immutable compressed set of bits. Only non empty words
+ * of 64 bits are stored, along with their position, so that memory usage
+ * depends on the number of bits set, not on the highest one. Set operations
+ * are done word by word.
+ *
+ * @author Patrick G. Durand
+ */
+public class BCompressedBitSet {
+  private int[]  keys_;
+  private long[] words_;
+  private int    cardinality_;
+
+  /** an empty set of bits*/
+  public static final BCompressedBitSet EMPTY = new BCompressedBitSet(new int[0], new long[0], 0);
+
+  private BCompressedBitSet(int[] keys, long[] words, int size){
+    int i;
+
+    if (size!=keys.length){
+      keys = Arrays.copyOf(keys, size);
+      words = Arrays.copyOf(words, size);
+    }
+    keys_ = keys;
+    words_ = words;
+    for(i=0;i<size;i++){
+      cardinality_ += Long.bitCount(words[i]);
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param bits the bits to compress
+   */
+  public BCompressedBitSet(BitSet bits){
+    this(bits.toLongArray());
+  }
+
+  private BCompressedBitSet(long[] words){
+    this(compressKeys(words), compressWords(words), countWords(words));
+  }
+
+  private static int countWords(long[] words){
+    int i, n = 0;
+
+    for(i=0;i<words.length;i++){
+      if (words[i]!=0)
+        n++;
+    }
+    return n;
+  }
+
+  private static int[] compressKeys(long[] words){
+    int[] keys;
+    int   i, n = 0;
+
+    keys = new int[countWords(words)];
+    for(i=0;i<words.length;i++){
+      if (words[i]!=0)
+        keys[n++] = i;
+    }
+    return keys;
+  }
+
+  private static long[] compressWords(long[] words){
+    long[] values;
+    int    i, n = 0;
+
+    values = new long[countWords(words)];
+    for(i=0;i<words.length;i++){
+      if (words[i]!=0)
+        values[n++] = words[i];
+    }
+    return values;
+  }
+
+  /**
+   * Returns the number of bits set to true.
+   */
+  public int cardinality(){
+    return cardinality_;
+  }
+
+  /**
+   * Figures out whether no bit is set.
+   */
+  public boolean isEmpty(){
+    return cardinality_==0;
+  }
+
+  /**
+   * Returns the value of a bit.
+   */
+  public boolean get(int bitIndex){
+    int idx;
+
+    idx = Arrays.binarySearch(keys_, bitIndex>>>6);
+    if (idx<0)
+      return false;
+    return (words_[idx] & (1L<<bitIndex))!=0;
+  }
+
+  /**
+   * Returns the index of the first bit set to true that occurs on or after
+   * a given index. Returns -1 if no such bit exists.
+   */
+  public int nextSetBit(int fromIndex){
+    long word;
+    int  idx;
+
+    idx = Arrays.binarySearch(keys_, fromIndex>>>6);
+    if (idx>=0){
+      word = words_[idx] & (-1L<<fromIndex);
+      if (word!=0)
+        return (keys_[idx]<<6) + Long.numberOfTrailingZeros(word);
+      idx++;
+    }
+    else{
+      idx = -(idx+1);
+    }
+    if (idx>=keys_.length)
+      return -1;
+    return (keys_[idx]<<6) + Long.numberOfTrailingZeros(words_[idx]);
+  }
+
+  /**
+   * Returns the intersection of this set with another one.
+   */
+  public BCompressedBitSet and(BCompressedBitSet other){
+    int[]  keys;
+    long[] words;
+    long   w;
+    int    i = 0, j = 0, n = 0;
+
+    keys = new int[Math.min(keys_.length, other.keys_.length)];
+    words = new long[keys.length];
+    while(i<keys_.length && j<other.keys_.length){
+      if (keys_[i]<other.keys_[j]){
+        i++;
+      }
+      else if (keys_[i]>other.keys_[j]){
+        j++;
+      }
+      else{
+        w = words_[i] & other.words_[j];
+        if (w!=0){
+          keys[n] = keys_[i];
+          words[n++] = w;
+        }
+        i++;
+        j++;
+      }
+    }
+    return new BCompressedBitSet(keys, words, n);
+  }
+
+  /**
+   * Returns the union of this set with another one.
+   */
+  public BCompressedBitSet or(BCompressedBitSet other){
+    int[]  keys;
+    long[] words;
+    int    i = 0, j = 0, n = 0;
+
+    keys = new int[keys_.length + other.keys_.length];
+    words = new long[keys.length];
+    while(i<keys_.length || j<other.keys_.length){
+      if (j==other.keys_.length || (i<keys_.length && keys_[i]<other.keys_[j])){
+        keys[n] = keys_[i];
+        words[n++] = words_[i++];
+      }
+      else if (i==keys_.length || keys_[i]>other.keys_[j]){
+        keys[n] = other.keys_[j];
+        words[n++] = other.words_[j++];
+      }
+      else{
+        keys[n] = keys_[i];
+        words[n++] = words_[i++] | other.words_[j++];
+      }
+    }
+    return new BCompressedBitSet(keys, words, n);
+  }
+
+  /**
+   * Returns the bits of this set that are not set in another one.
+   */
+  public BCompressedBitSet andNot(BCompressedBitSet other){
+    int[]  keys;
+    long[] words;
+    long   w;
+    int    i, j = 0, n = 0;
+
+    keys = new int[keys_.length];
+    words = new long[keys.length];
+    for(i=0;i<keys_.length;i++){
+      while(j<other.keys_.length && other.keys_[j]<keys_[i]){
+        j++;
+      }
+      w = words_[i];
+      if (j<other.keys_.length && other.keys_[j]==keys_[i])
+        w &= ~other.words_[j];
+      if (w!=0){
+        keys[n] = keys_[i];
+        words[n++] = w;
+      }
+    }
+    return new BCompressedBitSet(keys, words, n);
+  }
+
+  /**
+   * Returns an uncompressed copy of this set.
+   */
+  public BitSet toBitSet(){
+    BitSet bits;
+    int    i;
+
+    bits = new BitSet();
+    for(i=nextSetBit(0);i>=0;i=nextSetBit(i+1)){
+      bits.set(i);
+    }
+    return bits;
+  }
+
+  @Override
+  public boolean equals(Object obj){
+    BCompressedBitSet other;
+
+    if (!(obj instanceof BCompressedBitSet))
+      return false;
+    other = (BCompressedBitSet) obj;
+    return Arrays.equals(keys_, other.keys_) && Arrays.equals(words_, other.words_);
+  }
+
+  @Override
+  public int hashCode(){
+    return Arrays.hashCode(keys_)*31+Arrays.hashCode(words_);
+  }
+}
@@ -0,0 +1,357 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
+import bzh.plealog.bioinfo.api.data.feature.Qualifier;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+
+/**
+ * This class collects statistics about a SROutput. It walks the SROutput once
+ * and creates a BAttributeSketch for each data accessor of a filterable model.
+ * Those sketches are then used to estimate the number of objects satisfying
+ * rules or filters without executing them.
+ * <br><br>
+ * This class implements BSelectivityEstimator, so it can be used by a 
+ * BRulePlanner to order rules given actual data, e.g. through
+ * BFilterImplem.setSelectivityEstimator().
+ * <br><br>
+ * Estimates of filter results assume that rules are independent. 
+ *
+ * @author Patrick G. Durand
+ */
+public class BDataStatistics implements BSelectivityEstimator {
+  private BOperatorAccessors                fModel_;
+  private HashMap<String, BAttributeSketch> sketches_;
+  private int[]                             hspsPerHit_;
+  private int                               nHits_;
+  private int                               nHsps_;
+  private int                               nHspsWithFeatures_;
+  private int                               nFeatures_;
+  private int                               nQualifiers_;
+
+  /** default size of attribute samples*/
+  public static final int DEFAULT_SAMPLE_SIZE = 512;
+
+  private static final String[] OBJ_TYPES = {BGDataModel.SRHIT_VERTEX_TYPE, 
+    BGDataModel.SRHSP_VERTEX_TYPE, BGDataModel.FEAT_VERTEX_TYPE, BGDataModel.QUALIFIER_VERTEX_TYPE};
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param bo the data to analyse
+   */
+  public BDataStatistics(BOperatorAccessors fModel, SROutput bo){
+    this(fModel, bo, DEFAULT_SAMPLE_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param bo the data to analyse
+   * @param sampleSize size of attribute samples
+   */
+  public BDataStatistics(BOperatorAccessors fModel, SROutput bo, int sampleSize){
+    fModel_ = fModel;
+    sketches_ = new HashMap<String, BAttributeSketch>();
+    hspsPerHit_ = new int[8];
+    collect(bo, sampleSize);
+  }
+
+  private static String getKey(String objType, String accessorName){
+    return objType+"."+accessorName;
+  }
+
+  /**
+   * Creates the sketches of the attributes of a type of object.
+   */
+  private BAttributeSketch[] createSketches(String objType, int sampleSize){
+    ArrayList<BAttributeSketch> sketches;
+    Enumeration<String>         names;
+    BAccessorEntry              entry;
+    BAttributeSketch            sketch;
+    String                      key;
+
+    sketches = new ArrayList<BAttributeSketch>();
+    names = fModel_.getAccessorVisibleNames();
+    while(names.hasMoreElements()){
+      entry = fModel_.getAccessorEntry(names.nextElement());
+      if (entry.getFunctionAccessor() || !entry.getObjectType().equals(objType))
+        continue;
+      key = getKey(objType, entry.getAccessorName());
+      if (sketches_.containsKey(key))
+        continue;
+      sketch = new BAttributeSketch(objType, entry.getAccessorName(), sampleSize);
+      sketches_.put(key, sketch);
+      sketches.add(sketch);
+    }
+    return sketches.toArray(new BAttributeSketch[0]);
+  }
+
+  private static void addValues(BAttributeSketch[] sketches, Object data){
+    int i;
+
+    for(i=0;i<sketches.length;i++){
+      sketches[i].add(BGUtils.getValue(data, sketches[i].getObjectType(), sketches[i].getAccessorName()));
+    }
+  }
+
+  /**
+   * Walks the SROutput and fills in the sketches.
+   */
+  private void collect(SROutput bo, int sampleSize){
+    BAttributeSketch[]     hitSketches, hspSketches, featSketches, qualSketches;
+    Enumeration<Feature>   feats;
+    Enumeration<Qualifier> quals;
+    SRIteration            bi;
+    SRHit                  hit;
+    SRHsp                  hsp;
+    FeatureTable           fTable;
+    Feature                feat;
+    int                    i, j, k, size, size2, size3;
+
+    hitSketches = createSketches(BGDataModel.SRHIT_VERTEX_TYPE, sampleSize);
+    hspSketches = createSketches(BGDataModel.SRHSP_VERTEX_TYPE, sampleSize);
+    featSketches = createSketches(BGDataModel.FEAT_VERTEX_TYPE, sampleSize);
+    qualSketches = createSketches(BGDataModel.QUALIFIER_VERTEX_TYPE, sampleSize);
+    if (bo==null)
+      return;
+    size = bo.countIteration();
+    for(i=0;i<size;i++){
+      bi = bo.getIteration(i);
+      size2 = bi.countHit();
+      for(j=0;j<size2;j++){
+        hit = bi.getHit(j);
+        addValues(hitSketches, hit);
+        size3 = hit.countHsp();
+        if (size3>=hspsPerHit_.length)
+          hspsPerHit_ = Arrays.copyOf(hspsPerHit_, size3+1);
+        hspsPerHit_[size3]++;
+        nHits_++;
+        for(k=0;k<size3;k++){
+          hsp = hit.getHsp(k);
+          addValues(hspSketches, hsp);
+          nHsps_++;
+          fTable = hsp.getFeatures();
+          if (fTable==null || fTable.features()==0)
+            continue;
+          nHspsWithFeatures_++;
+          feats = fTable.enumFeatures();
+          while(feats.hasMoreElements()){
+            feat = feats.nextElement();
+            addValues(featSketches, feat);
+            nFeatures_++;
+            quals = feat.enumQualifiers();
+            while(quals.hasMoreElements()){
+              addValues(qualSketches, quals.nextElement());
+              nQualifiers_++;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of objects of a given type.
+   *
+   * @param objType one of BGDataModel XXX_VERTEX_TYPE constants
+   */
+  public int getObjectCount(String objType){
+    if (objType.equals(BGDataModel.SRHIT_VERTEX_TYPE))
+      return nHits_;
+    else if (objType.equals(BGDataModel.SRHSP_VERTEX_TYPE))
+      return nHsps_;
+    else if (objType.equals(BGDataModel.FEAT_VERTEX_TYPE))
+      return nFeatures_;
+    else if (objType.equals(BGDataModel.QUALIFIER_VERTEX_TYPE))
+      return nQualifiers_;
+    return 0;
+  }
+
+  /**
+   * Returns the sketch of an attribute.
+   *
+   * @param accessorVisibleName the visible name of a data accessor, i.e.
+   * one of BDataAccessors ACC_XXX constants
+   *
+   * @return a sketch or null if not available
+   */
+  public BAttributeSketch getSketch(String accessorVisibleName){
+    BAccessorEntry entry;
+
+    entry = fModel_.getAccessorEntry(accessorVisibleName);
+    if (entry==null)
+      return null;
+    return sketches_.get(getKey(entry.getObjectType(), entry.getAccessorName()));
+  }
+
+  /**
+   * Implementation of BSelectivityEstimator interface.
+   */
+  @Override
+  public double estimate(BPredicate predicate){
+    BAttributeSketch sketch;
+
+    sketch = sketches_.get(getKey(predicate.getObjectType(), predicate.getAccessorName()));
+    if (sketch==null)
+      return -1d;
+    return sketch.getFraction(predicate);
+  }
+
+  /**
+   * Estimates the number of objects satisfying a rule. Objects are hits, 
+   * HSPs, features or qualifiers depending on the rule.
+   */
+  public int estimateObjects(BRule rule) throws BFilterException{
+    BPredicate predicate;
+    double     sel;
+
+    predicate = BRuleCompiler.compile(fModel_, rule);
+    sel = estimate(predicate);
+    if (sel<0d)
+      return 0;
+    return (int) Math.round(sel*getObjectCount(predicate.getObjectType()));
+  }
+
+  /**
+   * Returns, for hits, HSPs and features, the estimated fraction of objects
+   * satisfying the rules of a filter targeting that type. The rules of a 
+   * same type are combined using the filter logic; qualifier rules are
+   * combined with feature ones. The last value is the fraction of HSPs 
+   * having features when the filter targets features, -1 otherwise.
+   */
+  private double[] getLevelSelectivity(BFilter filter) throws BFilterException{
+    Iterator<BRule> rules;
+    BPredicate      predicate;
+    double[]        sel;
+    boolean[]       hasRules;
+    double          s;
+    int             i, level;
+    boolean         exclusive;
+
+    exclusive = filter.getExclusive();
+    sel = new double[OBJ_TYPES.length];
+    hasRules = new boolean[OBJ_TYPES.length];
+    //AND: product of selectivities; OR: complement of the product of complements
+    Arrays.fill(sel, 1d);
+    rules = filter.getRules();
+    while(rules.hasNext()){
+      predicate = BRuleCompiler.compile(fModel_, rules.next());
+      level = Arrays.asList(OBJ_TYPES).indexOf(predicate.getObjectType());
+      s = estimate(predicate);
+      if (s<0d)
+        s = predicate.getSelectivity();
+      sel[level] *= (exclusive ? s : 1d-s);
+      hasRules[level] = true;
+    }
+    for(i=0;i<sel.length;i++){
+      if (!exclusive)
+        sel[i] = hasRules[i] ? 1d-sel[i] : 0d;
+    }
+    if (hasRules[3]){
+      sel[2] = exclusive ? sel[2]*sel[3] : 1d-(1d-sel[2])*(1d-sel[3]);
+    }
+    if (hasRules[2] || hasRules[3])
+      sel[3] = (nHsps_==0 ? 0d : (double) nHspsWithFeatures_ / (double) nHsps_);
+    else
+      sel[3] = -1d;
+    return sel;
+  }
+
+  /**
+   * Returns the estimated probability for an HSP to satisfy a filter.
+   *
+   * @param hitMatch whether or not the hit of the HSP satisfies the hit rules
+   */
+  private double getHspProbability(double[] sel, boolean exclusive, boolean hitMatch){
+    double p;
+
+    if (exclusive){
+      if (!hitMatch)
+        return 0d;
+      p = sel[1];
+      if (sel[3]>=0d)
+        p *= sel[2]*sel[3];
+    }
+    else{
+      if (hitMatch)
+        p = 1d;
+      else
+        p = sel[1];
+      //an HSP without features is discarded when a filter targets features
+      if (sel[3]>=0d)
+        p = sel[3]*(1d-(1d-p)*(1d-sel[2]));
+    }
+    return p;
+  }
+
+  /**
+   * Estimates the number of hits satisfying a filter, i.e. hits having at
+   * least one HSP satisfying the filter.
+   */
+  public int estimateHits(BFilter filter) throws BFilterException{
+    double[] sel;
+    double   pHit, pHsp1, pHsp0, total = 0d;
+    int      n;
+
+    if (filter.size()==0)
+      return 0;
+    sel = getLevelSelectivity(filter);
+    pHit = sel[0];
+    pHsp1 = getHspProbability(sel, filter.getExclusive(), true);
+    pHsp0 = getHspProbability(sel, filter.getExclusive(), false);
+    for(n=1;n<hspsPerHit_.length;n++){
+      total += hspsPerHit_[n]*(pHit*(1d-Math.pow(1d-pHsp1, n)) + (1d-pHit)*(1d-Math.pow(1d-pHsp0, n)));
+    }
+    return (int) Math.round(total);
+  }
+
+  /**
+   * Estimates the number of HSPs satisfying a filter.
+   */
+  public int estimateHsps(BFilter filter) throws BFilterException{
+    double[] sel;
+    double   pHit;
+
+    if (filter.size()==0)
+      return 0;
+    sel = getLevelSelectivity(filter);
+    pHit = sel[0];
+    return (int) Math.round(nHsps_*(pHit*getHspProbability(sel, filter.getExclusive(), true) + 
+        (1d-pHit)*getHspProbability(sel, filter.getExclusive(), false)));
+  }
+}
@@ -0,0 +1,392 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
+import bzh.plealog.bioinfo.api.data.feature.Qualifier;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+
+/**
+ * This class implements a filter execution engine walking directly the
+ * SROutput objects tree: SROutput, SRIteration, SRHit, SRHsp, Feature and
+ * Qualifier. No hyper-graph is created, so no HGE query is executed: rules
+ * are compiled into predicates using BRuleCompiler.
+ * <br><br>
+ * This engine returns the same results as the HGE based one. An HSP satisfies
+ * a filter if its hit, itself and, when the filter has rules targeting
+ * features or qualifiers, at least one of its features (and one qualifier of
+ * that feature) satisfy the rules. As a consequence, when a filter targets
+ * features (resp. qualifiers), HSPs without features (resp. features without
+ * qualifiers) are always discarded, as it is the case with the HGE engine.
+ * <br><br>
+ * Contrary to HGE, rules combined with a logical AND are evaluated until one
+ * fails. So, rules applying on a same type of object are ordered by a
+ * BRulePlanner: cheap and selective rules are evaluated first.
+ *
+ * @author Patrick G. Durand
+ */
+public class BDirectEngine {
+  private BPredicate[] hitRules_;
+  private BPredicate[] hspRules_;
+  private BPredicate[] featRules_;
+  private BPredicate[] qualRules_;
+  private int[]         hitSlots_;
+  private int[]         hspSlots_;
+  private int[]         featSlots_;
+  private int[]         qualSlots_;
+  private boolean       exclusive_;
+  private boolean       walkFeatures_;
+  private boolean       walkQualifiers_;
+
+  private static final BPredicate[] EMPTY_RULES = new BPredicate[0];
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param rules the rules of a filter
+   * @param exclusive true if rules have to be combined using a logical AND,
+   * false for a logical OR
+   *
+   * @throws BFilterException if a rule cannot be handled by this engine
+   */
+  public BDirectEngine(BOperatorAccessors fModel, Iterator<BRule> rules, boolean exclusive) throws BFilterException{
+    this(fModel, rules, exclusive, null, BRulePlanner.DEFAULT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param rules the rules of a filter
+   * @param exclusive true if rules have to be combined using a logical AND,
+   * false for a logical OR
+   * @param planner used to order the rules applying on a same type of object
+   *
+   * @throws BFilterException if a rule cannot be handled by this engine
+   */
+  public BDirectEngine(BOperatorAccessors fModel, Iterator<BRule> rules, boolean exclusive, 
+      BRulePlanner planner) throws BFilterException{
+    this(fModel, rules, exclusive, null, planner);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param rules the rules of a filter
+   * @param exclusive true if rules have to be combined using a logical AND,
+   * false for a logical OR
+   * @param slots used to register the attributes needed by the rules. When
+   * not null, this engine can be evaluated using attribute values shared with
+   * other engines (see BAttributeValues).
+   * @param planner used to order the rules applying on a same type of object
+   *
+   * @throws BFilterException if a rule cannot be handled by this engine
+   */
+  BDirectEngine(BOperatorAccessors fModel, Iterator<BRule> rules, boolean exclusive, 
+      BAttributeSlots slots, BRulePlanner planner) throws BFilterException{
+    ArrayList<BPredicate> hit, hsp, feat, qual;
+    BPredicate            predicate;
+    String                objType;
+
+    hit = new ArrayList<BPredicate>();
+    hsp = new ArrayList<BPredicate>();
+    feat = new ArrayList<BPredicate>();
+    qual = new ArrayList<BPredicate>();
+    while(rules.hasNext()){
+      predicate = BRuleCompiler.compile(fModel, rules.next());
+      objType = predicate.getObjectType();
+      if (objType.equals(BGDataModel.SRHIT_VERTEX_TYPE)){
+        hit.add(predicate);
+      }
+      else if (objType.equals(BGDataModel.SRHSP_VERTEX_TYPE)){
+        hsp.add(predicate);
+      }
+      else if (objType.equals(BGDataModel.FEAT_VERTEX_TYPE)){
+        feat.add(predicate);
+      }
+      else if (objType.equals(BGDataModel.QUALIFIER_VERTEX_TYPE)){
+        qual.add(predicate);
+      }
+      else{
+        throw new BFilterException("Object type "+objType+" is not supported!");
+      }
+    }
+    hitRules_ = hit.toArray(EMPTY_RULES);
+    hspRules_ = hsp.toArray(EMPTY_RULES);
+    featRules_ = feat.toArray(EMPTY_RULES);
+    qualRules_ = qual.toArray(EMPTY_RULES);
+    planner.order(hitRules_, exclusive);
+    planner.order(hspRules_, exclusive);
+    planner.order(featRules_, exclusive);
+    planner.order(qualRules_, exclusive);
+    if (slots!=null){
+      hitSlots_ = getSlots(hitRules_, slots);
+      hspSlots_ = getSlots(hspRules_, slots);
+      featSlots_ = getSlots(featRules_, slots);
+      qualSlots_ = getSlots(qualRules_, slots);
+    }
+    exclusive_ = exclusive;
+    walkQualifiers_ = !qual.isEmpty();
+    walkFeatures_ = walkQualifiers_ || !feat.isEmpty();
+  }
+
+  private static int[] getSlots(BPredicate[] rules, BAttributeSlots slots){
+    int[] idx;
+    int   i;
+
+    idx = new int[rules.length];
+    for(i=0;i<rules.length;i++){
+      idx[i] = slots.getSlot(rules[i]);
+    }
+    return idx;
+  }
+
+  /**
+   * Evaluates a set of rules on an object given the state obtained so far
+   * with the rules of the upper levels of the SROutput objects tree. Returns
+   * one of BPredicate MATCH, NO_MATCH or ERROR constants.
+   * <br><br>
+   * Since HGE discards an object as soon as a rule cannot be evaluated, 
+   * an ERROR state cannot be discarded by a logical OR.
+   *
+   * @param values when not null, the attribute values of the object shared
+   * with other engines. Then, slots locate the value used by each rule.
+   */
+  private int eval(BPredicate[] rules, int[] slots, Object data, BAttributeValues values, int state){
+    int i, ruleState;
+
+    if (exclusive_){
+      if (state!=BPredicate.MATCH)
+        return BPredicate.NO_MATCH;
+      for(i=0;i<rules.length;i++){
+        ruleState = (values==null ? rules[i].eval(data) : rules[i].eval(values, slots[i]));
+        if (ruleState!=BPredicate.MATCH)
+          return BPredicate.NO_MATCH;
+      }
+      return BPredicate.MATCH;
+    }
+    else{
+      if (state==BPredicate.ERROR)
+        return BPredicate.ERROR;
+      for(i=0;i<rules.length;i++){
+        ruleState = (values==null ? rules[i].eval(data) : rules[i].eval(values, slots[i]));
+        if (ruleState==BPredicate.ERROR)
+          return BPredicate.ERROR;
+        if (ruleState==BPredicate.MATCH)
+          state = BPredicate.MATCH;
+      }
+      return state;
+    }
+  }
+
+  private boolean evalQualifiers(Feature feat, int state){
+    Enumeration<Qualifier> qualifiers;
+
+    qualifiers = feat.enumQualifiers();
+    while(qualifiers.hasMoreElements()){
+      if (eval(qualRules_, qualSlots_, qualifiers.nextElement(), null, state)==BPredicate.MATCH)
+        return true;
+    }
+    return false;
+  }
+
+  private boolean evalFeatures(SRHsp hsp, int state){
+    Enumeration<Feature> feats;
+    FeatureTable         fTable;
+    Feature              feat;
+    int                  fState;
+
+    fTable = hsp.getFeatures();
+    if (fTable==null)
+      return false;
+    feats = fTable.enumFeatures();
+    while(feats.hasMoreElements()){
+      feat = feats.nextElement();
+      fState = eval(featRules_, featSlots_, feat, null, state);
+      if (walkQualifiers_){
+        if (evalQualifiers(feat, fState))
+          return true;
+      }
+      else if (fState==BPredicate.MATCH){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Same as evalFeatures() using attribute values shared with other engines. 
+   */
+  private boolean evalFeatures(BFeatureValues values, int state){
+    int i, j, size, size2, fState;
+
+    size = values.countFeatures();
+    for(i=0;i<size;i++){
+      fState = eval(featRules_, featSlots_, null, values.getFeature(i), state);
+      if (walkQualifiers_){
+        size2 = values.countQualifiers(i);
+        for(j=0;j<size2;j++){
+          if (eval(qualRules_, qualSlots_, null, values.getQualifier(i, j), fState)==BPredicate.MATCH)
+            return true;
+        }
+      }
+      else if (fState==BPredicate.MATCH){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Figures out whether or not an HSP satisfies the rules.
+   */
+  private boolean evalHsp(SRHsp hsp, int hitState){
+    int state;
+
+    state = eval(hspRules_, hspSlots_, hsp, null, hitState);
+    if (state==BPredicate.ERROR || (exclusive_ && state!=BPredicate.MATCH))
+      return false;
+    if (walkFeatures_)
+      return evalFeatures(hsp, state);
+    return state==BPredicate.MATCH;
+  }
+
+  /**
+   * Returns the initial state of a hit given its attribute values shared with
+   * other engines. Can only be used if this engine has been created with
+   * attribute slots.
+   *
+   * @return one of BPredicate MATCH, NO_MATCH or ERROR constants. Returns
+   * ERROR if none of the HSPs of the hit can satisfy the rules.
+   */
+  int evalHit(BAttributeValues hitValues){
+    int state;
+
+    state = eval(hitRules_, hitSlots_, null, hitValues, 
+        exclusive_ ? BPredicate.MATCH : BPredicate.NO_MATCH);
+    if (exclusive_ && state!=BPredicate.MATCH)
+      return BPredicate.ERROR;
+    return state;
+  }
+
+  /**
+   * Figures out whether or not an HSP satisfies the rules given attribute values
+   * shared with other engines. Can only be used if this engine has been created
+   * with attribute slots.
+   *
+   * @param hspValues the attribute values of the HSP
+   * @param hitState the state returned by evalHit() 
+   * @param featValues the attribute values of the HSP features and of their
+   * qualifiers. Only used if this engine has rules targeting features or
+   * qualifiers. 
+   */
+  boolean evalHsp(BAttributeValues hspValues, int hitState, BFeatureValues featValues){
+    int state;
+
+    if (hitState==BPredicate.ERROR)
+      return false;
+    state = eval(hspRules_, hspSlots_, null, hspValues, hitState);
+    if (state==BPredicate.ERROR || (exclusive_ && state!=BPredicate.MATCH))
+      return false;
+    if (walkFeatures_)
+      return evalFeatures(featValues, state);
+    return state==BPredicate.MATCH;
+  }
+
+  /**
+   * Figures out whether or not an HSP satisfies the rules.
+   *
+   * @param hit the hit containing the HSP
+   * @param hsp the HSP
+   */
+  public boolean accept(SRHit hit, SRHsp hsp){
+    int hitState;
+
+    hitState = eval(hitRules_, hitSlots_, hit, null, 
+        exclusive_ ? BPredicate.MATCH : BPredicate.NO_MATCH);
+    if (hitState==BPredicate.ERROR || (exclusive_ && hitState!=BPredicate.MATCH))
+      return false;
+    return evalHsp(hsp, hitState);
+  }
+
+  /**
+   * Executes the filter on a SROutput.
+   *
+   * @param bo the data to filter
+   *
+   * @return a filtered SROutput or null if not result found.
+   */
+  public SROutput execute(SROutput bo){
+    BResultBuilder builder;
+
+    if (bo==null || bo.isEmpty())
+      return null;
+    builder = new BResultBuilder();
+    execute(bo, builder);
+    return builder.getResult();
+  }
+
+  /**
+   * Executes the filter on a SROutput.
+   *
+   * @param bo the data to filter
+   * @param collector the consumer of the HSPs satisfying the filter
+   */
+  public void execute(SROutput bo, BResultCollector collector){
+    SRIteration    bi;
+    SRHit          hit;
+    SRHsp          hsp;
+    int            hitState, initState;
+    int            i, j, k, size, size2, size3;
+
+    if (bo==null || bo.isEmpty())
+      return;
+    initState = exclusive_ ? BPredicate.MATCH : BPredicate.NO_MATCH;
+    size = bo.countIteration();
+    for(i=0;i<size;i++){
+      bi = bo.getIteration(i);
+      size2 = bi.countHit();
+      for(j=0;j<size2;j++){
+        hit = bi.getHit(j);
+        hitState = eval(hitRules_, hitSlots_, hit, null, initState);
+        if (hitState==BPredicate.ERROR || (exclusive_ && hitState!=BPredicate.MATCH))
+          continue;
+        size3 = hit.countHsp();
+        for(k=0;k<size3;k++){
+          hsp = hit.getHsp(k);
+          if (evalHsp(hsp, hitState)){
+            collector.add(bo, bi, hit, hsp);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class implements a predicate comparing a floating point value with
+ * one or two bounds. It is used for data such as evalue or bit score.
+ *
+ * @author Patrick G. Durand
+ */
+public class BDoublePredicate extends BNumberPredicate {
+  private double  bound_;
+  private double  bound2_;
+  private boolean doubleData_;
+
+  /**
+   * Constructor.
+   *
+   * @param doubleData true if the data accessor returns floating point values,
+   * false if it returns integer values
+   */
+  protected BDoublePredicate(String objType, String accessorName, int operator, 
+      double bound, double bound2, boolean doubleData){
+    super(objType, accessorName, operator);
+    bound_ = bound;
+    bound2_ = bound2;
+    doubleData_ = doubleData;
+  }
+
+  /**
+   * Returns the first bound of this predicate.
+   */
+  double getBound(){
+    return bound_;
+  }
+
+  /**
+   * Returns the second bound of this predicate. Only used by range operators.
+   */
+  double getBound2(){
+    return bound2_;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   */
+  public boolean test(double value){
+    return compare(operator_, value, bound_, bound2_);
+  }
+
+  @Override
+  public int test(Object value){
+    if (!(value instanceof Number))
+      return ERROR;
+    //HGE does not check equality between a long and a double
+    if (isEquality() && !(value instanceof Double))
+      return ERROR;
+    return state(test(((Number) value).doubleValue()));
+  }
+
+  @Override
+  public int eval(Object data){
+    double v;
+
+    //HGE does not check equality between a long and a double
+    if (!doubleData_ && isEquality())
+      return test(BGUtils.getValue(data, getObjectType(), getAccessorName()));
+    v = BGUtils.getDouble(data, getObjectType(), getAccessorName());
+    //a NaN may be an actual value: it is then compared as HGE does
+    if (Double.isNaN(v) && !BGUtils.hasDouble(data, getObjectType(), getAccessorName()))
+      return ERROR;
+    return state(test(v));
+  }
+
+  @Override
+  int eval(BAttributeValues values, int slot){
+    double v;
+
+    //HGE does not check equality between a long and a double
+    if (!doubleData_ && isEquality())
+      return test(values.getValue(slot));
+    v = values.getDouble(slot);
+    if (Double.isNaN(v) && !values.hasDouble(slot))
+      return ERROR;
+    return state(test(v));
+  }
+}
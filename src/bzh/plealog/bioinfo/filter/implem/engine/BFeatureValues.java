@@ -0,0 +1,138 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
+import bzh.plealog.bioinfo.api.data.feature.Qualifier;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+
+/**
+ * This class holds the attribute values of the features of an HSP and of
+ * their qualifiers. Features are only enumerated the first time a predicate
+ * needs them. Instances of BAttributeValues are reused from one HSP to the
+ * next. For internal use only.
+ *
+ * @author Patrick G. Durand
+ */
+class BFeatureValues {
+  private String[]                               featAccessors_;
+  private String[]                               qualAccessors_;
+  private ArrayList<BAttributeValues>            feats_;
+  private ArrayList<ArrayList<BAttributeValues>> quals_;
+  private int[]                                  nQuals_;
+  private int                                    nFeats_;
+  private SRHsp                                  hsp_;
+  private boolean                                loaded_;
+
+  /**
+   * Constructor.
+   *
+   * @param featAccessors the names of feature attributes
+   * @param qualAccessors the names of qualifier attributes. If empty, qualifiers
+   * are not enumerated.
+   */
+  public BFeatureValues(String[] featAccessors, String[] qualAccessors){
+    featAccessors_ = featAccessors;
+    qualAccessors_ = qualAccessors;
+    feats_ = new ArrayList<BAttributeValues>();
+    quals_ = new ArrayList<ArrayList<BAttributeValues>>();
+    nQuals_ = new int[8];
+  }
+
+  /**
+   * Sets the HSP whose features are considered.
+   */
+  public void setHsp(SRHsp hsp){
+    hsp_ = hsp;
+    loaded_ = false;
+  }
+
+  /**
+   * Returns the number of features of the HSP.
+   */
+  public int countFeatures(){
+    if (!loaded_)
+      load();
+    return nFeats_;
+  }
+
+  /**
+   * Returns the attribute values of a feature.
+   */
+  public BAttributeValues getFeature(int i){
+    return feats_.get(i);
+  }
+
+  /**
+   * Returns the number of qualifiers of a feature.
+   */
+  public int countQualifiers(int i){
+    return nQuals_[i];
+  }
+
+  /**
+   * Returns the attribute values of a qualifier.
+   */
+  public BAttributeValues getQualifier(int i, int j){
+    return quals_.get(i).get(j);
+  }
+
+  private void load(){
+    Enumeration<Feature>        fEnum;
+    Enumeration<Qualifier>      qEnum;
+    ArrayList<BAttributeValues> quals;
+    FeatureTable                fTable;
+    Feature                     feat;
+    int                         nQuals;
+
+    loaded_ = true;
+    nFeats_ = 0;
+    fTable = hsp_.getFeatures();
+    if (fTable==null)
+      return;
+    fEnum = fTable.enumFeatures();
+    while(fEnum.hasMoreElements()){
+      if (nFeats_==feats_.size()){
+        feats_.add(new BAttributeValues(BGDataModel.FEAT_VERTEX_TYPE, featAccessors_));
+        quals_.add(new ArrayList<BAttributeValues>());
+      }
+      if (nFeats_==nQuals_.length)
+        nQuals_ = Arrays.copyOf(nQuals_, 2*nFeats_);
+      feat = fEnum.nextElement();
+      feats_.get(nFeats_).setData(feat);
+      nQuals = 0;
+      if (qualAccessors_.length!=0){
+        quals = quals_.get(nFeats_);
+        qEnum = feat.enumQualifiers();
+        while(qEnum.hasMoreElements()){
+          if (nQuals==quals.size())
+            quals.add(new BAttributeValues(BGDataModel.QUALIFIER_VERTEX_TYPE, qualAccessors_));
+          quals.get(nQuals).setData(qEnum.nextElement());
+          nQuals++;
+        }
+      }
+      nQuals_[nFeats_] = nQuals;
+      nFeats_++;
+    }
+  }
+}
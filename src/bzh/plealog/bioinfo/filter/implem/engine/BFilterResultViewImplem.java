@@ -0,0 +1,202 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BFilterResultView;
+
+/**
+ * This is a default implementation of interface BFilterResultView. It only
+ * stores references to the objects of the source SROutput satisfying a 
+ * filter. Once all objects have been added, sort() has to be called to 
+ * order them the same way BResultBuilder does.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterResultViewImplem implements BFilterResultView, BResultCollector {
+  private SROutput                        bo_;
+  private ArrayList<BViewIteration>       iterations_;
+  private IdentityHashMap<Object, Object> ht_;
+  private int                             totHits_;
+  private int                             totHsps_;
+
+  private static final BIterationSorter ITER_COMPARATOR = new BIterationSorter();
+  private static final BHitSorter       HIT_COMPARATOR = new BHitSorter();
+  private static final BHspSorter       HSP_COMPARATOR = new BHspSorter();
+
+  /**
+   * Constructor.
+   *
+   * @param bo the SROutput this view relies on
+   */
+  public BFilterResultViewImplem(SROutput bo){
+    bo_ = bo;
+    iterations_ = new ArrayList<BViewIteration>();
+    ht_ = new IdentityHashMap<Object, Object>();
+  }
+
+  @Override
+  public void add(SROutput boSrc, SRIteration biSrc, SRHit bhSrc, SRHsp bsSrc){
+    BViewIteration vi;
+    BViewHit       vh;
+
+    if (ht_.containsKey(bsSrc))
+      return;
+    ht_.put(bsSrc, bsSrc);
+    vi = (BViewIteration) ht_.get(biSrc);
+    if (vi==null){
+      vi = new BViewIteration(biSrc);
+      iterations_.add(vi);
+      ht_.put(biSrc, vi);
+    }
+    vh = (BViewHit) ht_.get(bhSrc);
+    if (vh==null){
+      vh = new BViewHit(bhSrc);
+      vi.hits_.add(vh);
+      ht_.put(bhSrc, vh);
+      totHits_++;
+    }
+    vh.hsps_.add(bsSrc);
+    totHsps_++;
+  }
+
+  /**
+   * Sorts iterations, hits and HSPs using their original numbering. 
+   */
+  public void sort(){
+    Collections.sort(iterations_, ITER_COMPARATOR);
+    for(BViewIteration vi : iterations_){
+      Collections.sort(vi.hits_, HIT_COMPARATOR);
+      for(BViewHit vh : vi.hits_){
+        Collections.sort(vh.hsps_, HSP_COMPARATOR);
+      }
+    }
+  }
+
+  /**
+   * Figures out whether this view contains some objects. 
+   */
+  public boolean isEmpty(){
+    return iterations_.isEmpty();
+  }
+
+  @Override
+  public SROutput getSource(){
+    return bo_;
+  }
+
+  @Override
+  public int countIteration(){
+    return iterations_.size();
+  }
+
+  @Override
+  public SRIteration getIteration(int iterIdx){
+    return iterations_.get(iterIdx).bi_;
+  }
+
+  @Override
+  public int countHit(int iterIdx){
+    return iterations_.get(iterIdx).hits_.size();
+  }
+
+  @Override
+  public SRHit getHit(int iterIdx, int hitIdx){
+    return iterations_.get(iterIdx).hits_.get(hitIdx).hit_;
+  }
+
+  @Override
+  public int countHsp(int iterIdx, int hitIdx){
+    return iterations_.get(iterIdx).hits_.get(hitIdx).hsps_.size();
+  }
+
+  @Override
+  public SRHsp getHsp(int iterIdx, int hitIdx, int hspIdx){
+    return iterations_.get(iterIdx).hits_.get(hitIdx).hsps_.get(hspIdx);
+  }
+
+  @Override
+  public int getTotalHits(){
+    return totHits_;
+  }
+
+  @Override
+  public int getTotalHsps(){
+    return totHsps_;
+  }
+
+  @Override
+  public SROutput materialize(){
+    BResultBuilder builder;
+
+    builder = new BResultBuilder();
+    for(BViewIteration vi : iterations_){
+      for(BViewHit vh : vi.hits_){
+        for(SRHsp hsp : vh.hsps_){
+          builder.add(bo_, vi.bi_, vh.hit_, hsp);
+        }
+      }
+    }
+    return builder.getResult();
+  }
+
+  private static class BViewIteration {
+    private SRIteration         bi_;
+    private ArrayList<BViewHit> hits_;
+
+    public BViewIteration(SRIteration bi){
+      bi_ = bi;
+      hits_ = new ArrayList<BViewHit>();
+    }
+  }
+
+  private static class BViewHit {
+    private SRHit            hit_;
+    private ArrayList<SRHsp> hsps_;
+
+    public BViewHit(SRHit hit){
+      hit_ = hit;
+      hsps_ = new ArrayList<SRHsp>();
+    }
+  }
+
+  private static class BIterationSorter implements Comparator<BViewIteration>{
+    public int compare(BViewIteration o1,BViewIteration o2){
+      return (o1.bi_.getIterationIterNum()-o2.bi_.getIterationIterNum());
+    }
+  }
+
+  private static class BHitSorter implements Comparator<BViewHit>{
+    public int compare(BViewHit o1,BViewHit o2){
+      return (o1.hit_.getHitNum()-o2.hit_.getHitNum());
+    }
+  }
+
+  private static class BHspSorter implements Comparator<SRHsp>{
+    public int compare(SRHsp o1,SRHsp o2){
+      return (o1.getHspNum()-o2.getHspNum());
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+
+/**
+ * This class executes a set of filters on a SROutput during a single walk
+ * of its objects tree. Each attribute referenced by the filters is retrieved
+ * at most once per object, when a rule needs it for the first time, then the
+ * rules of all filters are evaluated using that value. So, attributes of an 
+ * object rejected by all filters are not retrieved. Results are the same as 
+ * the ones obtained by executing each filter on its own.
+ * <br><br>
+ * Filters are compiled using the direct execution engine whatever their
+ * engine type. They are compiled again when rules are added to, removed from 
+ * or modified in a filter of this set.
+ * <br><br>
+ * Optionally, filters only made of numerical rules on hits or HSPs can be 
+ * executed over a BColumnarStore instead (see setColumnar()): the columns 
+ * they need are read once, then shared by these filters.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterSet {
+  private BOperatorAccessors  fModel_;
+  private ArrayList<BFilter>  filters_;
+  private BDirectEngine[]     engines_;
+  //filters executed over a columnar store
+  private boolean[]           columnFilters_;
+  private boolean             columnar_;
+  private String[]            hitAccessors_;
+  private String[]            hspAccessors_;
+  private String[]            featAccessors_;
+  private String[]            qualAccessors_;
+  //rules of the filters when this set was compiled
+  private ArrayList<Object[]> states_;
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model used to figure out data accessors
+   */
+  public BFilterSet(BOperatorAccessors fModel){
+    fModel_ = fModel;
+    filters_ = new ArrayList<BFilter>();
+  }
+
+  /**
+   * Adds a filter to this set.
+   */
+  public void add(BFilter filter){
+    filters_.add(filter);
+    engines_ = null;
+  }
+
+  /**
+   * Returns the number of filters contained in this set.
+   */
+  public int size(){
+    return filters_.size();
+  }
+
+  /**
+   * Returns a filter.
+   */
+  public BFilter getFilter(int idx){
+    return filters_.get(idx);
+  }
+
+  /**
+   * Sets whether filters only made of numerical rules on hits or HSPs are 
+   * executed over a BColumnarStore. Default is false.
+   */
+  public void setColumnar(boolean columnar){
+    columnar_ = columnar;
+    engines_ = null;
+  }
+
+  /**
+   * Figures out whether filters only made of numerical rules on hits or HSPs
+   * are executed over a BColumnarStore.
+   */
+  public boolean isColumnar(){
+    return columnar_;
+  }
+
+  /**
+   * Compiles the filters contained in this set. It is not required to call
+   * this method before execute(): filters are compiled when needed.
+   */
+  public void compile() throws BFilterException{
+    BAttributeSlots slots;
+    BDirectEngine[] engines;
+    BFilter         filter;
+    boolean[]       columnFilters;
+    int             i;
+
+    slots = new BAttributeSlots();
+    engines = new BDirectEngine[filters_.size()];
+    columnFilters = new boolean[filters_.size()];
+    for(i=0;i<engines.length;i++){
+      filter = filters_.get(i);
+      //as BFilter, an empty filter does not return any result
+      if (filter.size()==0)
+        continue;
+      if (columnar_ && BColumnarStore.canExecute(fModel_, filter)){
+        columnFilters[i] = true;
+        continue;
+      }
+      engines[i] = new BDirectEngine(fModel_, filter.getRules(), filter.getExclusive(), slots, 
+          BRulePlanner.DEFAULT);
+    }
+    columnFilters_ = columnFilters;
+    states_ = new ArrayList<Object[]>();
+    for(i=0;i<engines.length;i++){
+      states_.add(getState(filters_.get(i)));
+    }
+    hitAccessors_ = slots.getAccessors(BGDataModel.SRHIT_VERTEX_TYPE);
+    hspAccessors_ = slots.getAccessors(BGDataModel.SRHSP_VERTEX_TYPE);
+    featAccessors_ = slots.getAccessors(BGDataModel.FEAT_VERTEX_TYPE);
+    qualAccessors_ = slots.getAccessors(BGDataModel.QUALIFIER_VERTEX_TYPE);
+    engines_ = engines;
+  }
+
+  /**
+   * Returns the rules of a filter and their content, as well as the type of
+   * the filter. It is used to figure out whether a filter has been modified.
+   */
+  private static Object[] getState(BFilter filter){
+    ArrayList<Object> state;
+    Iterator<BRule>   rules;
+    BRule             rule;
+
+    state = new ArrayList<Object>();
+    state.add(filter.getExclusive());
+    rules = filter.getRules();
+    while(rules.hasNext()){
+      rule = rules.next();
+      state.add(rule);
+      state.add(rule.getAccessor());
+      state.add(rule.getOperator());
+      state.add(rule.getValue());
+    }
+    return state.toArray();
+  }
+
+  /**
+   * Figures out whether a filter has been modified since this set was compiled.
+   * Values of rules are compared using their identity.
+   */
+  private boolean isModified(){
+    Object[] prev, cur;
+    int      i, j;
+
+    if (states_.size()!=filters_.size())
+      return true;
+    for(i=0;i<filters_.size();i++){
+      prev = states_.get(i);
+      cur = getState(filters_.get(i));
+      if (prev.length!=cur.length)
+        return true;
+      for(j=0;j<cur.length;j++){
+        //names and types are compared using their content
+        if (prev[j]!=cur[j] && 
+            !((cur[j] instanceof String || cur[j] instanceof Boolean) && cur[j].equals(prev[j])))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Executes the filters on a SROutput.
+   *
+   * @param bo the data to filter
+   *
+   * @return one filtered SROutput per filter, in the order filters have been
+   * added to this set. A null value means that a filter has not found any
+   * result.
+   */
+  public SROutput[] execute(SROutput bo) throws BFilterException{
+    BResultBuilder[] builders;
+    BDirectEngine[]  engines;
+    BColumnarStore   store = null;
+    SROutput[]       results;
+    SRIteration      bi;
+    SRHit            hit;
+    SRHsp            hsp;
+    BAttributeValues hitValues, hspValues;
+    BFeatureValues   featValues;
+    int[]            hitStates;
+    boolean          keepHit;
+    int              i, j, k, f, size, size2, size3;
+
+    if (engines_==null || isModified())
+      compile();
+    engines = engines_;
+    results = new SROutput[engines.length];
+    if (bo==null || bo.isEmpty())
+      return results;
+    for(f=0;f<engines.length;f++){
+      if (!columnFilters_[f])
+        continue;
+      if (store==null)
+        store = new BColumnarStore(fModel_, bo);
+      results[f] = store.execute(filters_.get(f)).materialize();
+    }
+    hitValues = new BAttributeValues(BGDataModel.SRHIT_VERTEX_TYPE, hitAccessors_);
+    hspValues = new BAttributeValues(BGDataModel.SRHSP_VERTEX_TYPE, hspAccessors_);
+    featValues = new BFeatureValues(featAccessors_, qualAccessors_);
+    builders = new BResultBuilder[engines.length];
+    for(f=0;f<engines.length;f++){
+      if (engines[f]!=null)
+        builders[f] = new BResultBuilder();
+    }
+    hitStates = new int[engines.length];
+    size = bo.countIteration();
+    for(i=0;i<size;i++){
+      bi = bo.getIteration(i);
+      size2 = bi.countHit();
+      for(j=0;j<size2;j++){
+        hit = bi.getHit(j);
+        hitValues.setData(hit);
+        keepHit = false;
+        for(f=0;f<engines.length;f++){
+          hitStates[f] = engines[f]!=null ? engines[f].evalHit(hitValues) : BPredicate.ERROR;
+          keepHit |= hitStates[f]!=BPredicate.ERROR;
+        }
+        if (!keepHit)
+          continue;
+        size3 = hit.countHsp();
+        for(k=0;k<size3;k++){
+          hsp = hit.getHsp(k);
+          hspValues.setData(hsp);
+          featValues.setHsp(hsp);
+          for(f=0;f<engines.length;f++){
+            if (engines[f]!=null && engines[f].evalHsp(hspValues, hitStates[f], featValues))
+              builders[f].add(bo, bi, hit, hsp);
+          }
+        }
+      }
+    }
+    for(f=0;f<engines.length;f++){
+      if (builders[f]!=null)
+        results[f] = builders[f].getResult();
+    }
+    return results;
+  }
+}
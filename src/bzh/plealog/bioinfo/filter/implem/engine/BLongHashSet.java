@@ -0,0 +1,150 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.Arrays;
+
+/**
+ * This class implements an immutable set of integers. Values are stored
+ * in an open-addressing hash table of primitives, so a lookup neither
+ * boxes any value nor follows any reference.
+ * <br><br>
+ * A Bloom filter can be put in front of large sets: most lookups of values
+ * absent from the set then do not reach the table.
+ *
+ * @author Patrick G. Durand
+ */
+public class BLongHashSet {
+  private long[]       table_;
+  private int          mask_;
+  private int          size_;
+  private boolean      hasFreeKey_;
+  private String       id_;
+  private BBloomFilter bloom_;
+
+  //value used to mark an empty slot of the table
+  private static final long FREE_KEY = Long.MIN_VALUE;
+
+  /**
+   * Constructor.
+   *
+   * @param values the values of the set. Duplicates are allowed.
+   */
+  public BLongHashSet(long[] values){
+    int i, capacity;
+
+    capacity = BStringHashSet.getCapacity(values.length);
+    table_ = new long[capacity];
+    mask_ = capacity-1;
+    Arrays.fill(table_, FREE_KEY);
+    for(i=0;i<values.length;i++){
+      add(values[i]);
+    }
+  }
+
+  private void add(long value){
+    int idx;
+
+    if (value==FREE_KEY){
+      if (!hasFreeKey_){
+        hasFreeKey_ = true;
+        size_++;
+      }
+      return;
+    }
+    idx = hash(value) & mask_;
+    while(table_[idx]!=FREE_KEY){
+      if (table_[idx]==value)
+        return;
+      idx = (idx+1) & mask_;
+    }
+    table_[idx] = value;
+    size_++;
+  }
+
+  private static int hash(long value){
+    value ^= (value >>> 33);
+    value *= 0xff51afd7ed558ccdL;
+    value ^= (value >>> 33);
+    return (int) value;
+  }
+
+  /**
+   * Figures out whether or not this set contains a value.
+   */
+  public boolean contains(long value){
+    int  idx;
+    long cur;
+
+    if (bloom_!=null && !bloom_.mightContain(BBloomFilter.hash(value)))
+      return false;
+    if (value==FREE_KEY)
+      return hasFreeKey_;
+    idx = hash(value) & mask_;
+    while((cur=table_[idx])!=FREE_KEY){
+      if (cur==value)
+        return true;
+      idx = (idx+1) & mask_;
+    }
+    return false;
+  }
+
+  /**
+   * Puts a Bloom filter in front of this set.
+   *
+   * @param fpp rate of false positive answers of the Bloom filter
+   */
+  protected void createBloomFilter(double fpp){
+    BBloomFilter bloom;
+    int          i;
+
+    bloom = new BBloomFilter(size_, fpp);
+    for(i=0;i<table_.length;i++){
+      if (table_[i]!=FREE_KEY)
+        bloom.add(BBloomFilter.hash(table_[i]));
+    }
+    if (hasFreeKey_)
+      bloom.add(BBloomFilter.hash(FREE_KEY));
+    bloom_ = bloom;
+  }
+
+  /**
+   * Figures out whether a Bloom filter is used in front of this set.
+   */
+  public boolean hasBloomFilter(){
+    return bloom_!=null;
+  }
+
+  /**
+   * Returns the number of values contained in this set.
+   */
+  public int size(){
+    return size_;
+  }
+
+  /**
+   * Returns the identifier of this set within the BValueSetRegistry. Returns
+   * null if this set is not registered.
+   */
+  public String getId(){
+    return id_;
+  }
+
+  protected void setId(String id){
+    id_ = id;
+  }
+}
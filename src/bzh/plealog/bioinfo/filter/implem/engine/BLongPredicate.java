@@ -0,0 +1,106 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class implements a predicate comparing an integer value with
+ * one or two bounds. It is used for data such as alignment length or
+ * sequence coordinates.
+ *
+ * @author Patrick G. Durand
+ */
+public class BLongPredicate extends BNumberPredicate {
+  private long bound_;
+  private long bound2_;
+
+  protected BLongPredicate(String objType, String accessorName, int operator, 
+      long bound, long bound2){
+    super(objType, accessorName, operator);
+    bound_ = bound;
+    bound2_ = bound2;
+  }
+
+  /**
+   * Returns the first bound of this predicate.
+   */
+  long getBound(){
+    return bound_;
+  }
+
+  /**
+   * Returns the second bound of this predicate. Only used by range operators.
+   */
+  long getBound2(){
+    return bound2_;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   */
+  public boolean test(long value){
+    switch(operator_){
+      case OP_EQ:
+        return value==bound_;
+      case OP_NE:
+        return value!=bound_;
+      case OP_LT:
+        return value<bound_;
+      case OP_GT:
+        return value>bound_;
+      case OP_LE:
+        return value<=bound_;
+      case OP_GE:
+        return value>=bound_;
+      case OP_IN_RANGE_INCL:
+        return value>=bound_ && value<=bound2_;
+      case OP_IN_RANGE_EXCL:
+        return value>bound_ && value<bound2_;
+    }
+    return false;
+  }
+
+  @Override
+  public int test(Object value){
+    if (value instanceof Long)
+      return state(test(((Long) value).longValue()));
+    if (!(value instanceof Number) || isEquality())
+      return ERROR;
+    return state(compare(operator_, ((Number) value).doubleValue(), bound_, bound2_));
+  }
+
+  @Override
+  public int eval(Object data){
+    long v;
+
+    v = BGUtils.getLong(data, getObjectType(), getAccessorName());
+    if (v==BGUtils.MISSING_LONG && !BGUtils.hasLong(data, getObjectType(), getAccessorName()))
+      return ERROR;
+    return state(test(v));
+  }
+
+  @Override
+  int eval(BAttributeValues values, int slot){
+    long v;
+
+    v = values.getLong(slot);
+    if (v==BGUtils.MISSING_LONG && !values.hasLong(slot))
+      return ERROR;
+    return state(test(v));
+  }
+}
@@ -0,0 +1,82 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class implements a predicate checking whether or not an integer is
+ * contained in a set of values. Values are stored in a BLongHashSet, so a
+ * lookup does not box any value.
+ *
+ * @author Patrick G. Durand
+ */
+public class BLongSetPredicate extends BPredicate {
+  private BLongHashSet values_;
+  private boolean      negate_;
+
+  protected BLongSetPredicate(String objType, String accessorName, BLongHashSet values, 
+      boolean negate){
+    super(objType, accessorName);
+    values_ = values;
+    negate_ = negate;
+  }
+
+  @Override
+  public double getCost(){
+    return 2d;
+  }
+
+  @Override
+  public double getSelectivity(){
+    return negate_ ? 0.9d : 0.1d;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   */
+  public boolean test(long value){
+    return values_.contains(value) != negate_;
+  }
+
+  @Override
+  public int test(Object value){
+    if (!(value instanceof Long))
+      return ERROR;
+    return state(test(((Long) value).longValue()));
+  }
+
+  @Override
+  public int eval(Object data){
+    long v;
+
+    v = BGUtils.getLong(data, getObjectType(), getAccessorName());
+    if (v==BGUtils.MISSING_LONG && !BGUtils.hasLong(data, getObjectType(), getAccessorName()))
+      return ERROR;
+    return state(test(v));
+  }
+
+  @Override
+  int eval(BAttributeValues values, int slot){
+    long v;
+
+    v = values.getLong(slot);
+    if (v==BGUtils.MISSING_LONG && !values.hasLong(slot))
+      return ERROR;
+    return state(test(v));
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+/**
+ * This is the base class of predicates comparing numbers.
+ *
+ * @author Patrick G. Durand
+ */
+public abstract class BNumberPredicate extends BPredicate {
+  protected int     operator_;
+
+  protected BNumberPredicate(String objType, String accessorName, int operator){
+    super(objType, accessorName);
+    operator_ = operator;
+  }
+
+  /**
+   * Returns the operator of this predicate, one of the BPredicate.OP_XXX values.
+   */
+  int getOperator(){
+    return operator_;
+  }
+
+  /**
+   * Figures out whether this predicate relies on an equality operator.
+   */
+  protected boolean isEquality(){
+    return operator_==OP_EQ || operator_==OP_NE;
+  }
+
+  @Override
+  public double getSelectivity(){
+    switch(operator_){
+      case OP_EQ:
+        return 0.1d;
+      case OP_NE:
+        return 0.9d;
+      case OP_IN_RANGE_INCL:
+      case OP_IN_RANGE_EXCL:
+        return 0.3d;
+    }
+    return 0.5d;
+  }
+
+  /**
+   * Evaluates this predicate using a floating point comparison, as HGE does for
+   * relational operators.
+   */
+  protected static boolean compare(int operator, double v, double bound, double bound2){
+    switch(operator){
+      case OP_EQ:
+        return v==bound;
+      case OP_NE:
+        return v!=bound;
+      case OP_LT:
+        return v<bound;
+      case OP_GT:
+        return v>bound;
+      case OP_LE:
+        return v<=bound;
+      case OP_GE:
+        return v>=bound;
+      case OP_IN_RANGE_INCL:
+        return v>=bound && v<=bound2;
+      case OP_IN_RANGE_EXCL:
+        return v>bound && v<bound2;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,149 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class is a cache of compiled regular expressions. Rules using the
+ * same regular expression, whatever the filter they belong to, share a
+ * single compiled Pattern.
+ * <br><br>
+ * The cache has a limited size: least recently used patterns are discarded
+ * first. It is thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class BPatternCache {
+  private LinkedHashMap<String, Pattern> patterns_;
+  private int                            maxSize_;
+
+  public static final int DEFAULT_SIZE = 256;
+
+  private static final String        META_CHARS = "\\^$.|?*+()[]{}";
+  private static final String        IGNORE_CASE = "(?i)";
+  private static final BPatternCache INSTANCE = new BPatternCache(DEFAULT_SIZE);
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize maximum number of patterns kept in this cache
+   */
+  public BPatternCache(int maxSize){
+    maxSize_ = maxSize;
+    patterns_ = new LinkedHashMap<String, Pattern>(16, 0.75f, true){
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest){
+        return size()>maxSize_;
+      }
+    };
+  }
+
+  /**
+   * Returns the cache shared by all rules.
+   */
+  public static BPatternCache getInstance(){
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the maximum number of patterns kept in this cache.
+   */
+  public synchronized void setMaxSize(int maxSize){
+    String key;
+
+    maxSize_ = maxSize;
+    while(patterns_.size()>maxSize_){
+      key = patterns_.keySet().iterator().next();
+      patterns_.remove(key);
+    }
+  }
+
+  /**
+   * Returns the maximum number of patterns kept in this cache.
+   */
+  public synchronized int getMaxSize(){
+    return maxSize_;
+  }
+
+  /**
+   * Returns the number of patterns contained in this cache.
+   */
+  public synchronized int size(){
+    return patterns_.size();
+  }
+
+  /**
+   * Discards all patterns contained in this cache.
+   */
+  public synchronized void clear(){
+    patterns_.clear();
+  }
+
+  /**
+   * Returns the compiled form of a regular expression. The expression is
+   * compiled if it is not already available in this cache.
+   *
+   * @throws PatternSyntaxException if the expression is not valid
+   */
+  public synchronized Pattern getPattern(String regex){
+    Pattern pattern;
+
+    pattern = patterns_.get(regex);
+    if (pattern==null){
+      pattern = Pattern.compile(regex);
+      patterns_.put(regex, pattern);
+    }
+    return pattern;
+  }
+
+  /**
+   * Figures out whether a regular expression only looks for a plain word.
+   * Such an expression contains no meta characters, except an optional
+   * leading (?i) flag and an optional group enclosing the whole word.
+   *
+   * @return the word to look for or null if the expression is not a plain
+   * word
+   */
+  public static String getLiteral(String regex){
+    String str;
+    int    i, size;
+
+    str = isIgnoreCase(regex) ? regex.substring(IGNORE_CASE.length()) : regex;
+    if (str.length()>1 && str.charAt(0)=='(' && str.charAt(str.length()-1)==')'){
+      str = str.substring(1, str.length()-1);
+    }
+    size = str.length();
+    for(i=0;i<size;i++){
+      if (META_CHARS.indexOf(str.charAt(i))!=-1)
+        return null;
+    }
+    return str;
+  }
+
+  /**
+   * Figures out whether a regular expression starts with the (?i) flag.
+   */
+  public static boolean isIgnoreCase(String regex){
+    return regex.startsWith(IGNORE_CASE);
+  }
+}
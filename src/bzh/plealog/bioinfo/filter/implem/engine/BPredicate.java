@@ -0,0 +1,139 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class defines a compiled form of a BRule. A predicate is created by
+ * BRuleCompiler and it is evaluated directly on Rich Search Result objects,
+ * so no HQL query has to be formatted, parsed and interpreted. Predicates are
+ * immutable, so they can be shared among threads.
+ * <br><br>
+ * Predicates reproduce the HGE semantic: a missing string value is replaced
+ * by a default one while a rule cannot be evaluated on a missing numerical
+ * value. In the latter case, an ERROR state is reported.
+ *
+ * @author Patrick G. Durand
+ */
+public abstract class BPredicate {
+  /** the object satisfies the predicate */
+  public static final int MATCH = 1;
+  /** the object does not satisfy the predicate */
+  public static final int NO_MATCH = 0;
+  /** the predicate cannot be evaluated on the object */
+  public static final int ERROR = -1;
+
+  //operator codes
+  protected static final int OP_EQ = 0;
+  protected static final int OP_NE = 1;
+  protected static final int OP_LT = 2;
+  protected static final int OP_GT = 3;
+  protected static final int OP_LE = 4;
+  protected static final int OP_GE = 5;
+  protected static final int OP_IN_RANGE_INCL = 6;
+  protected static final int OP_IN_RANGE_EXCL = 7;
+
+  /** value used by HGE in place of a missing string value */
+  protected static final String UNKNOWN_VALUE = "?value?";
+
+  private String objType_;
+  private String accessorName_;
+
+  protected BPredicate(String objType, String accessorName){
+    objType_ = objType;
+    accessorName_ = accessorName;
+  }
+
+  /**
+   * Returns the type of object this predicate applies on. One of BGDataModel
+   * XXX_VERTEX_TYPE constants.
+   */
+  public String getObjectType(){
+    return objType_;
+  }
+
+  /**
+   * Returns the name of the data accessor used to retrieve the value to test.
+   */
+  public String getAccessorName(){
+    return accessorName_;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   *
+   * @param value the value to test. Null means a missing value.
+   *
+   * @return one of MATCH, NO_MATCH or ERROR.
+   */
+  public abstract int test(Object value);
+
+  /**
+   * Evaluates this predicate on an object.
+   *
+   * @param data one of SRHit, SRHsp, Feature or Qualifier
+   *
+   * @return one of MATCH, NO_MATCH or ERROR.
+   */
+  public int eval(Object data){
+    return test(BGUtils.getValue(data, objType_, accessorName_));
+  }
+
+  /**
+   * Evaluates this predicate on an object whose attribute values are shared
+   * with other predicates.
+   *
+   * @param values the attribute values of the object
+   * @param slot the slot of the attribute used by this predicate
+   *
+   * @return one of MATCH, NO_MATCH or ERROR.
+   */
+  int eval(BAttributeValues values, int slot){
+    return test(values.getValue(slot));
+  }
+
+  /**
+   * Returns the relative cost of evaluating this predicate. A numerical
+   * comparison costs 1.
+   */
+  public double getCost(){
+    return 1d;
+  }
+
+  /**
+   * Returns an a priori estimate of the fraction of objects satisfying this
+   * predicate.
+   */
+  public double getSelectivity(){
+    return 0.5d;
+  }
+
+  protected static int state(boolean b){
+    return b ? MATCH : NO_MATCH;
+  }
+
+  protected static int not(int state){
+    switch(state){
+      case MATCH:
+        return NO_MATCH;
+      case NO_MATCH:
+        return MATCH;
+    }
+    return state;
+  }
+}
@@ -0,0 +1,154 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.regex.Pattern;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class implements a predicate looking for a regular expression within
+ * a string. The pattern is compiled once when the predicate is created.
+ * Expressions only looking for a plain word, such as (?i)(pathogen), are
+ * handled using a literal substring search instead of a regular expression
+ * matcher; results are the same.
+ *
+ * @author Patrick G. Durand
+ */
+public class BRegExpPredicate extends BPredicate {
+  private Pattern pattern_;
+  private String  literal_;
+  private boolean ignoreCase_;
+  private boolean negate_;
+
+  protected BRegExpPredicate(String objType, String accessorName, Pattern pattern, boolean negate){
+    super(objType, accessorName);
+    pattern_ = pattern;
+    negate_ = negate;
+  }
+
+  /**
+   * Constructor. The pattern is retrieved from the shared BPatternCache, 
+   * unless it only looks for a plain word.
+   * 
+   * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+   */
+  protected BRegExpPredicate(String objType, String accessorName, String regex, boolean negate){
+    super(objType, accessorName);
+    literal_ = BPatternCache.getLiteral(regex);
+    if (literal_==null){
+      pattern_ = BPatternCache.getInstance().getPattern(regex);
+    }
+    else{
+      ignoreCase_ = BPatternCache.isIgnoreCase(regex);
+      if (ignoreCase_){
+        literal_ = toLowerCase(literal_);
+      }
+    }
+    negate_ = negate;
+  }
+
+  /**
+   * Figures out whether this predicate relies on a literal substring search.
+   */
+  public boolean isLiteral(){
+    return literal_!=null;
+  }
+
+  @Override
+  public double getCost(){
+    return literal_!=null ? 3d : 10d;
+  }
+
+  @Override
+  public double getSelectivity(){
+    return negate_ ? 0.8d : 0.2d;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   */
+  public boolean test(String value){
+    boolean found;
+
+    if (literal_==null)
+      found = pattern_.matcher(value).find();
+    else if (ignoreCase_)
+      found = containsIgnoreCase(value, literal_);
+    else
+      found = value.indexOf(literal_)!=-1;
+    return found != negate_;
+  }
+
+  /**
+   * Lower case conversion restricted to US-ASCII letters, which is the
+   * default behavior of the (?i) flag.
+   */
+  private static char toLowerCase(char c){
+    return (c>='A' && c<='Z') ? (char) (c+32) : c;
+  }
+
+  private static String toLowerCase(String str){
+    char[] chars;
+    int    i;
+
+    chars = str.toCharArray();
+    for(i=0;i<chars.length;i++){
+      chars[i] = toLowerCase(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Looks for a lower case word within a string, ignoring the case of
+   * US-ASCII letters.
+   */
+  private static boolean containsIgnoreCase(String value, String word){
+    char first;
+    int  i, j, last, size;
+
+    size = word.length();
+    if (size==0)
+      return true;
+    first = word.charAt(0);
+    last = value.length()-size;
+    for(i=0;i<=last;i++){
+      if (toLowerCase(value.charAt(i))!=first)
+        continue;
+      for(j=1;j<size;j++){
+        if (toLowerCase(value.charAt(i+j))!=word.charAt(j))
+          break;
+      }
+      if (j==size)
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public int test(Object value){
+    return state(test(value==null ? UNKNOWN_VALUE : value.toString()));
+  }
+
+  @Override
+  public int eval(Object data){
+    String v;
+
+    v = BGUtils.getString(data, getObjectType(), getAccessorName());
+    return state(test(v==null ? UNKNOWN_VALUE : v));
+  }
+}
@@ -0,0 +1,196 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.BitSet;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BFilterResultView;
+
+/**
+ * This class represents the result of a filter as compressed sets of bits
+ * over the ordinals of the hits and HSPs of a SROutput. Results of several
+ * filters executed on the same SROutput can be combined using set operations,
+ * e.g. "filter3 but not filter7", without executing filters again nor copying
+ * data.
+ * <br><br>
+ * A hit belongs to a result as soon as one of its HSPs does. Instances of
+ * this class are immutable.
+ *
+ * @author Patrick G. Durand
+ */
+public class BResultBitmap {
+  private BResultOrdinals   ordinals_;
+  private BCompressedBitSet hsps_;
+  private BCompressedBitSet hits_;
+
+  /**
+   * Constructor.
+   *
+   * @param ordinals the ordinals of the filtered SROutput
+   * @param view the result of a filter executed on that SROutput. Can be null
+   * to create an empty result.
+   *
+   * @throws BFilterException if the view does not rely on the SROutput 
+   * indexed by ordinals
+   */
+  public BResultBitmap(BResultOrdinals ordinals, BFilterResultView view) throws BFilterException{
+    BitSet bits;
+    int    i, j, k, ord;
+
+    bits = new BitSet(ordinals.countHsps());
+    if (view!=null){
+      if (view.getSource()!=ordinals.getSource())
+        throw new BFilterException("result does not rely on the indexed data");
+      for(i=0;i<view.countIteration();i++){
+        for(j=0;j<view.countHit(i);j++){
+          for(k=0;k<view.countHsp(i, j);k++){
+            ord = ordinals.getHspOrdinal(view.getHsp(i, j, k));
+            if (ord==-1)
+              throw new BFilterException("result does not rely on the indexed data");
+            bits.set(ord);
+          }
+        }
+      }
+    }
+    ordinals_ = ordinals;
+    hsps_ = new BCompressedBitSet(bits);
+    hits_ = getHits(ordinals, hsps_);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param ordinals the ordinals of the filtered SROutput
+   * @param hsps the ordinals of the HSPs contained in the result
+   */
+  BResultBitmap(BResultOrdinals ordinals, BCompressedBitSet hsps){
+    ordinals_ = ordinals;
+    hsps_ = hsps;
+    hits_ = getHits(ordinals, hsps);
+  }
+
+  private static BCompressedBitSet getHits(BResultOrdinals ordinals, BCompressedBitSet hsps){
+    BitSet bits;
+    int    i;
+
+    bits = new BitSet(ordinals.countHits());
+    for(i=hsps.nextSetBit(0);i>=0;i=hsps.nextSetBit(i+1)){
+      bits.set(ordinals.getHitOrdinal(i));
+    }
+    return new BCompressedBitSet(bits);
+  }
+
+  /**
+   * Returns the ordinals this result relies on.
+   */
+  public BResultOrdinals getOrdinals(){
+    return ordinals_;
+  }
+
+  /**
+   * Returns the ordinals of the HSPs contained in this result.
+   */
+  public BCompressedBitSet getHsps(){
+    return hsps_;
+  }
+
+  /**
+   * Returns the ordinals of the hits contained in this result.
+   */
+  public BCompressedBitSet getHits(){
+    return hits_;
+  }
+
+  public int countHsps(){
+    return hsps_.cardinality();
+  }
+
+  public int countHits(){
+    return hits_.cardinality();
+  }
+
+  public boolean isEmpty(){
+    return hsps_.isEmpty();
+  }
+
+  private void checkOrdinals(BResultBitmap other) throws BFilterException{
+    if (other.ordinals_!=ordinals_)
+      throw new BFilterException("results do not rely on the same ordinals");
+  }
+
+  /**
+   * Returns the HSPs contained in both this result and another one.
+   */
+  public BResultBitmap and(BResultBitmap other) throws BFilterException{
+    checkOrdinals(other);
+    return new BResultBitmap(ordinals_, hsps_.and(other.hsps_));
+  }
+
+  /**
+   * Returns the HSPs contained in this result or in another one.
+   */
+  public BResultBitmap or(BResultBitmap other) throws BFilterException{
+    checkOrdinals(other);
+    return new BResultBitmap(ordinals_, hsps_.or(other.hsps_));
+  }
+
+  /**
+   * Returns the HSPs contained in this result but not in another one.
+   */
+  public BResultBitmap andNot(BResultBitmap other) throws BFilterException{
+    checkOrdinals(other);
+    return new BResultBitmap(ordinals_, hsps_.andNot(other.hsps_));
+  }
+
+  /**
+   * Returns this result as a view over the source SROutput or null if this
+   * result is empty.
+   */
+  public BFilterResultView toView(){
+    BFilterResultViewImplem view;
+    SRHsp                   hsp;
+    SROutput                bo;
+    int                     i, hitOrd;
+
+    if (isEmpty())
+      return null;
+    bo = ordinals_.getSource();
+    view = new BFilterResultViewImplem(bo);
+    for(i=hsps_.nextSetBit(0);i>=0;i=hsps_.nextSetBit(i+1)){
+      hsp = ordinals_.getHsp(i);
+      hitOrd = ordinals_.getHitOrdinal(i);
+      view.add(bo, ordinals_.getIteration(hitOrd), ordinals_.getHit(hitOrd), hsp);
+    }
+    view.sort();
+    return view;
+  }
+
+  /**
+   * Creates a SROutput containing copies of the objects of this result.
+   * 
+   * @return a new SROutput or null if this result is empty.
+   */
+  public SROutput materialize(){
+    BFilterResultView view;
+
+    view = toView();
+    return view==null ? null : view.materialize();
+  }
+}
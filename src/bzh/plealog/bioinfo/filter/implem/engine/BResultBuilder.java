@@ -0,0 +1,196 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.data.searchresult.utils.SRFactory;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+
+/**
+ * This class is used to assemble a filtered SROutput given the objects of
+ * a source SROutput that satisfy a filter. Hits and HSPs are cloned, then
+ * iterations, hits and HSPs are sorted using their original numbering.
+ *
+ * @author Patrick G. Durand
+ */
+public class BResultBuilder implements BResultCollector {
+  private IdentityHashMap<Object, Object> ht_;
+  private SRFactory  bf_;
+  private SROutput   boDest_;
+
+  private static final BIterationSorter ITER_COMPARATOR = new BIterationSorter();
+  private static final BHitSorter       HIT_COMPARATOR = new BHitSorter();
+  private static final BHspSorter       HSP_COMPARATOR = new BHspSorter();
+
+  public BResultBuilder(){
+    ht_ = new IdentityHashMap<Object, Object>();
+    bf_ = FilterSystemConfigurator.getSRFactory();
+  }
+
+  /**
+   * Creates an empty SROutput having the same header as another one.
+   */
+  public static SROutput createOutput(SROutput src){
+    SROutput dest;
+
+    dest = FilterSystemConfigurator.getSRFactory().createBOutput();
+    dest.setBlastType(src.getBlastType());
+    dest.setBlastOutputParam(src.getBlastOutputParam());
+    dest.setRequestInfo(src.getRequestInfo());
+
+    return dest;
+  }
+
+  private SRIteration getBIteration(SRIteration src){
+    SRIteration bi;
+
+    bi = bf_.createBIteration();
+    bi.setIterationMessage(src.getIterationMessage());
+    bi.setIterationStat(src.getIterationStat());
+    bi.setIterationQueryDesc(src.getIterationQueryDesc());
+    bi.setIterationQueryID(src.getIterationQueryID());
+    bi.setIterationQueryLength(src.getIterationQueryLength());
+    bi.setIterationIterNum(src.getIterationIterNum());
+    return bi;
+  }
+
+  /**
+   * Adds an HSP that satisfies a filter. Implementation of BResultCollector
+   * interface.
+   *
+   * @param boSrc the SROutput containing the HSP
+   * @param biSrc the SRIteration containing the HSP
+   * @param bhSrc the SRHit containing the HSP
+   * @param bsSrc the HSP
+   */
+  public void add(SROutput boSrc, SRIteration biSrc, SRHit bhSrc, SRHsp bsSrc){
+    SROutput    boDest;
+    SRIteration biDest;
+    SRHit       bhDest;
+    SRHsp       bsDest;
+
+    //get SROutput
+    boDest = (SROutput) ht_.get(boSrc);
+    if (boDest==null){
+      boDest = createOutput(boSrc);
+      ht_.put(boSrc, boDest);
+    }
+    boDest_ = boDest;
+    //get SRIteration
+    biDest = (SRIteration) ht_.get(biSrc);
+    if (biDest==null){
+      biDest = getBIteration(biSrc);
+      boDest.addIteration(biDest);
+      ht_.put(biSrc, biDest);
+    }
+    //get SRHit
+    bhDest = (SRHit) ht_.get(bhSrc);
+    if (bhDest==null){
+      bhDest = (SRHit) bhSrc.clone(true);
+      bhDest.setHitNum(bhSrc.getHitNum());
+      bhDest.setSequenceInfo(bhSrc.getSequenceInfo());
+      biDest.addHit(bhDest);
+      ht_.put(bhSrc, bhDest);
+    }
+    //get SRHsp
+    bsDest = (SRHsp) ht_.get(bsSrc);
+    if (bsDest==null){
+      bsDest = (SRHsp) bsSrc.clone(false);
+      bhDest.addHsp(bsDest);
+      ht_.put(bsSrc, bsDest);
+    }
+  }
+
+  /**
+   * Returns the filtered SROutput. Returns null if nothing has been added
+   * to this builder.
+   */
+  public SROutput getResult(){
+    SRIteration bi;
+    SRHit       bh;
+    int         i, j, size, size2;
+
+    //sort data
+    if (boDest_!=null && !boDest_.isEmpty()){
+      Collections.sort(boDest_.getIterations(), ITER_COMPARATOR);
+      size = boDest_.countIteration();
+      for(i=0;i<size;i++){
+        bi = boDest_.getIteration(i);
+        Collections.sort(bi.getHits(), HIT_COMPARATOR);
+        size2 = bi.countHit();
+        for(j=0;j<size2;j++){
+          bh = bi.getHit(j);
+          Collections.sort(bh.getHsps(), HSP_COMPARATOR);
+        }
+      }
+    }
+    return boDest_;
+  }
+
+  /**
+   * Merges filtered SROutputs obtained from the iterations of a single SROutput.
+   * Iterations are sorted the same way getResult() does.
+   *
+   * @param src the source SROutput
+   * @param parts the filtered SROutputs. Null values are allowed.
+   *
+   * @return a filtered SROutput or null if no iteration is available
+   */
+  public static SROutput merge(SROutput src, SROutput[] parts){
+    SROutput dest;
+    int      i, j, size;
+
+    dest = createOutput(src);
+    for(i=0;i<parts.length;i++){
+      if (parts[i]==null)
+        continue;
+      size = parts[i].countIteration();
+      for(j=0;j<size;j++){
+        dest.addIteration(parts[i].getIteration(j));
+      }
+    }
+    if (dest.countIteration()==0)
+      return null;
+    Collections.sort(dest.getIterations(), ITER_COMPARATOR);
+    return dest;
+  }
+
+  private static class BIterationSorter implements Comparator<SRIteration>{
+    public int compare(SRIteration o1,SRIteration o2){
+      return (o1.getIterationIterNum()-o2.getIterationIterNum());
+    }
+  }
+
+  private static class BHitSorter implements Comparator<SRHit>{
+    public int compare(SRHit o1,SRHit o2){
+      return (o1.getHitNum()-o2.getHitNum());
+    }
+  }
+
+  private static class BHspSorter implements Comparator<SRHsp>{
+    public int compare(SRHsp o1,SRHsp o2){
+      return (o1.getHspNum()-o2.getHspNum());
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+
+/**
+ * This interface defines a consumer of the HSPs satisfying a filter.
+ *
+ * @author Patrick G. Durand
+ */
+public interface BResultCollector {
+  /**
+   * Adds an HSP that satisfies a filter. A same HSP can be added several times.
+   *
+   * @param boSrc the SROutput containing the HSP
+   * @param biSrc the SRIteration containing the HSP
+   * @param bhSrc the SRHit containing the HSP
+   * @param bsSrc the HSP
+   */
+  public void add(SROutput boSrc, SRIteration biSrc, SRHit bhSrc, SRHsp bsSrc);
+}
@@ -0,0 +1,144 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.IdentityHashMap;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+
+/**
+ * This class assigns stable ordinals to the hits and HSPs of a SROutput. 
+ * Ordinals follow the objects tree order: iterations, then hits, then HSPs.
+ * They are used to represent filter results as sets of bits. The SROutput
+ * must not be modified once ordinals have been computed.
+ *
+ * @author Patrick G. Durand
+ */
+public class BResultOrdinals {
+  private SROutput                        bo_;
+  private SRIteration[]                   hitIterations_;
+  private SRHit[]                         hits_;
+  private SRHsp[]                         hsps_;
+  private int[]                           hspHits_;
+  private IdentityHashMap<SRHsp, Integer> hspOrdinals_;
+
+  /**
+   * Constructor.
+   *
+   * @param bo the SROutput to index
+   */
+  public BResultOrdinals(SROutput bo){
+    SRIteration bi;
+    SRHit       hit;
+    int         i, j, k, size, size2, size3, nHits = 0, nHsps = 0;
+
+    bo_ = bo;
+    size = bo.countIteration();
+    for(i=0;i<size;i++){
+      bi = bo.getIteration(i);
+      size2 = bi.countHit();
+      nHits += size2;
+      for(j=0;j<size2;j++){
+        nHsps += bi.getHit(j).countHsp();
+      }
+    }
+    hitIterations_ = new SRIteration[nHits];
+    hits_ = new SRHit[nHits];
+    hsps_ = new SRHsp[nHsps];
+    hspHits_ = new int[nHsps];
+    hspOrdinals_ = new IdentityHashMap<SRHsp, Integer>(nHsps);
+    nHits = nHsps = 0;
+    for(i=0;i<size;i++){
+      bi = bo.getIteration(i);
+      size2 = bi.countHit();
+      for(j=0;j<size2;j++){
+        hit = bi.getHit(j);
+        size3 = hit.countHsp();
+        for(k=0;k<size3;k++){
+          hsps_[nHsps] = hit.getHsp(k);
+          hspHits_[nHsps] = nHits;
+          hspOrdinals_.put(hsps_[nHsps], nHsps);
+          nHsps++;
+        }
+        hitIterations_[nHits] = bi;
+        hits_[nHits] = hit;
+        nHits++;
+      }
+    }
+  }
+
+  /**
+   * Returns the indexed SROutput.
+   */
+  public SROutput getSource(){
+    return bo_;
+  }
+
+  /**
+   * Returns the number of hits of the indexed SROutput.
+   */
+  public int countHits(){
+    return hits_.length;
+  }
+
+  /**
+   * Returns the number of HSPs of the indexed SROutput.
+   */
+  public int countHsps(){
+    return hsps_.length;
+  }
+
+  /**
+   * Returns the ordinal of an HSP or -1 if it does not belong to the indexed
+   * SROutput.
+   */
+  public int getHspOrdinal(SRHsp hsp){
+    Integer ord;
+
+    ord = hspOrdinals_.get(hsp);
+    return ord==null ? -1 : ord.intValue();
+  }
+
+  /**
+   * Returns the ordinal of the hit containing an HSP.
+   *
+   * @param hspOrdinal ordinal of an HSP
+   */
+  public int getHitOrdinal(int hspOrdinal){
+    return hspHits_[hspOrdinal];
+  }
+
+  public SRHsp getHsp(int hspOrdinal){
+    return hsps_[hspOrdinal];
+  }
+
+  public SRHit getHit(int hitOrdinal){
+    return hits_[hitOrdinal];
+  }
+
+  /**
+   * Returns the iteration containing a hit.
+   *
+   * @param hitOrdinal ordinal of a hit
+   */
+  public SRIteration getIteration(int hitOrdinal){
+    return hitIterations_[hitOrdinal];
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.hge.api.datamodel.DGMAttribute;
+
+/**
+ * This class compiles BRule objects into BPredicate objects. The kind of
+ * predicate depends on the data type of the accessor and on the operator:
+ * double or long comparisons for numbers, precompiled pattern for regular
+ * expressions, open-addressing hash sets for strInSet and longInSet. Sets
+ * are shared using the BValueSetRegistry.
+ *
+ * @author Patrick G. Durand
+ */
+public class BRuleCompiler {
+
+  private BRuleCompiler(){}
+
+  /**
+   * Compiles a rule.
+   *
+   * @param fModel the data model used to figure out data accessors
+   * @param rule the rule to compile
+   *
+   * @return a predicate
+   *
+   * @throws BFilterException if the rule cannot be compiled
+   */
+  public static BPredicate compile(BOperatorAccessors fModel, BRule rule) throws BFilterException{
+    BAccessorEntry entry;
+
+    entry = fModel.getAccessorEntry(rule.getAccessor());
+    if (entry==null)
+      throw new BFilterException("rule defines an unknown object accessor: "+rule.getAccessor());
+    return compile(entry, rule.getOperator(), rule.getValue());
+  }
+
+  /**
+   * Compiles a rule given its three components.
+   *
+   * @param entry the data accessor
+   * @param operator one of BOperatorAccessors OPE_XXX constants
+   * @param value the value to compare with data
+   *
+   * @return a predicate
+   *
+   * @throws BFilterException if the rule cannot be compiled
+   */
+  public static BPredicate compile(BAccessorEntry entry, String operator, Object value) throws BFilterException{
+    String objType, accName;
+
+    objType = entry.getObjectType();
+    accName = entry.getAccessorName();
+    if (entry.getFunctionAccessor()){
+      throw new BFilterException("function accessor cannot be compiled: "+
+          entry.getAccessorVisibleName());
+    }
+    if (value==null){
+      throw new BFilterException(operator+": value is not defined");
+    }
+    switch(operator){
+      case BOperatorAccessors.OPE_Equal:
+      case BOperatorAccessors.OPE_NotEqual:
+        if (entry.getDataType()==DGMAttribute.DT_STRING){
+          return new BStringPredicate(objType, accName, value.toString(), 
+              operator.equals(BOperatorAccessors.OPE_NotEqual));
+        }
+        return compileNumber(entry, operator, value, value);
+      case BOperatorAccessors.OPE_LessThan:
+      case BOperatorAccessors.OPE_GreatherThan:
+      case BOperatorAccessors.OPE_LessThanEqual:
+      case BOperatorAccessors.OPE_GreatherThanEqual:
+        return compileNumber(entry, operator, value, value);
+      case BOperatorAccessors.OPE_InRangeInclusive:
+      case BOperatorAccessors.OPE_InRangeExclusive:
+        if (!(value instanceof List) || ((List<?>)value).size()!=2){
+          throw new BFilterException(operator+": wrong values: expected a List of two values. Found: "+
+              value);
+        }
+        return compileNumber(entry, operator, ((List<?>)value).get(0), ((List<?>)value).get(1));
+      case BOperatorAccessors.OPE_MatchRegExp:
+      case BOperatorAccessors.OPE_NotMatchRegExp:
+        try {
+          return new BRegExpPredicate(objType, accName, value.toString(), 
+              operator.equals(BOperatorAccessors.OPE_NotMatchRegExp));
+        } catch (PatternSyntaxException e) {
+          throw new BFilterException(operator+": invalid regular expression: "+e.getMessage());
+        }
+      case BOperatorAccessors.OPE_FUNC_StrInSet:
+      case BOperatorAccessors.OPE_FUNC_StrNotInSet:
+        return new BStringSetPredicate(objType, accName, BValueSetRegistry.getStringSet(operator, value), 
+            operator.equals(BOperatorAccessors.OPE_FUNC_StrNotInSet));
+      case BOperatorAccessors.OPE_FUNC_LongInSet:
+      case BOperatorAccessors.OPE_FUNC_LongNotInSet:
+        return new BLongSetPredicate(objType, accName, BValueSetRegistry.getLongSet(operator, value), 
+            operator.equals(BOperatorAccessors.OPE_FUNC_LongNotInSet));
+    }
+    throw new BFilterException("unknown operator: "+operator);
+  }
+
+  private static int getOperatorCode(String operator){
+    switch(operator){
+      case BOperatorAccessors.OPE_Equal:
+        return BPredicate.OP_EQ;
+      case BOperatorAccessors.OPE_NotEqual:
+        return BPredicate.OP_NE;
+      case BOperatorAccessors.OPE_LessThan:
+        return BPredicate.OP_LT;
+      case BOperatorAccessors.OPE_GreatherThan:
+        return BPredicate.OP_GT;
+      case BOperatorAccessors.OPE_LessThanEqual:
+        return BPredicate.OP_LE;
+      case BOperatorAccessors.OPE_GreatherThanEqual:
+        return BPredicate.OP_GE;
+      case BOperatorAccessors.OPE_InRangeInclusive:
+        return BPredicate.OP_IN_RANGE_INCL;
+      default:
+        return BPredicate.OP_IN_RANGE_EXCL;
+    }
+  }
+
+  private static BPredicate compileNumber(BAccessorEntry entry, String operator, 
+      Object value, Object value2) throws BFilterException{
+    int ope;
+
+    if (!(value instanceof Number) || !(value2 instanceof Number)){
+      throw new BFilterException(operator+": wrong value: expected a number. Found: "+value);
+    }
+    ope = getOperatorCode(operator);
+    //a long predicate is only used when both data and values are long
+    if (entry.getDataType()==DGMAttribute.DT_LONG && value instanceof Long && value2 instanceof Long){
+      return new BLongPredicate(entry.getObjectType(), entry.getAccessorName(), ope, 
+          (Long) value, (Long) value2);
+    }
+    return new BDoublePredicate(entry.getObjectType(), entry.getAccessorName(), ope, 
+        ((Number) value).doubleValue(), ((Number) value2).doubleValue(), 
+        entry.getDataType()==DGMAttribute.DT_DOUBLE);
+  }
+}
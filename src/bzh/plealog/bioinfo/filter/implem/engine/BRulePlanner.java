@@ -0,0 +1,103 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class orders the predicates applying on a same type of object so that
+ * a logical AND evaluates the fewest expensive checks: predicates are sorted
+ * by increasing cost/(1-selectivity), i.e. cheap predicates likely to reject
+ * an object come first. Costs are given by predicates. Selectivity is given
+ * by an estimator, if any, otherwise by predicates themselves.
+ * <br><br>
+ * Since all rules are evaluated in a logical OR, ordering is only done for
+ * a logical AND.
+ *
+ * @author Patrick G. Durand
+ */
+public class BRulePlanner {
+  private BSelectivityEstimator estimator_;
+
+  /** a planner relying on a priori selectivity of predicates*/
+  public static final BRulePlanner DEFAULT = new BRulePlanner(null);
+
+  /**
+   * Constructor.
+   *
+   * @param estimator estimator of predicate selectivity. Can be null.
+   */
+  public BRulePlanner(BSelectivityEstimator estimator){
+    estimator_ = estimator;
+  }
+
+  /**
+   * Returns the estimated fraction of objects satisfying a predicate.
+   */
+  public double getSelectivity(BPredicate predicate){
+    double sel = -1d;
+
+    if (estimator_!=null)
+      sel = estimator_.estimate(predicate);
+    if (sel<0d)
+      sel = predicate.getSelectivity();
+    return sel;
+  }
+
+  /**
+   * Returns the rank of a predicate in a logical AND: the lower the better.
+   */
+  public double getRank(BPredicate predicate){
+    double sel;
+
+    sel = Math.min(getSelectivity(predicate), 0.999d);
+    return predicate.getCost()/(1d-sel);
+  }
+
+  /**
+   * Orders predicates. This method is stable: predicates having the same
+   * rank keep their order.
+   *
+   * @param rules predicates applying on a same type of object. Sorted in place.
+   * @param exclusive true if predicates are combined using a logical AND
+   */
+  public void order(BPredicate[] rules, boolean exclusive){
+    final double[] ranks;
+    Integer[]      idx;
+    BPredicate[]   src;
+    int            i;
+
+    if (!exclusive || rules.length<2)
+      return;
+    ranks = new double[rules.length];
+    idx = new Integer[rules.length];
+    for(i=0;i<rules.length;i++){
+      ranks[i] = getRank(rules[i]);
+      idx[i] = i;
+    }
+    Arrays.sort(idx, new Comparator<Integer>(){
+      public int compare(Integer o1, Integer o2){
+        return Double.compare(ranks[o1], ranks[o2]);
+      }
+    });
+    src = rules.clone();
+    for(i=0;i<rules.length;i++){
+      rules[i] = src[idx[i]];
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+/**
+ * This interface defines an estimator of the fraction of objects satisfying
+ * a predicate. It is used by BRulePlanner to order rules.
+ *
+ * @author Patrick G. Durand
+ */
+public interface BSelectivityEstimator {
+  /**
+   * Returns the estimated fraction of objects satisfying a predicate.
+   *
+   * @return a value from 0 to 1, or -1 if no estimate is available.
+   */
+  public double estimate(BPredicate predicate);
+}
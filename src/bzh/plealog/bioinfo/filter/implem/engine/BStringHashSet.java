@@ -0,0 +1,157 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.util.Collection;
+
+/**
+ * This class implements an immutable set of strings. Values are stored in
+ * an open-addressing hash table along with their hash codes: a lookup only
+ * compares strings having the same hash code. Matching is exact.
+ * <br><br>
+ * A Bloom filter can be put in front of large sets: most lookups of values
+ * absent from the set then do not reach the table.
+ *
+ * @author Patrick G. Durand
+ */
+public class BStringHashSet {
+  private String[]     table_;
+  private int[]        hashes_;
+  private int          mask_;
+  private int          size_;
+  private String       id_;
+  private BBloomFilter bloom_;
+
+  //maximum ratio of used slots
+  private static final float LOAD_FACTOR = 0.5f;
+
+  /**
+   * Constructor.
+   *
+   * @param values the values of the set. Duplicates are allowed. Objects
+   * are converted to strings using their toString() method.
+   */
+  public BStringHashSet(Collection<?> values){
+    int capacity;
+
+    capacity = getCapacity(values.size());
+    table_ = new String[capacity];
+    hashes_ = new int[capacity];
+    mask_ = capacity-1;
+    for(Object obj : values){
+      add(obj.toString());
+    }
+  }
+
+  /**
+   * Returns the size of a table able to contain a number of values. It is
+   * a power of two.
+   */
+  protected static int getCapacity(int size){
+    int capacity;
+
+    capacity = 2;
+    while(capacity*LOAD_FACTOR<size){
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void add(String value){
+    int h, idx;
+
+    h = hash(value);
+    idx = h & mask_;
+    while(table_[idx]!=null){
+      if (hashes_[idx]==h && table_[idx].equals(value))
+        return;
+      idx = (idx+1) & mask_;
+    }
+    table_[idx] = value;
+    hashes_[idx] = h;
+    size_++;
+  }
+
+  private static int hash(String value){
+    int h;
+
+    h = value.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Figures out whether or not this set contains a value.
+   */
+  public boolean contains(String value){
+    String cur;
+    int    h, idx;
+
+    if (bloom_!=null && !bloom_.mightContain(BBloomFilter.hash(value)))
+      return false;
+    h = hash(value);
+    idx = h & mask_;
+    while((cur=table_[idx])!=null){
+      if (hashes_[idx]==h && cur.equals(value))
+        return true;
+      idx = (idx+1) & mask_;
+    }
+    return false;
+  }
+
+  /**
+   * Puts a Bloom filter in front of this set.
+   *
+   * @param fpp rate of false positive answers of the Bloom filter
+   */
+  protected void createBloomFilter(double fpp){
+    BBloomFilter bloom;
+    int          i;
+
+    bloom = new BBloomFilter(size_, fpp);
+    for(i=0;i<table_.length;i++){
+      if (table_[i]!=null)
+        bloom.add(BBloomFilter.hash(table_[i]));
+    }
+    bloom_ = bloom;
+  }
+
+  /**
+   * Figures out whether a Bloom filter is used in front of this set.
+   */
+  public boolean hasBloomFilter(){
+    return bloom_!=null;
+  }
+
+  /**
+   * Returns the number of values contained in this set.
+   */
+  public int size(){
+    return size_;
+  }
+
+  /**
+   * Returns the identifier of this set within the BValueSetRegistry. Returns
+   * null if this set is not registered.
+   */
+  public String getId(){
+    return id_;
+  }
+
+  protected void setId(String id){
+    id_ = id;
+  }
+}
@@ -0,0 +1,66 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class implements a predicate checking equality of strings. As it is
+ * the case with HGE, comparison is not case sensitive.
+ *
+ * @author Patrick G. Durand
+ */
+public class BStringPredicate extends BPredicate {
+  private String  value_;
+  private boolean negate_;
+
+  protected BStringPredicate(String objType, String accessorName, String value, boolean negate){
+    super(objType, accessorName);
+    value_ = value;
+    negate_ = negate;
+  }
+
+  @Override
+  public double getCost(){
+    return 2d;
+  }
+
+  @Override
+  public double getSelectivity(){
+    return negate_ ? 0.9d : 0.1d;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   */
+  public boolean test(String value){
+    return value_.equalsIgnoreCase(value) != negate_;
+  }
+
+  @Override
+  public int test(Object value){
+    return state(test(value==null ? UNKNOWN_VALUE : value.toString()));
+  }
+
+  @Override
+  public int eval(Object data){
+    String v;
+
+    v = BGUtils.getString(data, getObjectType(), getAccessorName());
+    return state(test(v==null ? UNKNOWN_VALUE : v));
+  }
+}
@@ -0,0 +1,68 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+
+/**
+ * This class implements a predicate checking whether or not a string is
+ * contained in a set of values. Matching is exact. Values are stored in a
+ * BStringHashSet.
+ *
+ * @author Patrick G. Durand
+ */
+public class BStringSetPredicate extends BPredicate {
+  private BStringHashSet values_;
+  private boolean        negate_;
+
+  protected BStringSetPredicate(String objType, String accessorName, BStringHashSet values, 
+      boolean negate){
+    super(objType, accessorName);
+    values_ = values;
+    negate_ = negate;
+  }
+
+  @Override
+  public double getCost(){
+    return 3d;
+  }
+
+  @Override
+  public double getSelectivity(){
+    return negate_ ? 0.9d : 0.1d;
+  }
+
+  /**
+   * Evaluates this predicate on a value.
+   */
+  public boolean test(String value){
+    return values_.contains(value) != negate_;
+  }
+
+  @Override
+  public int test(Object value){
+    return state(test(value==null ? UNKNOWN_VALUE : value.toString()));
+  }
+
+  @Override
+  public int eval(Object data){
+    String v;
+
+    v = BGUtils.getString(data, getObjectType(), getAccessorName());
+    return state(test(v==null ? UNKNOWN_VALUE : v));
+  }
+}
@@ -0,0 +1,364 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.engine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BValueFile;
+
+/**
+ * This class is a registry of the compiled sets of values used by strInSet 
+ * and longInSet rules. Rules having the same set of values share a single
+ * compiled set, which is identified by a short string. That identifier is 
+ * used by HGE queries to reach a set without having to embed its values.
+ * <br><br>
+ * Values may also come from a file (see BValueFile). Such a file is loaded
+ * once, then it is loaded again only if it has been modified, i.e. if its 
+ * modification date or its size has changed. A new identifier is given to
+ * each version of a file.
+ * <br><br>
+ * A Bloom filter is put in front of large sets, e.g. blacklists of millions
+ * of accessions: most values are not on such lists and the Bloom filter 
+ * answers these lookups on its own.
+ * <br><br>
+ * The registry only keeps weak references to compiled sets: a set is 
+ * discarded as soon as the rules using it are discarded. It is thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class BValueSetRegistry {
+  /** default minimum size of sets having a Bloom filter */
+  public static final int DEFAULT_BLOOM_THRESHOLD = 100000;
+
+  private static final HashMap<String, WeakReference<Object>> SETS = 
+      new HashMap<String, WeakReference<Object>>();
+  //file path to identifier of the last version of a file set
+  private static final HashMap<String, String> FILE_IDS = new HashMap<String, String>();
+  //identifier to file state when the set was loaded
+  private static final HashMap<String, BFileStamp> STAMPS = new HashMap<String, BFileStamp>();
+  private static int fileCounter_;
+  private static int bloomThreshold_ = DEFAULT_BLOOM_THRESHOLD;
+
+  private BValueSetRegistry(){}
+
+  /**
+   * Returns the compiled form of a set of strings.
+   *
+   * @param operator the operator using the set. Only used to report errors.
+   * @param value a Set of values or a BValueFile
+   *
+   * @throws BFilterException if value is not a Set or if a file cannot be read
+   */
+  public static synchronized BStringHashSet getStringSet(String operator, Object value) throws BFilterException{
+    Collection<?>  values;
+    BStringHashSet set;
+    String         key;
+    Object         obj;
+    int            i, hash;
+
+    if (value instanceof BValueFile)
+      return (BStringHashSet) getFileSet(operator, (BValueFile) value, false);
+    values = toSet(operator, value);
+    hash = 0;
+    for(Object v : values){
+      hash += v.toString().hashCode();
+    }
+    key = "s:"+values.size()+":"+Integer.toHexString(hash)+":";
+    for(i=0;;i++){
+      obj = get(key+i);
+      if (obj==null)
+        break;
+      set = (BStringHashSet) obj;
+      if (containsAll(set, values))
+        return set;
+    }
+    set = new BStringHashSet(values);
+    if (needsBloomFilter(set.size()))
+      set.createBloomFilter(BBloomFilter.DEFAULT_FPP);
+    set.setId(key+i);
+    SETS.put(set.getId(), new WeakReference<Object>(set));
+    return set;
+  }
+
+  /**
+   * Returns the compiled form of a set of integers.
+   *
+   * @param operator the operator using the set. Only used to report errors.
+   * @param value a Set of Numbers or a BValueFile
+   *
+   * @throws BFilterException if value is not a Set of Numbers or if a file 
+   * cannot be read
+   */
+  public static synchronized BLongHashSet getLongSet(String operator, Object value) throws BFilterException{
+    BLongHashSet set;
+    String       key;
+    Object       obj;
+    long[]       values;
+    int          i, j, hash;
+
+    if (value instanceof BValueFile)
+      return (BLongHashSet) getFileSet(operator, (BValueFile) value, true);
+    values = toLongArray(operator, toSet(operator, value));
+    hash = 0;
+    for(i=0;i<values.length;i++){
+      hash += (int) (values[i] ^ (values[i] >>> 32));
+    }
+    key = "l:"+values.length+":"+Integer.toHexString(hash)+":";
+    for(i=0;;i++){
+      obj = get(key+i);
+      if (obj==null)
+        break;
+      set = (BLongHashSet) obj;
+      for(j=0;j<values.length;j++){
+        if (!set.contains(values[j]))
+          break;
+      }
+      if (j==values.length && set.size()==values.length)
+        return set;
+    }
+    set = new BLongHashSet(values);
+    if (needsBloomFilter(set.size()))
+      set.createBloomFilter(BBloomFilter.DEFAULT_FPP);
+    set.setId(key+i);
+    SETS.put(set.getId(), new WeakReference<Object>(set));
+    return set;
+  }
+
+  /**
+   * Sets the minimum number of values of a set having a Bloom filter. Only
+   * sets compiled afterwards are concerned. Zero disables Bloom filters.
+   */
+  public static synchronized void setBloomFilterThreshold(int threshold){
+    bloomThreshold_ = threshold;
+  }
+
+  /**
+   * Returns the minimum number of values of a set having a Bloom filter.
+   */
+  public static synchronized int getBloomFilterThreshold(){
+    return bloomThreshold_;
+  }
+
+  /**
+   * Returns a registered set of strings given its identifier. Returns null
+   * if no such set is available.
+   */
+  public static synchronized BStringHashSet findStringSet(String id){
+    Object obj;
+
+    obj = get(id);
+    return (obj instanceof BStringHashSet) ? (BStringHashSet) obj : null;
+  }
+
+  /**
+   * Returns a registered set of integers given its identifier. Returns null
+   * if no such set is available.
+   */
+  public static synchronized BLongHashSet findLongSet(String id){
+    Object obj;
+
+    obj = get(id);
+    return (obj instanceof BLongHashSet) ? (BLongHashSet) obj : null;
+  }
+
+  /**
+   * Figures out whether a set has been loaded from a file which has been
+   * modified since then.
+   */
+  public static synchronized boolean isOutdated(Object set){
+    BFileStamp stamp;
+    String     id;
+
+    if (set instanceof BStringHashSet)
+      id = ((BStringHashSet) set).getId();
+    else if (set instanceof BLongHashSet)
+      id = ((BLongHashSet) set).getId();
+    else
+      return false;
+    stamp = id!=null ? STAMPS.get(id) : null;
+    return stamp!=null && stamp.isModified();
+  }
+
+  /**
+   * Returns the number of sets contained in this registry. Discarded sets
+   * are removed from the registry when calling this method.
+   */
+  public static synchronized int size(){
+    purge();
+    return SETS.size();
+  }
+
+  private static void purge(){
+    Iterator<Map.Entry<String, WeakReference<Object>>> iter;
+    Map.Entry<String, WeakReference<Object>>           entry;
+
+    iter = SETS.entrySet().iterator();
+    while(iter.hasNext()){
+      entry = iter.next();
+      if (entry.getValue().get()==null){
+        iter.remove();
+        STAMPS.remove(entry.getKey());
+      }
+    }
+  }
+
+  private static Object getFileSet(String operator, BValueFile value, boolean numeric) throws BFilterException{
+    ArrayList<String> values;
+    BStringHashSet    sSet;
+    BLongHashSet      lSet;
+    BFileStamp        stamp;
+    File              file;
+    String            key, id;
+    Object            set;
+    long[]            longs;
+    int               i;
+
+    file = value.getFile();
+    if (file==null)
+      throw new BFilterException(operator+": no file given to read values from");
+    key = (numeric ? "l:" : "s:")+file.getAbsolutePath();
+    id = FILE_IDS.get(key);
+    if (id!=null){
+      set = get(id);
+      if (set!=null && !STAMPS.get(id).isModified())
+        return set;
+    }
+    purge();
+    stamp = new BFileStamp(file);
+    values = readValues(operator, file);
+    id = "f:"+(++fileCounter_);
+    if (numeric){
+      longs = new long[values.size()];
+      for(i=0;i<longs.length;i++){
+        try {
+          longs[i] = Long.parseLong(values.get(i));
+        } catch (NumberFormatException e) {
+          throw new BFilterException(operator+": wrong value in "+file+": expected a number. Found: "+
+              values.get(i));
+        }
+      }
+      lSet = new BLongHashSet(longs);
+      if (needsBloomFilter(lSet.size()))
+        lSet.createBloomFilter(BBloomFilter.DEFAULT_FPP);
+      lSet.setId(id);
+      set = lSet;
+    }
+    else{
+      sSet = new BStringHashSet(values);
+      if (needsBloomFilter(sSet.size()))
+        sSet.createBloomFilter(BBloomFilter.DEFAULT_FPP);
+      sSet.setId(id);
+      set = sSet;
+    }
+    SETS.put(id, new WeakReference<Object>(set));
+    STAMPS.put(id, stamp);
+    FILE_IDS.put(key, id);
+    return set;
+  }
+
+  private static ArrayList<String> readValues(String operator, File file) throws BFilterException{
+    ArrayList<String> values;
+    String            line;
+
+    values = new ArrayList<String>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+      while((line=reader.readLine())!=null){
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0)=='#')
+          continue;
+        values.add(line);
+      }
+    } catch (IOException e) {
+      throw new BFilterException(operator+": unable to read values from "+file+": "+e.getMessage());
+    }
+    return values;
+  }
+
+  private static boolean needsBloomFilter(int size){
+    return bloomThreshold_>0 && size>=bloomThreshold_;
+  }
+
+  private static Object get(String id){
+    WeakReference<Object> ref;
+
+    ref = SETS.get(id);
+    return ref!=null ? ref.get() : null;
+  }
+
+  private static boolean containsAll(BStringHashSet set, Collection<?> values){
+    for(Object v : values){
+      if (!set.contains(v.toString()))
+        return false;
+    }
+    return set.size()==values.size();
+  }
+
+  private static Set<?> toSet(String operator, Object value) throws BFilterException{
+    if (!(value instanceof Set)){
+      throw new BFilterException(operator+": wrong values: expected a Set. Found: "+
+          (value==null ? null : value.getClass().getName()));
+    }
+    return (Set<?>) value;
+  }
+
+  private static long[] toLongArray(String operator, Set<?> value) throws BFilterException{
+    long[] values;
+    int    i = 0;
+
+    values = new long[value.size()];
+    for(Object obj : value){
+      if (!(obj instanceof Number)){
+        throw new BFilterException(operator+": wrong value: expected a number. Found: "+obj);
+      }
+      values[i++] = ((Number) obj).longValue();
+    }
+    return values;
+  }
+
+  /**
+   * State of a file when it has been loaded.
+   */
+  private static class BFileStamp {
+    private File file_;
+    private long lastModified_;
+    private long length_;
+
+    public BFileStamp(File file){
+      file_ = file;
+      lastModified_ = file.lastModified();
+      length_ = file.length();
+    }
+
+    public boolean isModified(){
+      return file_.lastModified()!=lastModified_ || file_.length()!=length_;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.stream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.data.searchresult.io.SRWriter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BIterationSink;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultBuilder;
+import bzh.plealog.bioinfo.io.searchresult.SerializerSystemFactory;
+
+/**
+ * Implementation of a BIterationSink writing an NCBI XML Blast file one
+ * iteration at a time. Since the NCBI writer can only write entire documents,
+ * each iteration is written within a temporary document, then its Iteration
+ * element is appended to the target file. So, only one iteration is kept in
+ * memory.
+ * <br><br>
+ * As the NCBI XML format requires at least one iteration, no file is created
+ * if no iteration is passed to this sink.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BNcbiXmlIterationSink implements BIterationSink {
+  private File     file_;
+  private SRWriter srWriter_;
+  private Writer   writer_;
+  private SROutput header_;
+  private String   xmlFooter_;
+  private File     tmpFile_;
+
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  /**
+   * Constructor. Uses the default NCBI writer.
+   * 
+   * @param file the file to create
+   */
+  public BNcbiXmlIterationSink(File file){
+    this(file, SerializerSystemFactory.getWriterInstance(SerializerSystemFactory.NCBI_WRITER));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param file the file to create
+   * @param writer an NCBI XML Blast writer
+   */
+  public BNcbiXmlIterationSink(File file, SRWriter writer){
+    file_ = file;
+    srWriter_ = writer;
+  }
+
+  @Override
+  public void start(SROutput header) throws BFilterException{
+    header_ = header;
+    if (file_.exists() && !file_.delete())
+      throw new BFilterException("Unable to overwrite "+file_.getName());
+  }
+
+  @Override
+  public void accept(SRIteration iteration) throws BFilterException{
+    SROutput bo;
+    String   xml;
+    int      from, to;
+
+    bo = BResultBuilder.createOutput(header_);
+    bo.addIteration(iteration);
+    try{
+      if (tmpFile_==null)
+        tmpFile_ = File.createTempFile("bfilter", ".xml");
+      srWriter_.write(tmpFile_, bo);
+      xml = new String(Files.readAllBytes(tmpFile_.toPath()), CHARSET);
+      from = xml.indexOf(BNcbiXmlIterationSource.ITERATIONS_TAG);
+      to = xml.lastIndexOf(BNcbiXmlIterationSource.ITERATIONS_END_TAG);
+      if (from==-1 || to==-1)
+        throw new IOException("no "+BNcbiXmlIterationSource.ITERATIONS_TAG+" element");
+      from += BNcbiXmlIterationSource.ITERATIONS_TAG.length();
+      if (writer_==null){
+        writer_ = new OutputStreamWriter(new FileOutputStream(file_), CHARSET);
+        writer_.write(xml, 0, from);
+        xmlFooter_ = xml.substring(to);
+      }
+      writer_.write(xml, from, to-from);
+    }
+    catch(Exception ex){
+      close();
+      throw new BFilterException("Unable to write "+file_.getName()+": "+ex.getMessage());
+    }
+  }
+
+  @Override
+  public void end() throws BFilterException{
+    try{
+      if (writer_!=null){
+        writer_.write(xmlFooter_);
+        writer_.flush();
+      }
+    }
+    catch(IOException ex){
+      throw new BFilterException("Unable to write "+file_.getName()+": "+ex.getMessage());
+    }
+    finally{
+      close();
+    }
+  }
+
+  private void close(){
+    if (writer_!=null){
+      try{writer_.close();}catch(IOException e){}
+      writer_ = null;
+    }
+    if (tmpFile_!=null){
+      tmpFile_.delete();
+      tmpFile_ = null;
+    }
+  }
+}
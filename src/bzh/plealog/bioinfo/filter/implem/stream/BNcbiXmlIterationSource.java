@@ -0,0 +1,185 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.stream;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.data.searchresult.io.SRLoader;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BIterationSource;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultBuilder;
+import bzh.plealog.bioinfo.io.searchresult.SerializerSystemFactory;
+
+/**
+ * Implementation of a BIterationSource reading an NCBI XML Blast file one
+ * iteration at a time. Since the NCBI loader can only read entire documents,
+ * each Iteration element is copied with the file header within a temporary
+ * document which is then loaded. So, only one iteration is kept in memory.
+ * <br><br>
+ * Data are copied as ISO-8859-1 characters, so that the bytes of the
+ * original file are preserved whatever its encoding.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BNcbiXmlIterationSource implements BIterationSource {
+  private File        file_;
+  private SRLoader    loader_;
+  private BXmlScanner scanner_;
+  private String      xmlHeader_;
+  private SROutput    header_;
+  private SRIteration pending_;
+  private File        tmpFile_;
+
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  protected static final String ITERATIONS_TAG = "<BlastOutput_iterations>";
+  protected static final String ITERATIONS_END_TAG = "</BlastOutput_iterations>";
+  protected static final String ITERATION_TAG = "<Iteration>";
+  protected static final String ITERATION_END_TAG = "</Iteration>";
+  protected static final String OUTPUT_END_TAG = "</BlastOutput>";
+
+  /**
+   * Constructor. Uses the default NCBI loader.
+   * 
+   * @param file an NCBI XML Blast file
+   */
+  public BNcbiXmlIterationSource(File file){
+    this(file, SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param file an NCBI XML Blast file
+   * @param loader an NCBI XML Blast loader
+   */
+  public BNcbiXmlIterationSource(File file, SRLoader loader){
+    file_ = file;
+    loader_ = loader;
+  }
+
+  /**
+   * Opens the file and reads its header, i.e. all data located before
+   * the first iteration.
+   */
+  private void open() throws IOException{
+    StringBuilder buf;
+
+    scanner_ = new BXmlScanner(new BufferedReader(new InputStreamReader(
+        new FileInputStream(file_), CHARSET)));
+    buf = new StringBuilder();
+    if (!scanner_.readUntil(ITERATIONS_TAG, buf))
+      throw new IOException("no "+ITERATIONS_TAG+" element");
+    xmlHeader_ = buf.toString();
+    tmpFile_ = File.createTempFile("bfilter", ".xml");
+  }
+
+  /**
+   * Reads the next iteration from the file. Returns null when no more
+   * iteration is available.
+   */
+  private SRIteration readIteration() throws BFilterException{
+    StringBuilder buf;
+    Writer        writer = null;
+    SROutput      bo;
+
+    try{
+      if (scanner_==null)
+        open();
+      if (!scanner_.readUntil(ITERATION_TAG, null))
+        return null;
+      buf = new StringBuilder(ITERATION_TAG);
+      if (!scanner_.readUntil(ITERATION_END_TAG, buf))
+        throw new IOException("truncated "+ITERATION_TAG+" element");
+      writer = new OutputStreamWriter(new FileOutputStream(tmpFile_), CHARSET);
+      writer.write(xmlHeader_);
+      writer.write(buf.toString());
+      writer.write(ITERATIONS_END_TAG);
+      writer.write(OUTPUT_END_TAG);
+      writer.close();
+      writer = null;
+      bo = loader_.load(tmpFile_);
+    }
+    catch(Exception ex){
+      throw new BFilterException("Unable to read "+file_.getName()+": "+ex.getMessage());
+    }
+    finally{
+      if (writer!=null){
+        try{writer.close();}catch(IOException e){}
+      }
+    }
+    if (bo==null || bo.countIteration()==0)
+      throw new BFilterException("Unable to read "+file_.getName()+": empty iteration");
+    if (header_==null)
+      header_ = BResultBuilder.createOutput(bo);
+    return bo.getIteration(0);
+  }
+
+  @Override
+  public SROutput getHeader() throws BFilterException{
+    SROutput bo;
+
+    if (header_==null){
+      pending_ = readIteration();
+      if (header_==null){
+        //file without iteration: it is small enough to be loaded
+        try{
+          bo = loader_.load(file_);
+        }
+        catch(Exception ex){
+          throw new BFilterException("Unable to read "+file_.getName()+": "+ex.getMessage());
+        }
+        header_ = BResultBuilder.createOutput(bo);
+      }
+    }
+    return header_;
+  }
+
+  @Override
+  public SRIteration next() throws BFilterException{
+    SRIteration bi;
+
+    if (pending_!=null){
+      bi = pending_;
+      pending_ = null;
+      return bi;
+    }
+    return readIteration();
+  }
+
+  @Override
+  public void close(){
+    if (scanner_!=null){
+      try{scanner_.close();}catch(IOException e){}
+      scanner_ = null;
+    }
+    if (tmpFile_!=null){
+      tmpFile_.delete();
+      tmpFile_ = null;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.stream;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BIterationSink;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultBuilder;
+
+/**
+ * Implementation of a BIterationSink collecting iterations within a SROutput.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BOutputIterationSink implements BIterationSink {
+  private SROutput bo_;
+
+  public BOutputIterationSink(){
+  }
+
+  @Override
+  public void start(SROutput header){
+    bo_ = BResultBuilder.createOutput(header);
+  }
+
+  @Override
+  public void accept(SRIteration iteration){
+    bo_.addIteration(iteration);
+  }
+
+  @Override
+  public void end(){
+  }
+
+  /**
+   * Returns the collected iterations or null if none has been collected.
+   */
+  public SROutput getResult(){
+    if (bo_==null || bo_.countIteration()==0)
+      return null;
+    return bo_;
+  }
+}
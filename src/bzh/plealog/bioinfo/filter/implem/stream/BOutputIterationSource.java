@@ -0,0 +1,53 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.stream;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.filter.BIterationSource;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultBuilder;
+
+/**
+ * Implementation of a BIterationSource reading the iterations of a SROutput
+ * already loaded in memory.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BOutputIterationSource implements BIterationSource {
+  private SROutput bo_;
+  private int      index_;
+
+  public BOutputIterationSource(SROutput bo){
+    bo_ = bo;
+  }
+
+  @Override
+  public SROutput getHeader(){
+    return BResultBuilder.createOutput(bo_);
+  }
+
+  @Override
+  public SRIteration next(){
+    if (index_>=bo_.countIteration())
+      return null;
+    return bo_.getIteration(index_++);
+  }
+
+  @Override
+  public void close(){
+  }
+}
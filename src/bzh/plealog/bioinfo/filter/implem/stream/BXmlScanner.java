@@ -0,0 +1,73 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.implem.stream;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Utility class used to locate XML tags within a character stream without
+ * parsing it. For internal use only.
+ * 
+ * @author Patrick G. Durand
+ */
+class BXmlScanner {
+  private Reader reader_;
+
+  /**
+   * Constructor.
+   * 
+   * @param reader the stream to scan. It should be buffered.
+   */
+  public BXmlScanner(Reader reader){
+    reader_ = reader;
+  }
+
+  /**
+   * Reads the stream until a marker is found. The first character of the 
+   * marker must not appear elsewhere within it, which is the case of XML tags.
+   * 
+   * @param marker the text to locate
+   * @param buf where to append what is read, including the marker. Can be
+   * null to skip data.
+   * 
+   * @return true if the marker has been found, false if the end of the stream
+   * has been reached
+   */
+  public boolean readUntil(String marker, StringBuilder buf) throws IOException{
+    int c, pos = 0, size;
+
+    size = marker.length();
+    while((c=reader_.read())!=-1){
+      if (buf!=null)
+        buf.append((char) c);
+      if (c==marker.charAt(pos)){
+        pos++;
+        if (pos==size)
+          return true;
+      }
+      else{
+        pos = (c==marker.charAt(0) ? 1 : 0);
+      }
+    }
+    return false;
+  }
+
+  public void close() throws IOException{
+    reader_.close();
+  }
+}
@@ -26,7 +26,7 @@ import org.junit.runners.Suite.SuiteClasses;
  * @author Patrick G. Durand
  */
 @RunWith(Suite.class)
-@SuiteClasses({ BGraphTest.class, FilterSystemTest.class, BigFilterTest.class })
+@SuiteClasses({ BGraphTest.class, FilterSystemTest.class, BigFilterTest.class, DirectEngineTest.class })
 public class AllTests {
 
 }
@@ -16,14 +16,17 @@
  */
 package test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.BasicConfigurator;
@@ -35,12 +38,21 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
 import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
 import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGCompactGraph;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGHyperEdge;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGVertex;
 import bzh.plealog.bioinfo.filter.implem.datagraph.BGraph;
 import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
 import bzh.plealog.bioinfo.io.searchresult.SerializerSystemFactory;
 import bzh.plealog.hge.api.hypergraph.HDGHyperEdge;
+import bzh.plealog.hge.api.hypergraph.HDGLink;
 import bzh.plealog.hge.api.hypergraph.HDGVertex;
 import bzh.plealog.hge.api.query.HGEManager;
 import bzh.plealog.hge.api.query.HGEQuery;
@@ -314,4 +326,348 @@ public class BGraphTest {
       }
     }
   }
+
+  @Test
+  public void testTypedAccess(){
+    Enumeration<HDGVertex> vertices = graph.vertices();
+    BGVertex vertex;
+    SRHsp hsp;
+    int hsps = 0;
+
+    while(vertices.hasMoreElements()){
+      vertex = (BGVertex) vertices.nextElement();
+      if (vertex.getType().getName().equals(BGDataModel.SRHSP_VERTEX_TYPE)){
+        hsps++;
+        hsp = (SRHsp) vertex.getData();
+        assertTrue(vertex.getDouble("evalue")==hsp.getScores().getEvalue());
+        assertTrue(vertex.getLong("alignLen")==hsp.getScores().getAlignLen());
+        assertTrue(vertex.getValue("alignLen").equals(Long.valueOf(hsp.getScores().getAlignLen())));
+      }
+      else if (vertex.getType().getName().equals(BGDataModel.SRHIT_VERTEX_TYPE)){
+        assertTrue(vertex.getString("id").equals(((SRHit)vertex.getData()).getHitId()));
+        //no sequence info in this Blast result
+        assertTrue(vertex.getLong("siCDate")==BGUtils.MISSING_LONG);
+        assertTrue(vertex.getString("siOrg")==null);
+      }
+    }
+    assertTrue(hsps==20);
+  }
+
+  private static int count(Enumeration<?> enumeration){
+    int n = 0;
+    while(enumeration.hasMoreElements()){
+      enumeration.nextElement();
+      n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void testCompactGraph(){
+    BGCompactGraph cGraph = new BGCompactGraph(sro, bgdm);
+    HDGVertex root = null, hsp = null;
+    
+    assertEquals(41, cGraph.countVertices());
+    assertEquals(40, cGraph.countEdges());
+    assertEquals(41, count(cGraph.vertices()));
+    assertEquals(40, count(cGraph.edges()));
+    //only the levels needed by some vertex types, as BGraph does
+    HashSet<String> types = new HashSet<>(Arrays.asList(BGDataModel.SRHIT_VERTEX_TYPE));
+    BGCompactGraph hitGraph = new BGCompactGraph(sro, bgdm, types);
+    assertEquals(new BGraph(sro, bgdm, types).vertexSet().size(), hitGraph.countVertices()+hitGraph.countEdges());
+    Enumeration<HDGVertex> hitVertices = hitGraph.vertices();
+    while(hitVertices.hasMoreElements()){
+      assertTrue(!hitVertices.nextElement().getType().getName().equals(BGDataModel.SRHSP_VERTEX_TYPE));
+    }
+    //same query results as BGraph
+    assertEquals(prepareQuery1().execute(bgdm, graph), prepareQuery1().execute(bgdm, cGraph));
+    assertEquals(20, prepareQuery2().execute(bgdm, cGraph).size());
+    
+    Enumeration<HDGVertex> vertices = cGraph.vertices();
+    while(vertices.hasMoreElements()){
+      HDGVertex vertex = vertices.nextElement();
+      assertTrue(cGraph.containsVertex(vertex));
+      assertTrue(graph.containsVertex(vertex));
+      assertEquals(graph.degree(vertex), cGraph.degree(vertex));
+      assertEquals(cGraph.degree(vertex), count(cGraph.edges(vertex)));
+      Enumeration<HDGHyperEdge> edges = cGraph.edges(vertex);
+      while(edges.hasMoreElements()){
+        HDGHyperEdge edge = edges.nextElement();
+        assertTrue(cGraph.containsEdge(edge));
+        assertEquals(2, count(cGraph.vertices(edge)));
+        Enumeration<HDGVertex> opposite = cGraph.oppositeVertices(edge, vertex, false);
+        assertTrue(!opposite.nextElement().equals(vertex));
+        assertTrue(!opposite.hasMoreElements());
+      }
+      if (vertex.getType().getName().equals(BGDataModel.SROUTPUT_VERTEX_TYPE))
+        root = vertex;
+      else if (hsp==null && vertex.getType().getName().equals(BGDataModel.SRHSP_VERTEX_TYPE))
+        hsp = vertex;
+    }
+    assertTrue(!cGraph.containsVertex(new BGVertex(sro)));
+    //SROutput -> SRIteration -> SRHit -> SRHsp
+    List<HDGLink> path = cGraph.findPath(root, hsp);
+    assertEquals(6, path.size());
+    assertTrue(path.get(0).getVertex()==root);
+    assertTrue(path.get(5).getVertex()==hsp);
+    assertTrue(path.get(4).getHyperEdge()==path.get(5).getHyperEdge());
+    assertEquals(graph.findPath(root, hsp).size(), path.size());
+  }
+
+  @Test
+  public void testVertexTypes(){
+    BGraph lGraph;
+    
+    //hits only
+    lGraph = new BGraph(sro, bgdm, new HashSet<>(Arrays.asList(BGDataModel.SRHIT_VERTEX_TYPE)));
+    assertEquals(21, count(lGraph.vertices()));
+    assertEquals(20, count(lGraph.edges()));
+    //HSPs: the whole graph since there is no feature
+    lGraph = new BGraph(sro, bgdm, new HashSet<>(Arrays.asList(BGDataModel.SRHSP_VERTEX_TYPE)));
+    assertEquals(41, count(lGraph.vertices()));
+    assertEquals(prepareQuery1().execute(bgdm, graph), prepareQuery1().execute(bgdm, lGraph));
+    
+    //add a feature with two qualifiers to an HSP
+    CoreSystemConfigurator.initializeSystem();
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(
+        SerializerSystemFactory.NCBI_LOADER).load(new File("./data/test/blastp.xml"));
+    FeatureTable ft = CoreSystemConfigurator.getFeatureTableFactory().getFTInstance();
+    Feature feat = CoreSystemConfigurator.getFeatureTableFactory().getFInstance();
+    feat.setKey("Variant");
+    feat.setFrom(25);
+    feat.setTo(25);
+    feat.setStrand(Feature.PLUS_STRAND);
+    feat.addQualifier("Consequence", "missense_variant");
+    feat.addQualifier("Clinical", "likely pathogenic");
+    ft.addFeature(feat);
+    bo.getIteration(0).getHit(0).getHsp(0).setFeatures(ft);
+    assertEquals(44, count(new BGraph(bo, bgdm).vertices()));
+    assertEquals(44, count(new BGraph(bo, bgdm, null).vertices()));
+    assertEquals(41, count(new BGraph(bo, bgdm, 
+        new HashSet<>(Arrays.asList(BGDataModel.SRHSP_VERTEX_TYPE))).vertices()));
+    assertEquals(42, count(new BGraph(bo, bgdm, 
+        new HashSet<>(Arrays.asList(BGDataModel.FEAT_VERTEX_TYPE))).vertices()));
+    assertEquals(44, count(new BGraph(bo, bgdm, 
+        new HashSet<>(Arrays.asList(BGDataModel.QUALIFIER_VERTEX_TYPE))).vertices()));
+  }
+
+  @Test
+  public void testTypedIndexes(){
+    String[] vTypes = {BGDataModel.SROUTPUT_VERTEX_TYPE, BGDataModel.SRITERATION_VERTEX_TYPE,
+        BGDataModel.SRHIT_VERTEX_TYPE, BGDataModel.SRHSP_VERTEX_TYPE, BGDataModel.FEAT_VERTEX_TYPE};
+    int[] vCounts = {1, 1, 19, 20, 0};
+    String[] eTypes = {BGDataModel.CONTAINS_ITERATION_EDGE_TYPE, BGDataModel.CONTAINS_HIT_EDGE_TYPE,
+        BGDataModel.CONTAINS_HSP_EDGE_TYPE, BGDataModel.CONTAINS_FEAT_EDGE_TYPE};
+    int[] eCounts = {1, 19, 20, 0};
+    
+    for (int i = 0; i < vTypes.length; i++){
+      assertEquals(vCounts[i], graph.countVertices(vTypes[i]));
+      Enumeration<HDGVertex> vertices = graph.vertices(vTypes[i]);
+      int n = 0;
+      while(vertices.hasMoreElements()){
+        HDGVertex vertex = vertices.nextElement();
+        assertEquals(vTypes[i], vertex.getType().getName());
+        assertTrue(graph.containsVertex(vertex));
+        n++;
+      }
+      assertEquals(vCounts[i], n);
+    }
+    for (int i = 0; i < eTypes.length; i++){
+      assertEquals(eCounts[i], graph.countEdges(eTypes[i]));
+      assertEquals(eCounts[i], count(graph.edges(eTypes[i])));
+    }
+    
+    BGraph lGraph = new BGraph(sro, bgdm);
+    HDGVertex hsp = lGraph.vertices(BGDataModel.SRHSP_VERTEX_TYPE).nextElement();
+    assertTrue(lGraph.removeVertex(hsp));
+    assertEquals(19, lGraph.countVertices(BGDataModel.SRHSP_VERTEX_TYPE));
+    assertEquals(40, count(lGraph.vertices()));
+    assertTrue(!lGraph.removeVertex(hsp));
+  }
+
+  @Test
+  public void testAdjacency(){
+    BGraph lGraph = new BGraph(sro, bgdm);
+    Enumeration<HDGVertex> vertices = lGraph.vertices();
+    while(vertices.hasMoreElements()){
+      HDGVertex vertex = vertices.nextElement();
+      assertEquals(lGraph.edgesOf(vertex).size(), lGraph.degree(vertex));
+      assertEquals(lGraph.degree(vertex), count(lGraph.edges(vertex)));
+      Enumeration<HDGHyperEdge> edges = lGraph.edges(vertex);
+      while(edges.hasMoreElements()){
+        HDGHyperEdge edge = edges.nextElement();
+        assertEquals(2, count(lGraph.vertices(edge)));
+        Enumeration<HDGVertex> opposite = lGraph.oppositeVertices(edge, vertex, false);
+        assertTrue(!opposite.nextElement().equals(vertex));
+        assertTrue(!opposite.hasMoreElements());
+      }
+    }
+    //removing a vertex also removes its links
+    HDGVertex hit = lGraph.vertices(BGDataModel.SRHIT_VERTEX_TYPE).nextElement();
+    HDGVertex iter = lGraph.vertices(BGDataModel.SRITERATION_VERTEX_TYPE).nextElement();
+    assertEquals(20, lGraph.degree(iter));
+    HDGHyperEdge edge = lGraph.edges(hit).nextElement();
+    lGraph.removeVertex(edge);
+    assertEquals(19, lGraph.degree(iter));
+    assertEquals(lGraph.degree(hit), count(lGraph.edges(hit)));
+    assertEquals(0, count(lGraph.vertices(edge)));
+    
+    //a vertex involved twice in a single hyper-edge
+    lGraph = new BGraph();
+    BGVertex a = new BGVertex("a"), c = new BGVertex("c");
+    a.setType(bgdm.getVertexType(BGDataModel.FEAT_VERTEX_TYPE));
+    c.setType(bgdm.getVertexType(BGDataModel.FEAT_VERTEX_TYPE));
+    edge = new BGHyperEdge();
+    edge.setType(bgdm.getHyperEdgeType(BGDataModel.HAS_FEAT_EDGE_TYPE));
+    lGraph.addVertex(a);
+    lGraph.addVertex(c);
+    lGraph.addVertex(edge);
+    lGraph.addEdge(a, edge);
+    lGraph.addEdge(a, edge);
+    lGraph.addEdge(c, edge);
+    assertEquals(1, lGraph.degree(a));
+    assertEquals(1, count(lGraph.edges(a)));
+    assertEquals(3, count(lGraph.vertices(edge)));
+    Enumeration<HDGVertex> opposite = lGraph.oppositeVertices(edge, a, false);
+    assertTrue(opposite.nextElement()==a);
+    assertTrue(opposite.nextElement()==c);
+    assertTrue(!opposite.hasMoreElements());
+  }
+
+  private static void checkSameGraphs(BGraph expected, BGraph graph){
+    assertEquals(count(expected.vertices()), count(graph.vertices()));
+    assertEquals(count(expected.edges()), count(graph.edges()));
+    Enumeration<HDGVertex> vertices = expected.vertices();
+    while(vertices.hasMoreElements()){
+      HDGVertex vertex = vertices.nextElement();
+      assertTrue(graph.containsVertex(vertex));
+      assertEquals(expected.degree(vertex), graph.degree(vertex));
+    }
+  }
+
+  @Test
+  public void testIncrementalUpdate(){
+    CoreSystemConfigurator.initializeSystem();
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(
+        SerializerSystemFactory.NCBI_LOADER).load(new File("./data/test/blastp.xml"));
+    BGraph lGraph = new BGraph(bo, bgdm);
+    BGraph hspGraph = new BGraph(bo, bgdm, new HashSet<>(Arrays.asList(BGDataModel.SRHSP_VERTEX_TYPE)));
+    
+    //new HSPs, one of them having features
+    SRHit hit = bo.getIteration(0).getHit(3);
+    for (int i = 0; i < 3; i++){
+      SRHsp hsp = hit.getHsp(0).clone(true);
+      hsp.setHspNum(hit.countHsp() + 1);
+      hit.addHsp(hsp);
+      lGraph.addHsp(hit, hsp);
+      hspGraph.addHsp(hit, hsp);
+    }
+    checkSameGraphs(new BGraph(bo, bgdm), lGraph);
+    assertEquals(23, lGraph.countVertices(BGDataModel.SRHSP_VERTEX_TYPE));
+    
+    //features added later on
+    FeatureTable ft = CoreSystemConfigurator.getFeatureTableFactory().getFTInstance();
+    Feature feat = CoreSystemConfigurator.getFeatureTableFactory().getFInstance();
+    feat.setKey("Variant");
+    feat.setFrom(25);
+    feat.setTo(25);
+    feat.setStrand(Feature.PLUS_STRAND);
+    feat.addQualifier("Consequence", "missense_variant");
+    ft.addFeature(feat);
+    SRHsp hsp = bo.getIteration(0).getHit(0).getHsp(0);
+    hsp.setFeatures(ft);
+    lGraph.addFeatureTable(hsp, hsp.getFeatures());
+    hspGraph.addFeatureTable(hsp, hsp.getFeatures());
+    checkSameGraphs(new BGraph(bo, bgdm), lGraph);
+    assertEquals(1, lGraph.countVertices(BGDataModel.QUALIFIER_VERTEX_TYPE));
+    assertEquals(0, hspGraph.countVertices(BGDataModel.FEAT_VERTEX_TYPE));
+    
+    //a new hit along with its HSPs
+    SRHit hit2 = hit.clone(true);
+    hit2.setHitNum(bo.getIteration(0).countHit() + 1);
+    hit2.setHitId("new_hit");
+    bo.getIteration(0).addHit(hit2);
+    lGraph.addHit(bo.getIteration(0), hit2);
+    hspGraph.addHit(bo.getIteration(0), hit2);
+    checkSameGraphs(new BGraph(bo, bgdm), lGraph);
+    checkSameGraphs(new BGraph(bo, bgdm, new HashSet<>(Arrays.asList(BGDataModel.SRHSP_VERTEX_TYPE))), hspGraph);
+    assertEquals(prepareQuery2().execute(bgdm, new BGraph(bo, bgdm)).size(), prepareQuery2().execute(bgdm, lGraph).size());
+    
+    //objects have to be part of the graph
+    try{
+      lGraph.addHsp(sro.getIteration(0).getHit(0), hsp);
+      assertTrue(false);
+    }
+    catch(RuntimeException ex){
+    }
+  }
+
+  @Test
+  public void testUpdateConstructors(){
+    CoreSystemConfigurator.initializeSystem();
+    SROutput bo = SerializerSystemFactory.getLoaderInstance(
+        SerializerSystemFactory.NCBI_LOADER).load(new File("./data/test/blastp.xml"));
+    //graphs created empty can be filled in
+    BGraph lGraph = new BGraph();
+    lGraph.addIteration(bo, bo.getIteration(0));
+    checkSameGraphs(new BGraph(bo, bgdm), lGraph);
+    assertTrue(lGraph.isUpToDate(bo));
+    FeatureTable ft = CoreSystemConfigurator.getFeatureTableFactory().getFTInstance();
+    lGraph = new BGraph(ft, bgdm);
+    lGraph.addIteration(bo, bo.getIteration(0));
+    checkSameGraphs(new BGraph(bo, bgdm), lGraph);
+  }
+
+  @Test
+  public void testConcurrentUpdate() throws Exception{
+    CoreSystemConfigurator.initializeSystem();
+    final SROutput bo = SerializerSystemFactory.getLoaderInstance(
+        SerializerSystemFactory.NCBI_LOADER).load(new File("./data/test/blastp.xml"));
+    final BGraph lGraph = new BGraph(bo, bgdm);
+    final SRHit hit = bo.getIteration(0).getHit(3);
+    final int hsps = prepareQuery2().execute(bgdm, lGraph).size();
+    final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+    
+    //queries are executed while HSPs are added to the graph
+    Thread writer = new Thread(){
+      public void run(){
+        for (int i = 0; i < 200; i++){
+          SRHsp hsp = hit.getHsp(0).clone(true);
+          hsp.setHspNum(hit.countHsp() + 1);
+          hit.addHsp(hsp);
+          lGraph.addHsp(hit, hsp);
+        }
+      }
+    };
+    Thread reader = new Thread(){
+      public void run(){
+        try{
+          int previous = hsps;
+          for (int i = 0; i < 50; i++){
+            lGraph.getLock().readLock().lock();
+            try{
+              int size = prepareQuery2().execute(bgdm, lGraph).size();
+              assertTrue(size >= previous);
+              previous = size;
+            }
+            finally{
+              lGraph.getLock().readLock().unlock();
+            }
+          }
+        }
+        catch(Throwable t){
+          synchronized(errors){
+            errors.add(t);
+          }
+        }
+      }
+    };
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+    assertEquals(errors.toString(), 0, errors.size());
+    assertEquals(hsps + 200, prepareQuery2().execute(bgdm, lGraph).size());
+    assertTrue(lGraph.isUpToDate(bo));
+  }
 }
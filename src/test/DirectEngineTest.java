@@ -0,0 +1,1284 @@
+/* Copyright (C) 2006-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
+import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.bioinfo.api.data.searchresult.utils.SRFactory;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.api.data.searchresult.io.SRLoader;
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BFilterResultView;
+import bzh.plealog.bioinfo.api.filter.BIterationSource;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.api.filter.BValueFile;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.filter.implem.stream.BNcbiXmlIterationSink;
+import bzh.plealog.bioinfo.filter.implem.stream.BNcbiXmlIterationSource;
+import bzh.plealog.bioinfo.filter.implem.stream.BOutputIterationSink;
+import bzh.plealog.bioinfo.filter.implem.stream.BOutputIterationSource;
+import bzh.plealog.bioinfo.filter.implem.BAccessorsBOutput;
+import bzh.plealog.bioinfo.filter.implem.BFilterImplem;
+import bzh.plealog.bioinfo.filter.implem.BGraphCache;
+import bzh.plealog.bioinfo.filter.implem.BPlanCache;
+import bzh.plealog.bioinfo.filter.implem.BSetFunctions;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGUtils;
+import bzh.plealog.bioinfo.filter.implem.datagraph.BGraph;
+import bzh.plealog.bioinfo.filter.implem.datamodel.BGDataModel;
+import bzh.plealog.bioinfo.filter.implem.engine.BBloomFilter;
+import bzh.plealog.bioinfo.filter.implem.engine.BColumnSelector;
+import bzh.plealog.bioinfo.filter.implem.engine.BColumnarStore;
+import bzh.plealog.bioinfo.filter.implem.engine.BCompressedBitSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BDataStatistics;
+import bzh.plealog.bioinfo.filter.implem.engine.BDoublePredicate;
+import bzh.plealog.bioinfo.filter.implem.engine.BFilterSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BLongHashSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BLongPredicate;
+import bzh.plealog.bioinfo.filter.implem.engine.BPatternCache;
+import bzh.plealog.bioinfo.filter.implem.engine.BLongSetPredicate;
+import bzh.plealog.bioinfo.filter.implem.engine.BPredicate;
+import bzh.plealog.bioinfo.filter.implem.engine.BRegExpPredicate;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultBitmap;
+import bzh.plealog.bioinfo.filter.implem.engine.BResultOrdinals;
+import bzh.plealog.bioinfo.filter.implem.engine.BRulePlanner;
+import bzh.plealog.bioinfo.filter.implem.engine.BSelectivityEstimator;
+import bzh.plealog.bioinfo.filter.implem.engine.BRuleCompiler;
+import bzh.plealog.bioinfo.filter.implem.engine.BStringHashSet;
+import bzh.plealog.bioinfo.filter.implem.engine.BStringSetPredicate;
+import bzh.plealog.bioinfo.filter.implem.engine.BValueSetRegistry;
+import bzh.plealog.bioinfo.io.searchresult.SerializerSystemFactory;
+import bzh.plealog.hge.api.query.HGEManager;
+import bzh.plealog.hge.api.query.HGEQuery;
+
+/**
+ * Unit tests of the direct execution engine. Results are compared to the
+ * ones obtained with the HGE based engine.
+ *
+ * @author Patrick G. Durand
+ */
+public class DirectEngineTest {
+  private static SRLoader ncbiBlastLoader;
+  private static ArrayList<File> filterFiles;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    // init logger system (used by castor)
+    BasicConfigurator.configure();
+    // discard castor debug messages
+    Logger.getRootLogger().setLevel(Level.INFO);
+
+    // init API factories
+    CoreSystemConfigurator.initializeSystem();
+    FilterSystemConfigurator.initializeSystem();
+    // setup an NCBI Blast Loader (XML)
+    ncbiBlastLoader = SerializerSystemFactory.getLoaderInstance(SerializerSystemFactory.NCBI_LOADER);
+    // filters to check
+    filterFiles = new ArrayList<File>();
+    FilenameFilter xmlFilter = new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith("filter") && name.endsWith(".xml");
+      }
+    };
+    for (File f : new File("data/test").listFiles(xmlFilter)) {
+      filterFiles.add(f);
+    }
+    for (File f : new File("data/filter").listFiles(xmlFilter)) {
+      filterFiles.add(f);
+    }
+  }
+
+  private FeatureTable makeFakeFeatureTable(boolean withSource) {
+    FeatureTable ft;
+    Feature feat;
+
+    ft = CoreSystemConfigurator.getFeatureTableFactory().getFTInstance();
+    if (withSource) {
+      feat = CoreSystemConfigurator.getFeatureTableFactory().getFInstance();
+      feat.setKey("source");
+      feat.setFrom(1);
+      feat.setTo(269);
+      feat.setStrand(Feature.PLUS_STRAND);
+      feat.addQualifier("organism", "human");
+      ft.addFeature(feat);
+    }
+    feat = CoreSystemConfigurator.getFeatureTableFactory().getFInstance();
+    feat.setKey("Variant");
+    feat.setFrom(25);
+    feat.setTo(25);
+    feat.setStrand(Feature.PLUS_STRAND);
+    feat.addQualifier("Consequence", "missense_variant");
+    feat.addQualifier("Clinical", "uncertain significance; likely pathogenic");
+    ft.addFeature(feat);
+    return ft;
+  }
+
+  private SROutput loadData() {
+    SROutput bo = ncbiBlastLoader.load(new File("data/test/blastp.xml"));
+    assertNotNull(bo);
+    bo.getIteration(0).getHit(0).getHsp(0).setFeatures(makeFakeFeatureTable(true));
+    bo.getIteration(0).getHit(5).getHsp(0).setFeatures(makeFakeFeatureTable(false));
+    bo.getIteration(0).getHit(15).getHsp(0).setFeatures(makeFakeFeatureTable(false));
+    return bo;
+  }
+
+  /**
+   * Returns a text representation of a filtered result: iteration, hit and HSP numbers.
+   */
+  public static String dump(SROutput bo) {
+    StringBuilder buf = new StringBuilder();
+    SRIteration bi;
+    SRHit hit;
+
+    if (bo == null)
+      return "null";
+    for (int i = 0; i < bo.countIteration(); i++) {
+      bi = bo.getIteration(i);
+      buf.append("I").append(bi.getIterationIterNum()).append(":");
+      for (int j = 0; j < bi.countHit(); j++) {
+        hit = bi.getHit(j);
+        buf.append(" H").append(hit.getHitNum()).append("[");
+        for (int k = 0; k < hit.countHsp(); k++) {
+          buf.append(hit.getHsp(k).getHspNum()).append(k + 1 < hit.countHsp() ? "," : "");
+        }
+        buf.append("]");
+      }
+      buf.append("\n");
+    }
+    return buf.toString();
+  }
+
+  private void compareEngines(boolean exclusive) {
+    SROutput bo = loadData();
+
+    for (File f : filterFiles) {
+      BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+      assertNotNull(filter);
+      filter.setExclusive(exclusive);
+      filter.setEngineType(BFilter.ENGINE_HGE);
+      String hge = dump(filter.execute(bo));
+      BFilterImplem compact = (BFilterImplem) filter.clone();
+      compact.setCompactGraph(true);
+      assertEquals(f.getName(), hge, dump(compact.execute(bo)));
+      filter.setEngineType(BFilter.ENGINE_DIRECT);
+      String direct = dump(filter.execute(bo));
+      assertEquals(f.getName(), hge, direct);
+    }
+  }
+
+  @Test
+  public void testExclusiveFilters() {
+    compareEngines(true);
+  }
+
+  @Test
+  public void testInclusiveFilters() {
+    compareEngines(false);
+  }
+
+  @Test
+  public void testCloneKeepsEngine() {
+    BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(),
+        new File("data/test/filter1.xml"));
+    filter.setEngineType(BFilter.ENGINE_DIRECT);
+    BFilter filter2 = (BFilter) filter.clone();
+    assertEquals(BFilter.ENGINE_DIRECT, filter2.getEngineType());
+    SROutput bo = loadData();
+    assertEquals(15, filter2.execute(bo).getIteration(0).countHit());
+  }
+
+  @Test
+  public void testRuleCompiler() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    SROutput bo = loadData();
+    SRHit hit = bo.getIteration(0).getHit(0);
+
+    BPredicate p = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitAccession),
+        BOperatorAccessors.OPE_Equal, "1fqy-a");
+    assertEquals(BPredicate.MATCH, p.eval(hit));
+
+    HashSet<String> ids = new HashSet<String>();
+    ids.add("1FQY-A");
+    p = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitAccession),
+        BOperatorAccessors.OPE_FUNC_StrNotInSet, ids);
+    assertTrue(p instanceof BStringSetPredicate);
+    assertEquals(BPredicate.NO_MATCH, p.eval(hit));
+
+    HashSet<Long> nums = new HashSet<Long>();
+    nums.add(3l);
+    nums.add(1l);
+    p = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitRank),
+        BOperatorAccessors.OPE_FUNC_LongInSet, nums);
+    assertTrue(p instanceof BLongSetPredicate);
+    assertEquals(BPredicate.MATCH, p.eval(hit));
+    assertTrue(((BLongSetPredicate) p).test(3l));
+
+    p = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitRank),
+        BOperatorAccessors.OPE_GreatherThan, 1.5d);
+    assertTrue(p instanceof BDoublePredicate);
+    assertEquals(BPredicate.NO_MATCH, p.eval(hit));
+    assertEquals(BPredicate.ERROR, p.test((Object) null));
+  }
+
+  /**
+   * Creates a multi-query result: iterations are copies of the first one
+   * having various iteration numbers.
+   */
+  private SROutput makeMultiQueryData(int nIter) {
+    SROutput src = loadData();
+    SRFactory bf = FilterSystemConfigurator.getSRFactory();
+    SROutput bo = bf.createBOutput();
+    bo.setBlastType(src.getBlastType());
+    bo.setBlastOutputParam(src.getBlastOutputParam());
+    bo.setRequestInfo(src.getRequestInfo());
+    for (int i = 0; i < nIter; i++) {
+      SRIteration model = loadData().getIteration(0);
+      SRIteration bi = bf.createBIteration();
+      bi.setIterationIterNum(i + 1);
+      bi.setIterationQueryID("query" + (i + 1));
+      // keep some iterations without any hit
+      if (i % 3 != 2) {
+        for (int j = 0; j < model.countHit(); j++) {
+          bi.addHit(model.getHit(j));
+        }
+      }
+      bo.addIteration(bi);
+    }
+    return bo;
+  }
+
+  @Test
+  public void testParallelExecution() {
+    SROutput bo = makeMultiQueryData(25);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (File f : filterFiles) {
+        BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+        for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+          filter.setEngineType(engine);
+          assertEquals(f.getName(), dump(filter.execute(bo)), dump(filter.execute(bo, pool)));
+        }
+      }
+      // threads share the sets of values resolved by the filter
+      BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+          FilterSystemConfigurator.getFilterableModel(), "sets");
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitRank,
+          BOperatorAccessors.OPE_FUNC_LongInSet, new HashSet<Long>(Arrays.asList(1l, 3l, 5l))));
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitAccession,
+          BOperatorAccessors.OPE_FUNC_StrNotInSet, new HashSet<String>(Arrays.asList("1FQY-A"))));
+      for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+        filter.setEngineType(engine);
+        String expected = dump(filter.execute(bo));
+        assertFalse("null".equals(expected));
+        for (int i = 0; i < 3; i++) {
+          assertEquals(expected, dump(filter.execute(bo, pool)));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testStreamExecution() throws Exception {
+    SROutput bo = makeMultiQueryData(7);
+    File input = File.createTempFile("bfilter", ".xml");
+    File output = File.createTempFile("bfilter", ".xml");
+    try {
+      // in memory streaming
+      for (File f : filterFiles) {
+        BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+        BOutputIterationSink sink = new BOutputIterationSink();
+        filter.execute(new BOutputIterationSource(bo), sink);
+        assertEquals(f.getName(), dump(filter.execute(bo)), dump(sink.getResult()));
+      }
+      // the sink is ended even if the source fails
+      final BOutputIterationSource memSource = new BOutputIterationSource(bo);
+      final boolean[] ended = new boolean[1];
+      BFilter failing = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(),
+          filterFiles.get(0));
+      try {
+        failing.execute(new BIterationSource() {
+          private int n;
+
+          public SROutput getHeader() {
+            return memSource.getHeader();
+          }
+
+          public SRIteration next() {
+            if (++n == 3)
+              throw new BFilterException("read error");
+            return memSource.next();
+          }
+
+          public void close() {
+          }
+        }, new BOutputIterationSink() {
+          public void end() {
+            super.end();
+            ended[0] = true;
+            throw new BFilterException("write error");
+          }
+        });
+        assertTrue(false);
+      } catch (BFilterException ex) {
+        // the error of the sink is reported along with the one of the source
+        assertEquals("read error", ex.getMessage());
+        assertEquals(1, ex.getSuppressed().length);
+        assertEquals("write error", ex.getSuppressed()[0].getMessage());
+      }
+      assertTrue(ended[0]);
+      // NCBI XML file streaming
+      SerializerSystemFactory.getWriterInstance(SerializerSystemFactory.NCBI_WRITER).write(input, bo);
+      SROutput bo2 = ncbiBlastLoader.load(input);
+      for (File f : filterFiles) {
+        BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+        filter.setEngineType(BFilter.ENGINE_DIRECT);
+        BNcbiXmlIterationSource source = new BNcbiXmlIterationSource(input);
+        int n;
+        try {
+          n = filter.execute(source, new BNcbiXmlIterationSink(output));
+        } finally {
+          source.close();
+        }
+        SROutput expected = filter.execute(bo2);
+        if (expected == null) {
+          assertEquals(f.getName(), 0, n);
+          assertFalse(f.getName(), output.exists());
+        } else {
+          assertEquals(f.getName(), expected.countIteration(), n);
+          assertEquals(f.getName(), dump(expected), dump(ncbiBlastLoader.load(output)));
+        }
+      }
+    } finally {
+      input.delete();
+      output.delete();
+    }
+  }
+
+  @Test
+  public void testFilterSet() {
+    SROutput bo = makeMultiQueryData(4);
+    for (boolean exclusive : new boolean[] { true, false }) {
+      BFilterSet set = new BFilterSet(FilterSystemConfigurator.getFilterableModel());
+      for (File f : filterFiles) {
+        BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+        filter.setExclusive(exclusive);
+        set.add(filter);
+      }
+      SROutput[] results = set.execute(bo);
+      assertEquals(set.size(), results.length);
+      for (int i = 0; i < set.size(); i++) {
+        assertEquals(set.getFilter(i).getName(), dump(set.getFilter(i).execute(bo)), dump(results[i]));
+      }
+      // numerical filters executed over columns give the same results
+      set.setColumnar(true);
+      results = set.execute(bo);
+      int columnar = 0;
+      for (int i = 0; i < set.size(); i++) {
+        assertEquals(set.getFilter(i).getName(), dump(set.getFilter(i).execute(bo)), dump(results[i]));
+        if (BColumnarStore.canExecute(FilterSystemConfigurator.getFilterableModel(), set.getFilter(i)))
+          columnar++;
+      }
+      assertTrue(columnar > 0 && columnar < set.size());
+    }
+    // modified filters are compiled again
+    BFilterSet set = new BFilterSet(FilterSystemConfigurator.getFilterableModel());
+    BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+        FilterSystemConfigurator.getFilterableModel(), "set");
+    filter.setExclusive(true);
+    BRule rule = FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitRank,
+        BOperatorAccessors.OPE_LessThan, 4l);
+    filter.add(rule);
+    set.add(filter);
+    String expected = dump(filter.execute(bo));
+    assertEquals(expected, dump(set.execute(bo)[0]));
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitRank,
+        BOperatorAccessors.OPE_LessThan, 2l));
+    assertFalse(expected.equals(dump(filter.execute(bo))));
+    assertEquals(dump(filter.execute(bo)), dump(set.execute(bo)[0]));
+    filter.remove(rule);
+    filter.setExclusive(false);
+    assertEquals(dump(filter.execute(bo)), dump(set.execute(bo)[0]));
+  }
+
+  @Test
+  public void testPlanCache() {
+    SROutput bo = loadData();
+    BPlanCache.getInstance().clear();
+    BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(),
+        new File("data/test/filter1.xml"));
+    String expected = dump(filter.execute(bo));
+    assertEquals(1, BPlanCache.getInstance().size());
+    // clones and reloaded filters share the same plan, whatever the engine
+    BFilter filter2 = (BFilter) filter.clone();
+    filter2.setEngineType(BFilter.ENGINE_DIRECT);
+    assertEquals(expected, dump(filter2.execute(bo)));
+    BFilter filter3 = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(),
+        new File("data/test/filter1.xml"));
+    assertEquals(expected, dump(filter3.execute(bo)));
+    assertEquals(1, BPlanCache.getInstance().size());
+    // a different filter type requires a new plan
+    filter3.setExclusive(!filter3.getExclusive());
+    filter3.execute(bo);
+    assertEquals(2, BPlanCache.getInstance().size());
+    // least recently used plans are discarded first
+    BPlanCache.getInstance().setMaxSize(1);
+    assertEquals(1, BPlanCache.getInstance().size());
+    BPlanCache.getInstance().setMaxSize(BPlanCache.DEFAULT_SIZE);
+  }
+
+  @Test
+  public void testGraphCache() {
+    BGraphCache cache = BGraphCache.getInstance();
+    cache.clear();
+    SROutput bo = loadData();
+    BGDataModel gModel = new BGDataModel();
+    BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+        FilterSystemConfigurator.getFilterableModel(), "graph");
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_EValue,
+        BOperatorAccessors.OPE_LessThan, 1e-30d));
+    // filters only use the cache when asked to
+    String expected = dump(filter.execute(bo));
+    assertEquals(0, cache.size());
+    filter.setGraphCache(true);
+    assertEquals(expected, dump(filter.execute(bo)));
+    assertEquals(1, cache.size());
+    // graph is reused by next executions, whatever the filter
+    BFilter filter2 = (BFilter) filter.clone();
+    filter2.setExclusive(!filter2.getExclusive());
+    filter2.execute(bo);
+    assertEquals(1, cache.size());
+    HashSet<String> hsps = new HashSet<>(Arrays.asList(BGDataModel.SRHSP_VERTEX_TYPE));
+    HashSet<String> feats = new HashSet<>(Arrays.asList(BGDataModel.FEAT_VERTEX_TYPE));
+    BGraph graph = cache.getGraph(bo, gModel, hsps);
+    assertSame(graph, cache.getGraph(bo, gModel, hsps));
+    // a graph lacking some vertex types is replaced
+    BGraph graph2 = cache.getGraph(bo, gModel, feats);
+    assertTrue(graph != graph2);
+    assertSame(graph2, cache.getGraph(bo, gModel, hsps));
+    assertEquals(1, cache.size());
+    // other data have their own graph
+    SROutput bo2 = loadData();
+    assertEquals(expected, dump(filter.execute(bo2)));
+    assertEquals(2, cache.size());
+    // cached graphs can be updated in place
+    SRHit hit = bo.getIteration(0).getHit(0);
+    SRHsp hsp = hit.getHsp(0).clone(true);
+    hsp.setHspNum(hit.countHsp() + 1);
+    hit.addHsp(hsp);
+    assertEquals(1, cache.getCachedGraphs(bo).size());
+    for (BGraph g : cache.getCachedGraphs(bo)) {
+      g.addHsp(hit, hsp);
+    }
+    assertSame(graph2, cache.getGraph(bo, gModel, hsps));
+    // otherwise, adding an HSP makes the graph out of date
+    hsp = hit.getHsp(0).clone(true);
+    hsp.setHspNum(hit.countHsp() + 1);
+    hit.addHsp(hsp);
+    assertTrue(graph2 != cache.getGraph(bo, gModel, hsps));
+    assertTrue(!expected.equals(dump(filter.execute(bo))));
+    // explicit invalidation
+    cache.invalidate(bo);
+    assertEquals(1, cache.size());
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testGraphCacheBounds() {
+    SROutput bo = loadData(), bo2 = loadData();
+    BGDataModel gModel = new BGDataModel();
+    BGraph graph = new BGraph(bo, gModel, null);
+    int nodes = graph.vertexSet().size();
+    // the cache is bounded by the total size of its graphs
+    BGraphCache cache = new BGraphCache(BGraphCache.DEFAULT_SIZE, nodes + nodes / 2);
+    graph = cache.getGraph(bo, gModel, null);
+    assertEquals(1, cache.size());
+    cache.getGraph(bo2, gModel, null);
+    assertEquals(1, cache.size());
+    assertTrue(graph != cache.getGraph(bo, gModel, null));
+    assertEquals(0, cache.getCachedGraphs(bo2).size());
+    // graphs larger than the limit are not cached
+    cache.setMaxNodes(nodes - 1);
+    assertEquals(0, cache.size());
+    assertNotNull(cache.getGraph(bo, gModel, null));
+    assertEquals(0, cache.size());
+    // graphs growing in place are measured again
+    SROutput bo3 = loadData(), bo4 = loadData();
+    BGraphCache cache2 = new BGraphCache(BGraphCache.DEFAULT_SIZE, 2 * nodes);
+    cache2.getGraph(bo3, gModel, null);
+    cache2.getGraph(bo4, gModel, null);
+    assertEquals(2, cache2.size());
+    SRIteration bi = loadData().getIteration(0);
+    bo3.addIteration(bi);
+    cache2.getCachedGraphs(bo3).get(0).addIteration(bo3, bi);
+    cache2.setMaxNodes(2 * nodes);
+    assertEquals(1, cache2.size());
+    assertEquals(0, cache2.getCachedGraphs(bo3).size());
+    // an evicted graph no longer keeps its SROutput in memory
+    cache.setMaxNodes(BGraphCache.DEFAULT_NODES);
+    cache.getGraph(bo2, gModel, null);
+    WeakReference<SROutput> ref = new WeakReference<SROutput>(bo2);
+    bo2 = null;
+    cache.setMaxSize(0);
+    for (int i = 0; i < 5 && ref.get() != null; i++) {
+      System.gc();
+    }
+    assertEquals(null, ref.get());
+  }
+
+  @Test
+  public void testCompactGraphVertexTypes() {
+    SROutput bo = loadData();
+    final FeatureTable ft = makeFakeFeatureTable(true);
+    final AtomicInteger reads = new AtomicInteger();
+    // counts the graphs walking the features
+    FeatureTable spy = (FeatureTable) Proxy.newProxyInstance(FeatureTable.class.getClassLoader(),
+        new Class<?>[] { FeatureTable.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("enumFeatures"))
+              reads.incrementAndGet();
+            return method.invoke(ft, args);
+          }
+        });
+    bo.getIteration(0).getHit(0).getHsp(0).setFeatures(spy);
+    BFilterImplem filter = (BFilterImplem) FilterSystemConfigurator.getFilterFactory()
+        .createFilter(FilterSystemConfigurator.getFilterableModel(), "hits");
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitLength,
+        BOperatorAccessors.OPE_GreatherThan, 260l));
+    filter.setEngineType(BFilter.ENGINE_HGE);
+    String hge = dump(filter.execute(bo));
+    reads.set(0);
+    filter.setCompactGraph(true);
+    assertEquals(hge, dump(filter.execute(bo)));
+    assertEquals(0, reads.get());
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_FeatureType,
+        BOperatorAccessors.OPE_Equal, "source"));
+    filter.execute(bo);
+    assertTrue(reads.get() > 0);
+  }
+
+  @Test
+  public void testGraphCacheStructure() {
+    BGraphCache.getInstance().clear();
+    SROutput bo = loadData();
+    BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+        FilterSystemConfigurator.getFilterableModel(), "variant");
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_FeatureType,
+        BOperatorAccessors.OPE_Equal, "Variant"));
+    filter.setGraphCache(true);
+    BFilter direct = (BFilter) filter.clone();
+    direct.setEngineType(BFilter.ENGINE_DIRECT);
+    assertEquals(dump(direct.execute(bo)), dump(filter.execute(bo)));
+    // features set on an existing HSP make the cached graph out of date
+    bo.getIteration(0).getHit(3).getHsp(0).setFeatures(makeFakeFeatureTable(false));
+    String expected = dump(direct.execute(bo));
+    assertEquals(expected, dump(filter.execute(bo)));
+    // so do replaced features and qualifiers
+    bo.getIteration(0).getHit(3).getHsp(0).setFeatures(null);
+    expected = dump(direct.execute(bo));
+    assertEquals(expected, dump(filter.execute(bo)));
+    bo.getIteration(0).getHit(0).getHsp(0).getFeatures().enumFeatures().nextElement()
+        .addQualifier("note", "new");
+    BGraph graph = BGraphCache.getInstance().getGraph(bo, new BGDataModel(), null);
+    assertTrue(graph.isUpToDate(bo));
+    bo.getIteration(0).getHit(0).getHsp(0).getFeatures().enumFeatures().nextElement()
+        .addQualifier("note", "newer");
+    assertTrue(!graph.isUpToDate(bo));
+    assertTrue(graph != BGraphCache.getInstance().getGraph(bo, new BGDataModel(), null));
+    BGraphCache.getInstance().clear();
+  }
+
+  @Test
+  public void testResultView() {
+    SROutput bo = makeMultiQueryData(4);
+    for (File f : filterFiles) {
+      BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+      for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+        filter.setEngineType(engine);
+        SROutput expected = filter.execute(bo);
+        BFilterResultView view = filter.executeView(bo);
+        if (expected == null) {
+          assertEquals(f.getName(), null, view);
+          continue;
+        }
+        assertEquals(f.getName(), dump(expected), dump(view.materialize()));
+        int hits = 0, hsps = 0;
+        for (int i = 0; i < view.countIteration(); i++) {
+          assertEquals(expected.getIteration(i).countHit(), view.countHit(i));
+          for (int j = 0; j < view.countHit(i); j++) {
+            hsps += view.countHsp(i, j);
+            assertSame(bo, view.getSource());
+            assertEquals(expected.getIteration(i).getHit(j).getHitNum(), view.getHit(i, j).getHitNum());
+          }
+          hits += view.countHit(i);
+        }
+        assertEquals(hits, view.getTotalHits());
+        assertEquals(hsps, view.getTotalHsps());
+      }
+    }
+  }
+
+  private BitSet randomBits(Random rnd, int n) {
+    BitSet bits = new BitSet();
+    for (int i = 0; i < n; i++) {
+      bits.set(rnd.nextInt(1000));
+    }
+    return bits;
+  }
+
+  @Test
+  public void testCompressedBitSet() {
+    Random rnd = new Random(7);
+    for (int i = 0; i < 50; i++) {
+      BitSet a = randomBits(rnd, rnd.nextInt(100)), b = randomBits(rnd, rnd.nextInt(500));
+      BCompressedBitSet ca = new BCompressedBitSet(a), cb = new BCompressedBitSet(b);
+      assertEquals(a, ca.toBitSet());
+      assertEquals(a.cardinality(), ca.cardinality());
+      BitSet r = (BitSet) a.clone();
+      r.and(b);
+      assertEquals(r, ca.and(cb).toBitSet());
+      r = (BitSet) a.clone();
+      r.or(b);
+      assertEquals(r, ca.or(cb).toBitSet());
+      r = (BitSet) a.clone();
+      r.andNot(b);
+      assertEquals(r, ca.andNot(cb).toBitSet());
+      assertEquals(new BCompressedBitSet(r), ca.andNot(cb));
+    }
+  }
+
+  @Test
+  public void testResultBitmap() {
+    SROutput bo = makeMultiQueryData(4);
+    BResultOrdinals ordinals = new BResultOrdinals(bo);
+    ArrayList<BResultBitmap> results = new ArrayList<BResultBitmap>();
+    for (File f : filterFiles) {
+      BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+      BResultBitmap bitmap = new BResultBitmap(ordinals, filter.executeView(bo));
+      assertEquals(f.getName(), dump(filter.execute(bo)), dump(bitmap.materialize()));
+      results.add(bitmap);
+    }
+    for (BResultBitmap a : results) {
+      for (BResultBitmap b : results) {
+        BResultBitmap and = a.and(b), or = a.or(b), andNot = a.andNot(b);
+        assertEquals(a.getHsps().and(b.getHsps()), and.getHsps());
+        assertEquals(a.countHsps(), and.countHsps() + andNot.countHsps());
+        assertEquals(a.countHsps() + b.countHsps() - and.countHsps(), or.countHsps());
+        assertTrue(or.countHits() >= Math.max(a.countHits(), b.countHits()));
+        assertTrue(a.andNot(a).isEmpty());
+        assertEquals(dump(a.materialize()), dump(a.or(a).materialize()));
+      }
+    }
+  }
+
+  @Test
+  public void testIncrementalFiltering() {
+    SROutput bo = makeMultiQueryData(4);
+    ArrayList<BRule> allRules = new ArrayList<BRule>();
+    for (File f : filterFiles) {
+      BFilter filter = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(), f);
+      Iterator<BRule> iter = filter.getRules();
+      while (iter.hasNext()) {
+        allRules.add(iter.next());
+      }
+    }
+    // tighten an exclusive filter one rule at a time
+    for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+      for (int start = 0; start < allRules.size(); start++) {
+        BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+            FilterSystemConfigurator.getFilterableModel(), "incremental");
+        filter.setExclusive(true);
+        filter.setEngineType(engine);
+        filter.setIncrementalRefiltering(true);
+        for (int i = start; i < Math.min(start + 3, allRules.size()); i++) {
+          filter.add((BRule) allRules.get(i).clone());
+          String incremental = dump(filter.execute(bo));
+          BFilter fresh = (BFilter) filter.clone();
+          assertEquals(filter.getTxtString(), dump(fresh.execute(bo)), incremental);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIncrementalFilteringChangedSource() {
+    for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+      SROutput bo = loadData();
+      BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+          FilterSystemConfigurator.getFilterableModel(), "incremental");
+      filter.setExclusive(true);
+      filter.setEngineType(engine);
+      filter.setIncrementalRefiltering(true);
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_EValue,
+          BOperatorAccessors.OPE_LessThan, 1d));
+      filter.execute(bo);
+      // an HSP appended to the source after the last execution is not missed
+      SRHit hit = bo.getIteration(0).getHit(1);
+      SRHsp hsp = hit.getHsp(0).clone(true);
+      hsp.setHspNum(7);
+      hit.addHsp(hsp);
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_AlignLength,
+          BOperatorAccessors.OPE_GreatherThan, 0));
+      BFilter fresh = (BFilter) filter.clone();
+      fresh.setIncrementalRefiltering(false);
+      String expected = dump(fresh.execute(bo));
+      assertTrue(expected.contains("H2[1,7]"));
+      assertEquals(expected, dump(filter.execute(bo)));
+    }
+  }
+
+  @Test
+  public void testRulePlanner() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    final BPredicate regexp = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitDefinition),
+        BOperatorAccessors.OPE_MatchRegExp, "aquaporin.*");
+    final BPredicate str = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitAccession),
+        BOperatorAccessors.OPE_Equal, "1fqy-a");
+    final BPredicate num = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitLength),
+        BOperatorAccessors.OPE_GreatherThan, 100l);
+    // cheap rules first
+    BPredicate[] rules = new BPredicate[] { regexp, str, num };
+    BRulePlanner.DEFAULT.order(rules, true);
+    assertSame(num, rules[0]);
+    assertSame(str, rules[1]);
+    assertSame(regexp, rules[2]);
+    // no ordering for a logical OR
+    rules = new BPredicate[] { regexp, str, num };
+    BRulePlanner.DEFAULT.order(rules, false);
+    assertSame(regexp, rules[0]);
+    // a rule passing almost all objects goes last
+    BRulePlanner planner = new BRulePlanner(new BSelectivityEstimator() {
+      public double estimate(BPredicate predicate) {
+        return predicate == num ? 1d : -1d;
+      }
+    });
+    rules = new BPredicate[] { num, str, regexp };
+    planner.order(rules, true);
+    assertSame(str, rules[0]);
+    assertSame(num, rules[2]);
+  }
+
+  @Test
+  public void testDataStatistics() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    SROutput bo = loadData();
+    SRIteration bi = bo.getIteration(0);
+    int nHsps = 0;
+    for (int i = 0; i < bi.countHit(); i++) {
+      nHsps += bi.getHit(i).countHsp();
+    }
+    // sample large enough to hold all values: estimates are exact
+    BDataStatistics stats = new BDataStatistics(model, bo, 10000);
+    assertEquals(bi.countHit(), stats.getObjectCount(BGDataModel.SRHIT_VERTEX_TYPE));
+    assertEquals(nHsps, stats.getObjectCount(BGDataModel.SRHSP_VERTEX_TYPE));
+    assertTrue(stats.getSketch(BAccessorsBOutput.ACC_HitDefinition).getTermFrequency("aquaporin") > 0);
+    assertTrue(stats.getSketch(BAccessorsBOutput.ACC_EValue).getMin() <= stats.getSketch(BAccessorsBOutput.ACC_EValue).getMax());
+    BRule rule = FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_EValue,
+        BOperatorAccessors.OPE_LessThan, 0.001d);
+    BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(model, "stats");
+    filter.add(rule);
+    SROutput result = filter.execute(bo);
+    int passing = 0;
+    for (int i = 0; i < result.getIteration(0).countHit(); i++) {
+      passing += result.getIteration(0).getHit(i).countHsp();
+    }
+    assertEquals(passing, stats.estimateObjects(rule));
+    assertEquals(passing, stats.estimateHsps(filter));
+    int hits = stats.estimateHits(filter);
+    assertTrue(hits > 0 && hits <= bi.countHit());
+    // a filter estimate never exceeds data size
+    for (File f : filterFiles) {
+      filter = FilterSystemConfigurator.getSerializer().load(model, f);
+      assertTrue(f.getName(), stats.estimateHits(filter) <= bi.countHit());
+      assertTrue(f.getName(), stats.estimateHsps(filter) <= nHsps);
+    }
+    // statistics can order the rules of filters executed by the direct engine
+    final BDataStatistics estimator = stats;
+    final int[] calls = new int[1];
+    BSelectivityEstimator counting = new BSelectivityEstimator() {
+      public double estimate(BPredicate predicate) {
+        calls[0]++;
+        return estimator.estimate(predicate);
+      }
+    };
+    for (File f : filterFiles) {
+      filter = FilterSystemConfigurator.getSerializer().load(model, f);
+      filter.setExclusive(true);
+      String expected = dump(filter.execute(bo));
+      BFilterImplem ordered = (BFilterImplem) filter.clone();
+      ordered.setEngineType(BFilter.ENGINE_DIRECT);
+      ordered.setSelectivityEstimator(counting);
+      assertEquals(f.getName(), expected, dump(ordered.execute(bo)));
+      assertSame(counting, ((BFilterImplem) ordered.clone()).getSelectivityEstimator());
+    }
+    assertTrue(calls[0] > 0);
+  }
+
+  @Test
+  public void testRegExpLiteral() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    SROutput bo = loadData();
+    SRIteration bi = bo.getIteration(0);
+    assertEquals("pathogen", BPatternCache.getLiteral("(?i)(pathogen)"));
+    assertEquals("water channel", BPatternCache.getLiteral("water channel"));
+    assertEquals(null, BPatternCache.getLiteral("aqua.*"));
+    assertEquals(null, BPatternCache.getLiteral("(?i)(a)|(b)"));
+    // literal search and regular expression give the same results
+    String[][] pairs = new String[][] { { "(?i)(AQUAPORIN)", "(?i)(AQUAPORIN)+" }, { "Aquaporin", "Aquaporin{1}" },
+        { "(?i)chain a", "(?i)chain [a]" }, { "Chain A", "Chain [A]" }, { "", ".?" } };
+    for (String[] pair : pairs) {
+      for (String ope : new String[] { BOperatorAccessors.OPE_MatchRegExp, BOperatorAccessors.OPE_NotMatchRegExp }) {
+        BPredicate literal = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitDefinition), ope,
+            pair[0]);
+        BPredicate regexp = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitDefinition), ope,
+            pair[1]);
+        assertTrue(((BRegExpPredicate) literal).isLiteral());
+        assertFalse(((BRegExpPredicate) regexp).isLiteral());
+        int passing = 0;
+        for (int i = 0; i < bi.countHit(); i++) {
+          assertEquals(pair[0], regexp.eval(bi.getHit(i)), literal.eval(bi.getHit(i)));
+          passing += literal.eval(bi.getHit(i)) == BPredicate.MATCH ? 1 : 0;
+        }
+        if (pair[0].length() > 0) {
+          assertTrue(pair[0], passing > 0 && passing < bi.countHit());
+        }
+      }
+    }
+    // compiled patterns are shared
+    BPatternCache cache = new BPatternCache(2);
+    assertSame(cache.getPattern("a+"), cache.getPattern("a+"));
+    cache.getPattern("b+");
+    cache.getPattern("c+");
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testValueSets() {
+    SROutput bo = loadData();
+    SRIteration bi = bo.getIteration(0);
+    // large sets containing a few real values
+    HashSet<String> ids = new HashSet<String>();
+    HashSet<Long> ranks = new HashSet<Long>();
+    for (int i = 0; i < 100000; i++) {
+      ids.add("ACC" + i);
+      ranks.add(1000l + i);
+    }
+    ids.add(bi.getHit(2).getHitAccession());
+    ids.add(bi.getHit(7).getHitAccession());
+    ranks.add(3l);
+    ranks.add(Long.MIN_VALUE);
+    // compiled sets
+    BStringHashSet sSet = BValueSetRegistry.getStringSet(BOperatorAccessors.OPE_FUNC_StrInSet, ids);
+    assertEquals(ids.size(), sSet.size());
+    assertTrue(sSet.contains("ACC99999"));
+    assertFalse(sSet.contains("ACC100000"));
+    assertSame(sSet, BValueSetRegistry.getStringSet(BOperatorAccessors.OPE_FUNC_StrNotInSet, new HashSet<String>(ids)));
+    assertSame(sSet, BValueSetRegistry.findStringSet(sSet.getId()));
+    BLongHashSet lSet = BValueSetRegistry.getLongSet(BOperatorAccessors.OPE_FUNC_LongInSet, ranks);
+    assertEquals(ranks.size(), lSet.size());
+    assertTrue(lSet.contains(Long.MIN_VALUE));
+    assertTrue(lSet.contains(100999l));
+    assertFalse(lSet.contains(4l));
+    assertFalse(lSet.getId().equals(sSet.getId()));
+    // both engines agree
+    String[][] rules = new String[][] { { BAccessorsBOutput.ACC_HitAccession, BOperatorAccessors.OPE_FUNC_StrInSet },
+        { BAccessorsBOutput.ACC_HitAccession, BOperatorAccessors.OPE_FUNC_StrNotInSet },
+        { BAccessorsBOutput.ACC_HitRank, BOperatorAccessors.OPE_FUNC_LongInSet },
+        { BAccessorsBOutput.ACC_HitRank, BOperatorAccessors.OPE_FUNC_LongNotInSet } };
+    for (String[] r : rules) {
+      BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+          FilterSystemConfigurator.getFilterableModel(), "sets");
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(r[0], r[1],
+          r[0].equals(BAccessorsBOutput.ACC_HitRank) ? ranks : ids));
+      filter.setEngineType(BFilter.ENGINE_HGE);
+      String hge = dump(filter.execute(bo));
+      filter.setEngineType(BFilter.ENGINE_DIRECT);
+      String direct = dump(filter.execute(bo));
+      assertEquals(r[1], hge, direct);
+      assertFalse(r[1], "null".equals(hge));
+    }
+  }
+
+  /**
+   * A filter whose HGE query refers to a set of values which is not registered.
+   */
+  private static class UnknownSetFilter extends BFilterImplem {
+    public UnknownSetFilter() {
+      super(FilterSystemConfigurator.getFilterableModel());
+    }
+
+    @Override
+    protected void setQuery(HGEQuery query) {
+      query = HGEManager.newHQuery();
+      query.addDeclaration(GR_VAR + BO_VAR + "-" + BI_VAR + IN_VAR + BGDataModel.CONTAINS_ITERATION_EDGE_TYPE + "\"");
+      query.addDeclaration(E2_VAR + ":" + BI_VAR + "-" + BH_VAR + IN_VAR + BGDataModel.CONTAINS_HIT_EDGE_TYPE + "\"");
+      query.addDeclaration(E3_VAR + ":" + BH_VAR + "-" + BS_VAR + IN_VAR + BGDataModel.CONTAINS_HSP_EDGE_TYPE + "\"");
+      query.addDeclaration(BO_VAR + IN_VAR + BGDataModel.SROUTPUT_VERTEX_TYPE + "\"");
+      query.addDeclaration(BI_VAR + IN_VAR + BGDataModel.SRITERATION_VERTEX_TYPE + "\"");
+      query.addDeclaration(BH_VAR + IN_VAR + BGDataModel.SRHIT_VERTEX_TYPE + "\"");
+      query.addDeclaration(BS_VAR + IN_VAR + BGDataModel.SRHSP_VERTEX_TYPE + "\"");
+      query.addConstraint(BSetFunctions.FUNC_StrNotInSet + "(" + BH_VAR + ".accession, \"unknown\")");
+      query.setReturnDistinct(false);
+      query.setReturnVariables(BO_VAR + "," + BI_VAR + "," + BH_VAR + "," + BS_VAR);
+      super.setQuery(query);
+    }
+  }
+
+  @Test
+  public void testValueSetLifetime() {
+    SROutput bo = loadData();
+    HashSet<Long> ranks = new HashSet<Long>();
+    for (int i = 0; i < 1000; i++) {
+      ranks.add(5000l + i);
+    }
+    ranks.add(2l);
+    BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+        FilterSystemConfigurator.getFilterableModel(), "lifetime");
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitRank,
+        BOperatorAccessors.OPE_FUNC_LongInSet, ranks));
+    assertEquals("I1: H2[1]\n", dump(filter.execute(bo)));
+    String id = BValueSetRegistry.getLongSet(BOperatorAccessors.OPE_FUNC_LongInSet, ranks).getId();
+    // the compiled plan keeps the sets its query refers to
+    filter = null;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    assertNotNull(BValueSetRegistry.findLongSet(id));
+    // a set which cannot be resolved makes the filter fail
+    BFilter unknown = new UnknownSetFilter();
+    unknown.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_EValue,
+        BOperatorAccessors.OPE_LessThan, 1d));
+    try {
+      unknown.execute(bo);
+      assertTrue("unknown set not reported", false);
+    } catch (BFilterException ex) {
+      assertTrue(ex.getMessage(), ex.getMessage().contains("unknown"));
+    }
+    assertEquals(null, BSetFunctions.takeUnknownSet());
+  }
+
+  private void writeLines(File file, String... lines) throws Exception {
+    try (FileWriter writer = new FileWriter(file)) {
+      writer.write("# accessions\n");
+      for (String line : lines) {
+        writer.write(line + "\n");
+      }
+    }
+  }
+
+  @Test
+  public void testValueFile() throws Exception {
+    SROutput bo = loadData();
+    SRIteration bi = bo.getIteration(0);
+    File list = File.createTempFile("bfilter", ".txt");
+    File filterFile = File.createTempFile("bfilter", ".xml");
+    try {
+      writeLines(list, bi.getHit(2).getHitAccession(), "", bi.getHit(7).getHitAccession());
+      BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+          FilterSystemConfigurator.getFilterableModel(), "file");
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitAccession,
+          BOperatorAccessors.OPE_FUNC_StrInSet, new BValueFile(list)));
+      for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+        filter.setEngineType(engine);
+        SROutput result = filter.execute(bo);
+        assertEquals(2, result.getIteration(0).countHit());
+        assertEquals(3, result.getIteration(0).getHit(0).getHitNum());
+      }
+      // values are only part of the file: the filter refers to it
+      FilterSystemConfigurator.getSerializer().save(filter, filterFile);
+      BFilter filter2 = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(),
+          filterFile);
+      assertEquals(new BValueFile(list), filter2.getRules().next().getValue());
+      // a value without any path is reported
+      String xml = new String(Files.readAllBytes(filterFile.toPath()), StandardCharsets.UTF_8);
+      File noPathFile = File.createTempFile("bfilter", ".xml");
+      try {
+        Files.write(noPathFile.toPath(), xml.replaceAll("<path>.*</path>", "").getBytes(StandardCharsets.UTF_8));
+        BFilter noPath = FilterSystemConfigurator.getSerializer().load(FilterSystemConfigurator.getFilterableModel(),
+            noPathFile);
+        BValueFile value = (BValueFile) noPath.getRules().next().getValue();
+        assertEquals(null, value.getFile());
+        assertFalse(value.equals(new BValueFile(list)));
+        assertEquals(0, value.hashCode());
+        BValueSetRegistry.getStringSet(BOperatorAccessors.OPE_FUNC_StrInSet, value);
+        assertTrue("missing path not reported", false);
+      } catch (BFilterException ex) {
+        assertTrue(ex.getMessage(), ex.getMessage().startsWith(BOperatorAccessors.OPE_FUNC_StrInSet));
+      } finally {
+        noPathFile.delete();
+      }
+      // a modified file is loaded again
+      writeLines(list, bi.getHit(0).getHitAccession(), bi.getHit(1).getHitAccession(), bi.getHit(4).getHitAccession());
+      for (int engine : new int[] { BFilter.ENGINE_HGE, BFilter.ENGINE_DIRECT }) {
+        filter.setEngineType(engine);
+        assertEquals(3, filter.execute(bo).getIteration(0).countHit());
+        filter2.setEngineType(engine);
+        assertEquals(3, filter2.execute(bo).getIteration(0).countHit());
+      }
+      // integers
+      writeLines(list, "1", "5");
+      filter = FilterSystemConfigurator.getFilterFactory().createFilter(
+          FilterSystemConfigurator.getFilterableModel(), "file");
+      filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitRank,
+          BOperatorAccessors.OPE_FUNC_LongNotInSet, new BValueFile(list)));
+      filter.setEngineType(BFilter.ENGINE_HGE);
+      String hge = dump(filter.execute(bo));
+      filter.setEngineType(BFilter.ENGINE_DIRECT);
+      assertEquals(hge, dump(filter.execute(bo)));
+      assertEquals(bi.countHit() - 2, filter.execute(bo).getIteration(0).countHit());
+    } finally {
+      list.delete();
+      filterFile.delete();
+    }
+  }
+
+  @Test
+  public void testBloomFilter() {
+    BBloomFilter bloom = new BBloomFilter(50000, 0.01d);
+    for (int i = 0; i < 50000; i++) {
+      bloom.add(BBloomFilter.hash("VEC" + i));
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 50000; i++) {
+      assertTrue(bloom.mightContain(BBloomFilter.hash("VEC" + i)));
+      if (bloom.mightContain(BBloomFilter.hash("ACC" + i)))
+        falsePositives++;
+    }
+    assertTrue(String.valueOf(falsePositives), falsePositives < 1500);
+    // large sets get a Bloom filter, lookups are unchanged
+    HashSet<String> ids = new HashSet<String>();
+    HashSet<Long> nums = new HashSet<Long>();
+    for (int i = 0; i < 1000; i++) {
+      ids.add("VEC" + i);
+      nums.add((long) i * 7);
+    }
+    nums.add(Long.MIN_VALUE);
+    int threshold = BValueSetRegistry.getBloomFilterThreshold();
+    try {
+      BValueSetRegistry.setBloomFilterThreshold(0);
+      BStringHashSet exact = BValueSetRegistry.getStringSet(BOperatorAccessors.OPE_FUNC_StrNotInSet, ids);
+      assertFalse(exact.hasBloomFilter());
+      BValueSetRegistry.setBloomFilterThreshold(500);
+      ids.add("VEC-bloom");
+      nums.add(-1l);
+      BStringHashSet sSet = BValueSetRegistry.getStringSet(BOperatorAccessors.OPE_FUNC_StrNotInSet, ids);
+      BLongHashSet lSet = BValueSetRegistry.getLongSet(BOperatorAccessors.OPE_FUNC_LongNotInSet, nums);
+      assertTrue(sSet.hasBloomFilter());
+      assertTrue(lSet.hasBloomFilter());
+      for (int i = 0; i < 5000; i++) {
+        assertEquals(exact.contains("VEC" + i), sSet.contains("VEC" + i));
+        assertEquals(i % 7 == 0 && i < 7000, lSet.contains(i));
+      }
+      assertTrue(sSet.contains("VEC-bloom"));
+      assertTrue(lSet.contains(Long.MIN_VALUE));
+      assertTrue(lSet.contains(-1l));
+    } finally {
+      BValueSetRegistry.setBloomFilterThreshold(threshold);
+    }
+  }
+
+  @Test
+  public void testColumnarStore() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    SROutput bo = makeMultiQueryData(3);
+    BColumnarStore store = new BColumnarStore(model, bo);
+    BResultOrdinals ordinals = store.getOrdinals();
+    double[] evalues = store.getDoubleColumn(BAccessorsBOutput.ACC_EValue);
+    long[] lengths = store.getLongColumn(BAccessorsBOutput.ACC_HitLength);
+    assertEquals(ordinals.countHsps(), evalues.length);
+    assertEquals(ordinals.countHits(), lengths.length);
+    for (int i = 0; i < evalues.length; i++) {
+      assertEquals(ordinals.getHsp(i).getScores().getEvalue(), evalues[i], 0d);
+    }
+    assertEquals(ordinals.getHit(5).getHitLen(), lengths[5]);
+    // third iteration has no hit
+    assertEquals(1, store.getIterationIndex(ordinals.countHits() - 1));
+    assertEquals(null, store.getLongColumn(BAccessorsBOutput.ACC_HitDefinition));
+    // same results as the direct engine
+    Object[][] rules = new Object[][] { { BAccessorsBOutput.ACC_EValue, BOperatorAccessors.OPE_LessThan, 1e-30d },
+        { BAccessorsBOutput.ACC_PctIdentity, BOperatorAccessors.OPE_GreatherThanEqual, 40d },
+        { BAccessorsBOutput.ACC_HitLength, BOperatorAccessors.OPE_GreatherThan, 260l },
+        { BAccessorsBOutput.ACC_HspQueryFrom, BOperatorAccessors.OPE_LessThanEqual, 3l },
+        { BAccessorsBOutput.ACC_BitScore, BOperatorAccessors.OPE_GreatherThan, 50d } };
+    int executed = 0;
+    for (int n = 1; n <= rules.length; n++) {
+      for (boolean exclusive : new boolean[] { true, false }) {
+        BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(model, "columns");
+        for (int i = 0; i < n; i++) {
+          filter.add(FilterSystemConfigurator.getRuleFactory().createRule((String) rules[i][0],
+              (String) rules[i][1], rules[i][2]));
+        }
+        filter.setExclusive(exclusive);
+        filter.setEngineType(BFilter.ENGINE_DIRECT);
+        assertTrue(store.canExecute(filter));
+        assertEquals(n + ":" + exclusive, dump(filter.execute(bo)), dump(store.execute(filter).materialize()));
+      }
+    }
+    for (File f : filterFiles) {
+      BFilter filter = FilterSystemConfigurator.getSerializer().load(model, f);
+      if (!store.canExecute(filter))
+        continue;
+      filter.setEngineType(BFilter.ENGINE_DIRECT);
+      assertEquals(f.getName(), dump(filter.execute(bo)), dump(store.execute(filter).materialize()));
+      executed++;
+    }
+    assertTrue(executed > 0);
+    BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(model, "strings");
+    filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitDefinition,
+        BOperatorAccessors.OPE_MatchRegExp, "Aquaporin"));
+    assertFalse(store.canExecute(filter));
+  }
+
+  private static void checkMasks(String msg, BPredicate predicate, Object[] values, boolean[] missing,
+      long[] matches, long[] errors) {
+    BitSet m = BitSet.valueOf(matches), e = BitSet.valueOf(errors);
+    for (int i = 0; i < values.length; i++) {
+      int state = missing[i] ? BPredicate.ERROR : predicate.test(values[i]);
+      assertEquals(msg + ":" + values[i], state == BPredicate.MATCH, m.get(i));
+      assertEquals(msg + ":" + values[i], state == BPredicate.ERROR, e.get(i));
+    }
+    assertTrue(msg, m.length() <= values.length && e.length() <= values.length);
+  }
+
+  @Test
+  public void testColumnSelector() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    Random rnd = new Random(17);
+    int size = 130;
+    long[] longs = new long[size];
+    double[] doubles = new double[size];
+    Object[] longValues = new Object[size], doubleValues = new Object[size];
+    boolean[] longMissing = new boolean[size], doubleMissing = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      longs[i] = rnd.nextInt(20);
+      doubles[i] = rnd.nextInt(20) / 2d;
+    }
+    // sentinels of missing values are also actual values
+    longs[3] = BGUtils.MISSING_LONG;
+    longs[4] = BGUtils.MISSING_LONG;
+    longMissing[4] = true;
+    longs[size - 1] = Long.MAX_VALUE;
+    doubles[5] = Double.NaN;
+    doubles[6] = Double.NaN;
+    doubleMissing[6] = true;
+    doubles[70] = Double.NEGATIVE_INFINITY;
+    doubles[71] = -0d;
+    long[] longMask = new long[BColumnSelector.getWords(size)];
+    long[] doubleMask = new long[longMask.length];
+    for (int i = 0; i < size; i++) {
+      longValues[i] = longs[i];
+      doubleValues[i] = doubles[i];
+      longMask[i >>> 6] |= (longMissing[i] ? 1L : 0L) << i;
+      doubleMask[i >>> 6] |= (doubleMissing[i] ? 1L : 0L) << i;
+    }
+    Object[][] bounds = { { 5l, 12l }, { 0l, 0l }, { Long.MIN_VALUE, Long.MAX_VALUE }, { 7d, 3.5d },
+        { 4.5d, 4.5d }, { 0d, Double.POSITIVE_INFINITY } };
+    long[] matches = new long[BColumnSelector.getWords(size)];
+    long[] errors = new long[matches.length];
+    String[] operators = { BOperatorAccessors.OPE_Equal, BOperatorAccessors.OPE_NotEqual,
+        BOperatorAccessors.OPE_LessThan, BOperatorAccessors.OPE_GreatherThan, BOperatorAccessors.OPE_LessThanEqual,
+        BOperatorAccessors.OPE_GreatherThanEqual, BOperatorAccessors.OPE_InRangeInclusive,
+        BOperatorAccessors.OPE_InRangeExclusive };
+    for (String ope : operators) {
+      for (Object[] b : bounds) {
+        Object value = ope.equals(BOperatorAccessors.OPE_InRangeInclusive)
+            || ope.equals(BOperatorAccessors.OPE_InRangeExclusive) ? Arrays.asList(b) : b[0];
+        String msg = ope + Arrays.toString(b);
+        BPredicate predicate = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_HitLength),
+            ope, value);
+        if (predicate instanceof BLongPredicate)
+          BColumnSelector.select((BLongPredicate) predicate, longs, longMask, matches, errors);
+        else
+          BColumnSelector.select((BDoublePredicate) predicate, longs, longMask, matches, errors);
+        checkMasks(msg, predicate, longValues, longMissing, matches, errors);
+        predicate = BRuleCompiler.compile(model.getAccessorEntry(BAccessorsBOutput.ACC_EValue), ope, value);
+        BColumnSelector.select((BDoublePredicate) predicate, doubles, doubleMask, matches, errors);
+        checkMasks(msg, predicate, doubleValues, doubleMissing, matches, errors);
+      }
+    }
+  }
+
+  @Test
+  public void testNaNValues() {
+    BOperatorAccessors model = FilterSystemConfigurator.getFilterableModel();
+    SROutput bo = loadData();
+    // NaN is an actual value: it must not be handled as a missing one
+    bo.getIteration(0).getHit(1).getHsp(0).getScores().setEvalue(Double.NaN);
+    bo.getIteration(0).getHit(2).getHsp(0).getScores().setEvalue(Double.NaN);
+    BColumnarStore store = new BColumnarStore(model, bo);
+    int hsp = store.getOrdinals().getHspOrdinal(bo.getIteration(0).getHit(1).getHsp(0));
+    assertTrue(Double.isNaN(store.getDoubleColumn(BAccessorsBOutput.ACC_EValue)[hsp]));
+    assertFalse(store.isMissing(BAccessorsBOutput.ACC_EValue, hsp));
+    Object[][] rules = new Object[][] { { BOperatorAccessors.OPE_LessThan, 1e-30d },
+        { BOperatorAccessors.OPE_GreatherThan, 1e-30d }, { BOperatorAccessors.OPE_NotEqual, 0d },
+        { BOperatorAccessors.OPE_Equal, 0d }, { BOperatorAccessors.OPE_InRangeInclusive, Arrays.asList(0d, 1d) } };
+    for (Object[] rule : rules) {
+      for (boolean exclusive : new boolean[] { true, false }) {
+        BFilter filter = FilterSystemConfigurator.getFilterFactory().createFilter(model, "nan");
+        filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_EValue,
+            (String) rule[0], rule[1]));
+        filter.add(FilterSystemConfigurator.getRuleFactory().createRule(BAccessorsBOutput.ACC_HitLength,
+            BOperatorAccessors.OPE_GreatherThan, 400l));
+        filter.setExclusive(exclusive);
+        String msg = rule[0] + ":" + exclusive;
+        filter.setEngineType(BFilter.ENGINE_HGE);
+        String hge = dump(filter.execute(bo));
+        filter.setEngineType(BFilter.ENGINE_DIRECT);
+        assertEquals(msg, hge, dump(filter.execute(bo)));
+        assertEquals(msg, hge, dump(store.execute(filter).materialize()));
+      }
+    }
+  }
+}